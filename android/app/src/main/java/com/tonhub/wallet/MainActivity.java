@@ -12,7 +12,6 @@ import androidx.core.view.WindowInsetsCompat;
 
 import com.facebook.react.ReactActivity;
 import com.facebook.react.ReactActivityDelegate;
-import com.facebook.react.ReactApplication;
 import com.facebook.react.defaults.DefaultNewArchitectureEntryPoint;
 import com.facebook.react.defaults.DefaultReactActivityDelegate;
 
@@ -131,22 +130,10 @@ public class MainActivity extends ReactActivity {
             });
         }
 
-        mPushNotificationManager = PushNotificationManager.getInstance((ReactApplication) getApplication());
+        mPushNotificationManager = PushNotificationManager.getInstance();
         processIntent(getIntent());
     }
 
-    @Override
-    protected void onStart() {
-        super.onStart();
-        mPushNotificationManager.onStart();
-    }
-
-    @Override
-    protected void onResume() {
-        super.onResume();
-        mPushNotificationManager.onResume();
-    }
-
     @Override
     public void onNewIntent(Intent intent) {
         super.onNewIntent(intent);
@@ -23,6 +23,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.util.List;
 
 import com.tonhub.wallet.modules.appearance.AppearancePackage;
+import com.tonhub.wallet.modules.capabilities.DeviceCapabilitiesPackage;
 import com.tonhub.wallet.modules.navbarcolor.NavigationBarColorPackage;
 import com.tonhub.wallet.modules.store.KeyStorePackage;
 import com.tonhub.wallet.modules.webview.WebViewCachePackage;
@@ -53,6 +54,7 @@ public class MainApplication extends Application implements ReactApplication {
                     packages.add(new WebViewCachePackage());
                     packages.add(new FlagSecurePackage());
                     packages.add(new WalletPackage());
+                    packages.add(new DeviceCapabilitiesPackage());
                     return packages;
                 }
 
@@ -84,6 +86,7 @@ public class MainApplication extends Application implements ReactApplication {
     public void onCreate() {
         ReactNativePerformance.onAppStarted();
         super.onCreate();
+        ProcessLifecycleTracker.getInstance().install(this);
         SoLoader.init(this, /* native exopackage */ false);
 
         IntercomModule.initialize(this, BuildConfig.INTERCOM_ANDROID_API, BuildConfig.INTERCOM_APP);
@@ -0,0 +1,169 @@
+package com.tonhub.wallet;
+
+import android.app.Activity;
+import android.app.Application;
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.facebook.react.ReactApplication;
+import com.facebook.react.ReactInstanceManager;
+import com.facebook.react.bridge.ReactContext;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Process-wide view of the app lifecycle, fed by {@link Application.ActivityLifecycleCallbacks}
+ * and the React instance. Foreground state, the current activity and the React context are plain
+ * volatile reads, so native modules can check them on any thread without asking the system, and
+ * can subscribe to changes instead of polling.
+ */
+public class ProcessLifecycleTracker implements Application.ActivityLifecycleCallbacks {
+    public interface Listener {
+        /**
+         * Called on the main thread when the first activity starts or the last one stops
+         */
+        default void onForegroundChanged(boolean foreground) {
+        }
+
+        /**
+         * Called when a React context is ready, again after every reload
+         */
+        default void onReactContextReady(@NonNull ReactContext context) {
+        }
+    }
+
+    private static final ProcessLifecycleTracker sInstance = new ProcessLifecycleTracker();
+
+    public static ProcessLifecycleTracker getInstance() {
+        return sInstance;
+    }
+
+    private final CopyOnWriteArrayList<Listener> mListeners = new CopyOnWriteArrayList<>();
+    // Only touched from lifecycle callbacks, which all run on the main thread
+    private int mStartedActivities = 0;
+    private boolean mReactHostAttached = false;
+
+    private volatile boolean mForeground = false;
+    private volatile WeakReference<Activity> mCurrentActivity = new WeakReference<>(null);
+    private volatile WeakReference<ReactContext> mReactContext = new WeakReference<>(null);
+
+    private ProcessLifecycleTracker() {
+    }
+
+    /**
+     * Starts tracking, called once from {@link Application#onCreate()}
+     */
+    public void install(Application application) {
+        application.registerActivityLifecycleCallbacks(this);
+    }
+
+    public boolean isForeground() {
+        return mForeground;
+    }
+
+    @Nullable
+    public Activity getCurrentActivity() {
+        return mCurrentActivity.get();
+    }
+
+    /**
+     * The current React context if it has finished initializing and its instance is still alive,
+     * otherwise null. A destroyed instance (e.g. during a reload) is forgotten here, the next one
+     * is reported to the listeners once it is ready.
+     */
+    @Nullable
+    public synchronized ReactContext getReactContext() {
+        ReactContext context = mReactContext.get();
+        if (context != null && !context.hasActiveReactInstance()) {
+            mReactContext = new WeakReference<>(null);
+            return null;
+        }
+        return context;
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    private void attachReactHost(ReactApplication application) {
+        if (mReactHostAttached) {
+            return;
+        }
+        mReactHostAttached = true;
+
+        ReactInstanceManager reactInstanceManager = application.getReactNativeHost().getReactInstanceManager();
+        reactInstanceManager.addReactInstanceEventListener(this::onReactContextInitialized);
+        ReactContext current = reactInstanceManager.getCurrentReactContext();
+        if (current != null) {
+            onReactContextInitialized(current);
+        }
+    }
+
+    private void onReactContextInitialized(ReactContext context) {
+        synchronized (this) {
+            mReactContext = new WeakReference<>(context);
+        }
+        for (Listener listener : mListeners) {
+            listener.onReactContextReady(context);
+        }
+    }
+
+    private void setForeground(boolean foreground) {
+        if (mForeground == foreground) {
+            return;
+        }
+        mForeground = foreground;
+        for (Listener listener : mListeners) {
+            listener.onForegroundChanged(foreground);
+        }
+    }
+
+    @Override
+    public void onActivityCreated(@NonNull Activity activity, @Nullable Bundle savedInstanceState) {
+        // The React host exists once the first React activity is being created
+        if (activity.getApplication() instanceof ReactApplication) {
+            attachReactHost((ReactApplication) activity.getApplication());
+        }
+    }
+
+    @Override
+    public void onActivityStarted(@NonNull Activity activity) {
+        mStartedActivities++;
+        setForeground(true);
+    }
+
+    @Override
+    public void onActivityResumed(@NonNull Activity activity) {
+        mCurrentActivity = new WeakReference<>(activity);
+    }
+
+    @Override
+    public void onActivityPaused(@NonNull Activity activity) {
+    }
+
+    @Override
+    public void onActivityStopped(@NonNull Activity activity) {
+        mStartedActivities = Math.max(0, mStartedActivities - 1);
+        if (mStartedActivities == 0) {
+            setForeground(false);
+        }
+    }
+
+    @Override
+    public void onActivitySaveInstanceState(@NonNull Activity activity, @NonNull Bundle outState) {
+    }
+
+    @Override
+    public void onActivityDestroyed(@NonNull Activity activity) {
+        if (mCurrentActivity.get() == activity) {
+            mCurrentActivity = new WeakReference<>(null);
+        }
+    }
+}
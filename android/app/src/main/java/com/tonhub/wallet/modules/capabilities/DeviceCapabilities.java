@@ -0,0 +1,278 @@
+package com.tonhub.wallet.modules.capabilities;
+
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.nfc.NfcAdapter;
+import android.nfc.NfcManager;
+import android.nfc.cardemulation.CardEmulation;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.biometric.BiometricManager;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableMap;
+import com.google.android.gms.common.GoogleApiAvailability;
+import com.google.android.gms.tapandpay.TapAndPay;
+import com.tonhub.wallet.modules.wallet.WalletModule;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * App-wide snapshot of what the device can do: enrolled authentication level, NFC, default payment
+ * wallet and TapAndPay availability. Each of those is a binder or Play Services call, so they are
+ * computed once and recomputed only when they can have changed (app back in the foreground after
+ * a trip to the system settings, NFC toggled, wallet created or default wallet changed). TapAndPay
+ * is also rechecked on every return to the foreground for as long as it is unavailable. Reads are
+ * a volatile load, listeners are told whenever the snapshot changes.
+ */
+public class DeviceCapabilities {
+    private static final String TAG = "DeviceCapabilities";
+
+    public static final int SECURITY_LEVEL_NONE = 0;
+    public static final int SECURITY_LEVEL_SECRET = 1;
+    public static final int SECURITY_LEVEL_BIOMETRIC = 2;
+
+    public static class Snapshot {
+        public final int enrolledLevel;
+        public final boolean hasNfc;
+        public final boolean isNfcEnabled;
+        public final boolean isDefaultWallet;
+        // Null until the first TapAndPay check completes
+        @Nullable
+        public final Boolean isTapAndPayAvailable;
+
+        Snapshot(int enrolledLevel, boolean hasNfc, boolean isNfcEnabled, boolean isDefaultWallet, @Nullable Boolean isTapAndPayAvailable) {
+            this.enrolledLevel = enrolledLevel;
+            this.hasNfc = hasNfc;
+            this.isNfcEnabled = isNfcEnabled;
+            this.isDefaultWallet = isDefaultWallet;
+            this.isTapAndPayAvailable = isTapAndPayAvailable;
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("enrolledLevel", enrolledLevel);
+            map.put("hasNfc", hasNfc);
+            map.put("isNfcEnabled", isNfcEnabled);
+            map.put("isDefaultWallet", isDefaultWallet);
+            map.put("isTapAndPayAvailable", isTapAndPayAvailable);
+            return map;
+        }
+
+        public WritableMap toWritableMap() {
+            return Arguments.makeNativeMap(toMap());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Snapshot)) {
+                return false;
+            }
+            Snapshot other = (Snapshot) o;
+            return enrolledLevel == other.enrolledLevel
+                    && hasNfc == other.hasNfc
+                    && isNfcEnabled == other.isNfcEnabled
+                    && isDefaultWallet == other.isDefaultWallet
+                    && (isTapAndPayAvailable == null ? other.isTapAndPayAvailable == null : isTapAndPayAvailable.equals(other.isTapAndPayAvailable));
+        }
+
+        @Override
+        public int hashCode() {
+            return toMap().hashCode();
+        }
+    }
+
+    public interface Listener {
+        void onCapabilitiesChanged(Snapshot snapshot);
+    }
+
+    @Nullable
+    private static DeviceCapabilities sInstance;
+
+    public static synchronized DeviceCapabilities get(Context context) {
+        if (sInstance == null) {
+            sInstance = new DeviceCapabilities(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private final Context mContext;
+    private final BiometricManager mBiometricManager;
+    private final CopyOnWriteArrayList<Listener> mListeners = new CopyOnWriteArrayList<>();
+    // Recomputes run one at a time off the caller's thread
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "DeviceCapabilities")
+    );
+    private volatile Snapshot mSnapshot;
+    private volatile CompletableFuture<Boolean> mTapAndPayAvailable;
+    // The latest refresh, the executor runs them in order so it also covers earlier ones
+    private volatile CompletableFuture<Snapshot> mRefresh = new CompletableFuture<>();
+    // Set while the app is away, the system settings may have been changed meanwhile
+    private volatile boolean mDirty = false;
+
+    private final BroadcastReceiver mNfcStateReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            refresh();
+        }
+    };
+
+    private DeviceCapabilities(Context context) {
+        mContext = context;
+        mBiometricManager = BiometricManager.from(context);
+        mSnapshot = compute(null);
+        mRefresh.complete(mSnapshot);
+        refreshTapAndPay();
+        context.registerReceiver(mNfcStateReceiver, new IntentFilter(NfcAdapter.ACTION_ADAPTER_STATE_CHANGED));
+    }
+
+    public Snapshot getSnapshot() {
+        return mSnapshot;
+    }
+
+    /**
+     * Completes once TapAndPay availability is known, immediately if it already is
+     */
+    public CompletableFuture<Boolean> isTapAndPayAvailable() {
+        return mTapAndPayAvailable;
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Snapshot that reflects every change reported so far: waits for a refresh that is still
+     * queued, and recomputes first if the snapshot may be stale. Use this to answer a request,
+     * getSnapshot for a quick read.
+     */
+    public CompletableFuture<Snapshot> getFreshSnapshot() {
+        CompletableFuture<Snapshot> refresh = mRefresh;
+        if (!refresh.isDone()) {
+            return refresh;
+        }
+        if (mDirty) {
+            return refresh();
+        }
+        return CompletableFuture.completedFuture(mSnapshot);
+    }
+
+    /**
+     * Marks the snapshot as possibly stale, the next getFreshSnapshot recomputes it
+     */
+    public void markDirty() {
+        mDirty = true;
+    }
+
+    /**
+     * Recomputes the local capabilities in the background, completes with the new snapshot
+     */
+    public CompletableFuture<Snapshot> refresh() {
+        CompletableFuture<Snapshot> future = new CompletableFuture<>();
+        mRefresh = future;
+        mExecutor.execute(() -> {
+            mDirty = false;
+            try {
+                publish(compute(mSnapshot.isTapAndPayAvailable));
+            } finally {
+                future.complete(mSnapshot);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Checks TapAndPay again, after a wallet was created or Play Services changed
+     */
+    public void refreshTapAndPay() {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        // Only a device that can use TapAndPay has a stable hardware id
+        TapAndPay.getClient(mContext).getStableHardwareId().addOnCompleteListener(task -> future.complete(task.isSuccessful()));
+        mTapAndPayAvailable = future;
+        future.thenAccept(available -> mExecutor.execute(() -> publish(compute(available))));
+    }
+
+    /**
+     * Checks TapAndPay again if the last check found it unavailable, Play Services or the wallet
+     * app may have been installed or updated while the app was away
+     */
+    public void refreshTapAndPayIfUnavailable() {
+        if (!mTapAndPayAvailable.getNow(true)) {
+            refreshTapAndPay();
+        }
+    }
+
+    private void publish(Snapshot snapshot) {
+        if (snapshot.equals(mSnapshot)) {
+            return;
+        }
+        mSnapshot = snapshot;
+        for (Listener listener : mListeners) {
+            listener.onCapabilitiesChanged(snapshot);
+        }
+    }
+
+    private Snapshot compute(@Nullable Boolean isTapAndPayAvailable) {
+        NfcAdapter adapter = null;
+        NfcManager nfcManager = (NfcManager) mContext.getSystemService(Context.NFC_SERVICE);
+        if (nfcManager != null) {
+            adapter = nfcManager.getDefaultAdapter();
+        }
+
+        return new Snapshot(
+                computeEnrolledLevel(),
+                adapter != null,
+                adapter != null && adapter.isEnabled(),
+                adapter != null && computeIsDefaultWallet(adapter),
+                isTapAndPayAvailable
+        );
+    }
+
+    private int computeEnrolledLevel() {
+        int level = SECURITY_LEVEL_NONE;
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) {
+            int result = mBiometricManager.canAuthenticate(BiometricManager.Authenticators.BIOMETRIC_STRONG);
+            if (result == BiometricManager.BIOMETRIC_SUCCESS) {
+                level = SECURITY_LEVEL_BIOMETRIC;
+            }
+        } else {
+            int biometricResult = mBiometricManager.canAuthenticate(BiometricManager.Authenticators.BIOMETRIC_STRONG);
+            if (biometricResult == BiometricManager.BIOMETRIC_SUCCESS) {
+                level = SECURITY_LEVEL_BIOMETRIC;
+            } else {
+                int deviceCredentialResult = mBiometricManager.canAuthenticate(BiometricManager.Authenticators.DEVICE_CREDENTIAL);
+                if (deviceCredentialResult == BiometricManager.BIOMETRIC_SUCCESS) {
+                    level = SECURITY_LEVEL_SECRET;
+                }
+            }
+        }
+        return level;
+    }
+
+    private static boolean computeIsDefaultWallet(NfcAdapter adapter) {
+        try {
+            CardEmulation emulation = CardEmulation.getInstance(adapter);
+            return emulation.isDefaultServiceForCategory(
+                    new ComponentName(GoogleApiAvailability.GOOGLE_PLAY_SERVICES_PACKAGE, WalletModule.GOOGLE_PAY_TP_HCE_SERVICE),
+                    CardEmulation.CATEGORY_PAYMENT);
+        } catch (RuntimeException e) {
+            // No host card emulation on this device
+            Log.w(TAG, e);
+            return false;
+        }
+    }
+}
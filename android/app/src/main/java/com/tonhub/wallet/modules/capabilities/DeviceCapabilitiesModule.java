@@ -0,0 +1,98 @@
+package com.tonhub.wallet.modules.capabilities;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.LifecycleEventListener;
+import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.bridge.ReactContextBaseJavaModule;
+import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.modules.core.DeviceEventManagerModule;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Exposes {@link DeviceCapabilities} to JS: the snapshot taken at startup as a constant, the
+ * current one as a synchronous read, and a "deviceCapabilitiesChanged" event whenever it changes.
+ */
+public class DeviceCapabilitiesModule extends ReactContextBaseJavaModule implements DeviceCapabilities.Listener {
+    private static final String CHANGED_EVENT_NAME = "deviceCapabilitiesChanged";
+
+    private final DeviceCapabilities mCapabilities;
+
+    // Lock screen, biometrics and the default wallet are changed in the system settings, so
+    // recheck whenever the app comes back
+    private final LifecycleEventListener mLifecycleEventListener = new LifecycleEventListener() {
+        @Override
+        public void onHostResume() {
+            mCapabilities.refresh();
+            mCapabilities.refreshTapAndPayIfUnavailable();
+        }
+
+        @Override
+        public void onHostPause() {
+            mCapabilities.markDirty();
+        }
+
+        @Override
+        public void onHostDestroy() {
+        }
+    };
+
+    public DeviceCapabilitiesModule(ReactApplicationContext reactContext) {
+        super(reactContext);
+        mCapabilities = DeviceCapabilities.get(reactContext);
+        mCapabilities.addListener(this);
+        reactContext.addLifecycleEventListener(mLifecycleEventListener);
+    }
+
+    @NonNull
+    @Override
+    public String getName() {
+        return "DeviceCapabilities";
+    }
+
+    @Nullable
+    @Override
+    public Map<String, Object> getConstants() {
+        Map<String, Object> constants = new HashMap<>();
+        constants.put("initial", mCapabilities.getSnapshot().toMap());
+        return constants;
+    }
+
+    @ReactMethod(isBlockingSynchronousMethod = true)
+    @SuppressWarnings("unused")
+    public WritableMap getSnapshot() {
+        return mCapabilities.getSnapshot().toWritableMap();
+    }
+
+    @Override
+    public void onCapabilitiesChanged(DeviceCapabilities.Snapshot snapshot) {
+        ReactApplicationContext context = getReactApplicationContext();
+        if (!context.hasActiveReactInstance()) {
+            return;
+        }
+        context.getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+                .emit(CHANGED_EVENT_NAME, snapshot.toWritableMap());
+    }
+
+    // Required by NativeEventEmitter
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void addListener(String eventName) {
+    }
+
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void removeListeners(double count) {
+    }
+
+    @Override
+    public void invalidate() {
+        mCapabilities.removeListener(this);
+        getReactApplicationContext().removeLifecycleEventListener(mLifecycleEventListener);
+        super.invalidate();
+    }
+}
@@ -1,8 +1,8 @@
 package com.tonhub.wallet.modules.store;
 
-import android.app.ActivityManager;
 import android.content.Context;
 import android.os.Build;
+import android.util.Log;
 
 import androidx.biometric.BiometricManager;
 import androidx.biometric.BiometricPrompt;
@@ -11,145 +11,130 @@ import androidx.fragment.app.FragmentActivity;
 
 import com.facebook.react.bridge.Promise;
 import com.facebook.react.bridge.ReactContext;
+import com.tonhub.wallet.ProcessLifecycleTracker;
 
 import org.json.JSONException;
 
 import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.crypto.Cipher;
 
+/**
+ * Coordinates the biometric prompts of KeyStoreModule. Only one prompt is shown at a time,
+ * requests that arrive meanwhile are queued and served in FIFO order instead of being rejected.
+ * Queued requests that don't need a cipher are all satisfied by the next such prompt. Requests
+ * with a cipher can't share a prompt, since a CryptoObject authorizes a single cipher operation
+ * of a per-use key.
+ * <p>
+ * The prompt reports back on the main thread, but the cipher work that follows a successful
+ * authentication (doFinal, persisting the result, resolving the promise) runs on a dedicated crypto
+ * thread, so it can't drop frames right as the prompt closes.
+ */
 public class AuthenticationHelper {
     private final ReactContext mContext;
-    private Boolean isAuthenticating = false;
-    AuthenticationHelper(Context context) {
+    private final KeyStoreMetrics mMetrics;
+
+    private final ArrayDeque<AuthRequest> mQueue = new ArrayDeque<>();
+    private boolean mPromptActive = false;
+
+    private final ExecutorService mCryptoExecutor = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "KeyStoreCrypto")
+    );
+
+    AuthenticationHelper(Context context, KeyStoreMetrics metrics) {
         this.mContext = (ReactContext) context;
+        this.mMetrics = metrics;
     }
 
-    private void authenticate(Promise promise, PostAuthCallback postAuthCallback) {
-        if (isAuthenticating) {
-            promise.reject(
-                    "AUTH_IN_PROGRESS",
-                    "Authentication is already in progress"
-            );
-            return;
-        }
+    private abstract static class AuthRequest {
+        final Promise promise;
 
-        BiometricManager biometricManager = BiometricManager.from(mContext);
-        int checkRes = biometricManager.canAuthenticate(
-                BiometricManager.Authenticators.DEVICE_CREDENTIAL
-                        | BiometricManager.Authenticators.BIOMETRIC_STRONG
-        );
-        switch (checkRes) {
-            case BiometricManager.BIOMETRIC_ERROR_HW_UNAVAILABLE:
-            case BiometricManager.BIOMETRIC_ERROR_NO_HARDWARE:
-                promise.reject(
-                        "AUTH_NOT_AVAILABLE",
-                        "No hardware available for passcode authentication."
-                );
-                return;
-            case BiometricManager.BIOMETRIC_ERROR_NONE_ENROLLED:
-                promise.reject(
-                        "AUTH_NOT_CONFIGURED",
-                        "No passcode enrolled"
-                );
-                return;
-            case BiometricManager.BIOMETRIC_ERROR_SECURITY_UPDATE_REQUIRED:
-            case BiometricManager.BIOMETRIC_ERROR_UNSUPPORTED:
-            case BiometricManager.BIOMETRIC_STATUS_UNKNOWN:
-                promise.reject(
-                        "AUTH_NOT_UNKNOWN_ERR",
-                        "STATUS_UNKNOWN"
-                );
-            case BiometricManager.BIOMETRIC_SUCCESS:
-                break;
+        AuthRequest(Promise promise) {
+            this.promise = promise;
         }
+    }
 
-        BiometricPrompt.PromptInfo.Builder promptInfoBuilder = new BiometricPrompt
-                .PromptInfo.Builder()
-                .setTitle("Authenticate");
-
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
-            promptInfoBuilder.setAllowedAuthenticators(BiometricManager.Authenticators.DEVICE_CREDENTIAL | BiometricManager.Authenticators.BIOMETRIC_STRONG);
-        } else {
-            promptInfoBuilder.setNegativeButtonText(mContext.getString(android.R.string.cancel));
+    private static class CipherAuthRequest extends AuthRequest {
+        final Cipher cipher;
+        final EncryptionCallback encryptionCallback;
+        final PostEncryptionCallback postEncryptionCallback;
+
+        CipherAuthRequest(Promise promise, Cipher cipher, EncryptionCallback encryptionCallback,
+                          PostEncryptionCallback postEncryptionCallback) {
+            super(promise);
+            this.cipher = cipher;
+            this.encryptionCallback = encryptionCallback;
+            this.postEncryptionCallback = postEncryptionCallback;
         }
+    }
 
-        BiometricPrompt.PromptInfo promptInfo = promptInfoBuilder.build();
+    private static class NoCipherAuthRequest extends AuthRequest {
+        final PostAuthCallback postAuthCallback;
 
-        if (!isAppInforegrounded()) {
-            promise.reject(
-                    "APP_BACKGROUNDED",
-                    "Cannot display biometric prompt when the app is not in the foreground"
-            );
-            return;
+        NoCipherAuthRequest(Promise promise, PostAuthCallback postAuthCallback) {
+            super(promise);
+            this.postAuthCallback = postAuthCallback;
         }
+    }
 
-        FragmentActivity fragmentActivity = getCurrentActivity();
-
-        fragmentActivity.runOnUiThread(() -> {
-            isAuthenticating = true;
-            new BiometricPrompt(
-                    fragmentActivity,
-                    ContextCompat.getMainExecutor(mContext),
-                    new BiometricPrompt.AuthenticationCallback() {
-                        @Override
-                        public void onAuthenticationSucceeded(BiometricPrompt.AuthenticationResult result) {
-                            super.onAuthenticationSucceeded(result);
-                            isAuthenticating = false;
-                            try {
-                                postAuthCallback.run(true);
-                            } catch (GeneralSecurityException e) {
-                                promise.reject(e);
-                            }
-                        }
+    private void enqueue(AuthRequest request) {
+        synchronized (this) {
+            mQueue.add(request);
+            if (mPromptActive) {
+                return;
+            }
+            mPromptActive = true;
+        }
+        dispatchNext();
+    }
 
-                        @Override
-                        public void onAuthenticationError(int errorCode, CharSequence errString) {
-                            super.onAuthenticationError(errorCode, errString);
-                            isAuthenticating = false;
-
-                            if (
-                                    errorCode == BiometricPrompt.ERROR_USER_CANCELED
-                                            || errorCode == BiometricPrompt.ERROR_NEGATIVE_BUTTON
-                            ) {
-                                try {
-                                    postAuthCallback.run(false);
-                                } catch (GeneralSecurityException e) {
-                                    promise.reject(e);
-                                }
-                                promise.reject(
-                                        "CANCELLED",
-                                        "User canceled the authentication"
-                                );
-                            } else {
-                                try {
-                                    postAuthCallback.run(false);
-                                } catch (GeneralSecurityException e) {
-                                    promise.reject(e);
-                                }
-                                promise.reject(
-                                        "AUTH_FAILURE",
-                                        "Could not authenticate the user"
-                                );
-                            }
+    /**
+     * Shows the prompt for the head of the queue, or marks the coordinator idle. Requests whose
+     * pre-checks fail are rejected and the next one is tried right away.
+     */
+    private void dispatchNext() {
+        while (true) {
+            List<AuthRequest> batch = new ArrayList<>();
+            synchronized (this) {
+                AuthRequest head = mQueue.poll();
+                if (head == null) {
+                    mPromptActive = false;
+                    return;
+                }
+                batch.add(head);
+
+                if (head instanceof NoCipherAuthRequest) {
+                    Iterator<AuthRequest> iterator = mQueue.iterator();
+                    while (iterator.hasNext()) {
+                        AuthRequest request = iterator.next();
+                        if (request instanceof NoCipherAuthRequest) {
+                            batch.add(request);
+                            iterator.remove();
                         }
                     }
-            ).authenticate(promptInfo);
-        });
+                }
+            }
+
+            if (showPrompt(batch)) {
+                return;
+            }
+        }
     }
 
-    private void openAuthenticationPrompt(Promise promise,
-                                          EncryptionCallback encryptionCallback,
-                                          Cipher cipher,
-                                          PostEncryptionCallback postEncryptionCallback) {
-        if (isAuthenticating) {
-            promise.reject(
-                    "AUTH_IN_PROGRESS",
-                    "Authentication is already in progress"
-            );
-            return;
+    private void rejectAll(List<AuthRequest> batch, String code, String message) {
+        for (AuthRequest request : batch) {
+            request.promise.reject(code, message);
         }
+    }
 
+    private boolean checkCanAuthenticate(List<AuthRequest> batch) {
         BiometricManager biometricManager = BiometricManager.from(mContext);
         int checkRes = biometricManager.canAuthenticate(
                 BiometricManager.Authenticators.DEVICE_CREDENTIAL
@@ -158,28 +143,45 @@ public class AuthenticationHelper {
         switch (checkRes) {
             case BiometricManager.BIOMETRIC_ERROR_HW_UNAVAILABLE:
             case BiometricManager.BIOMETRIC_ERROR_NO_HARDWARE:
-                promise.reject(
+                rejectAll(
+                        batch,
                         "AUTH_NOT_AVAILABLE",
                         "No hardware available for passcode authentication."
                 );
-                return;
+                return false;
             case BiometricManager.BIOMETRIC_ERROR_NONE_ENROLLED:
-                promise.reject(
+                rejectAll(
+                        batch,
                         "AUTH_NOT_CONFIGURED",
                         "No passcode enrolled"
                 );
-                return;
+                return false;
             case BiometricManager.BIOMETRIC_ERROR_SECURITY_UPDATE_REQUIRED:
             case BiometricManager.BIOMETRIC_ERROR_UNSUPPORTED:
             case BiometricManager.BIOMETRIC_STATUS_UNKNOWN:
-                promise.reject(
+                rejectAll(
+                        batch,
                         "AUTH_NOT_UNKNOWN_ERR",
                         "STATUS_UNKNOWN"
                 );
+                return false;
             case BiometricManager.BIOMETRIC_SUCCESS:
                 break;
         }
 
+        if (!isAppInforegrounded()) {
+            rejectAll(
+                    batch,
+                    "APP_BACKGROUNDED",
+                    "Cannot display biometric prompt when the app is not in the foreground"
+            );
+            return false;
+        }
+
+        return true;
+    }
+
+    private BiometricPrompt.PromptInfo buildPromptInfo() {
         BiometricPrompt.PromptInfo.Builder promptInfoBuilder = new BiometricPrompt
                 .PromptInfo.Builder()
                 .setTitle("Authenticate");
@@ -190,63 +192,142 @@ public class AuthenticationHelper {
             promptInfoBuilder.setNegativeButtonText(mContext.getString(android.R.string.cancel));
         }
 
-        BiometricPrompt.PromptInfo promptInfo = promptInfoBuilder.build();
+        return promptInfoBuilder.build();
+    }
 
-        if (!isAppInforegrounded()) {
-            promise.reject(
+    /**
+     * Returns false if the batch was rejected without showing a prompt
+     */
+    private boolean showPrompt(List<AuthRequest> batch) {
+        if (!checkCanAuthenticate(batch)) {
+            return false;
+        }
+
+        FragmentActivity fragmentActivity = (FragmentActivity) mContext.getCurrentActivity();
+        if (fragmentActivity == null || isGone(fragmentActivity)) {
+            rejectAll(
+                    batch,
                     "APP_BACKGROUNDED",
-                    "Cannot display biometric prompt when the app is not in the foreground"
+                    "Cannot display biometric prompt without a current activity"
             );
-            return;
+            return false;
         }
 
-        FragmentActivity fragmentActivity = getCurrentActivity();
+        BiometricPrompt.PromptInfo promptInfo = buildPromptInfo();
+        AuthRequest head = batch.get(0);
 
         fragmentActivity.runOnUiThread(() -> {
-        isAuthenticating = true;
-            new BiometricPrompt(
+            if (isGone(fragmentActivity)) {
+                // Destroyed before the prompt could be shown, nothing would ever call back
+                rejectAll(
+                        batch,
+                        "APP_BACKGROUNDED",
+                        "Cannot display biometric prompt without a current activity"
+                );
+                dispatchNext();
+                return;
+            }
+
+            long promptStart = KeyStoreMetrics.now();
+            BiometricPrompt prompt = new BiometricPrompt(
                     fragmentActivity,
                     ContextCompat.getMainExecutor(mContext),
                     new BiometricPrompt.AuthenticationCallback() {
                         @Override
                         public void onAuthenticationSucceeded(BiometricPrompt.AuthenticationResult result) {
                             super.onAuthenticationSucceeded(result);
-                            isAuthenticating = false;
-
-                            Cipher cipher = result.getCryptoObject().getCipher();
-                            handleEncryptionCallback(
-                                    promise,
-                                    encryptionCallback,
-                                    cipher,
-                                    postEncryptionCallback
-                                    );
+                            mMetrics.record(mMetrics.prompt, promptStart);
+                            BiometricPrompt.CryptoObject cryptoObject = result.getCryptoObject();
+                            try {
+                                runOnCryptoThread(batch, head, cryptoObject);
+                            } catch (RejectedExecutionException e) {
+                                // The module was invalidated while the prompt was up
+                                Log.w(KeyStoreModule.TAG, e);
+                                rejectAll(batch, "FAILURE", "Could not encrypt/decrypt the value for KeychainStoreModule");
+                                dispatchNext();
+                            }
                         }
 
                         @Override
                         public void onAuthenticationError(int errorCode, CharSequence errString) {
                             super.onAuthenticationError(errorCode, errString);
-                            isAuthenticating = false;
-
-                            if (
-                                    errorCode == BiometricPrompt.ERROR_USER_CANCELED
-                                    || errorCode == BiometricPrompt.ERROR_NEGATIVE_BUTTON
-                            ) {
-                                promise.reject(
-                                        "CANCELLED",
-                                        "User canceled the authentication"
-                                );
-                            } else {
-                                promise.reject(
-                                        "AUTH_FAILURE",
-                                        "Could not authenticate the user"
-                                );
+                            mMetrics.record(mMetrics.prompt, promptStart);
+
+                            boolean cancelled = errorCode == BiometricPrompt.ERROR_USER_CANCELED
+                                    || errorCode == BiometricPrompt.ERROR_NEGATIVE_BUTTON;
+                            try {
+                                for (AuthRequest request : batch) {
+                                    if (request instanceof NoCipherAuthRequest) {
+                                        runPostAuthCallback((NoCipherAuthRequest) request, false);
+                                    }
+                                    if (cancelled) {
+                                        request.promise.reject(
+                                                "CANCELLED",
+                                                "User canceled the authentication"
+                                        );
+                                    } else {
+                                        request.promise.reject(
+                                                "AUTH_FAILURE",
+                                                "Could not authenticate the user"
+                                        );
+                                    }
+                                }
+                            } finally {
+                                dispatchNext();
                             }
                         }
                     }
-            ).authenticate(promptInfo, new BiometricPrompt.CryptoObject(cipher));
+            );
+
+            if (head instanceof CipherAuthRequest) {
+                prompt.authenticate(promptInfo, new BiometricPrompt.CryptoObject(((CipherAuthRequest) head).cipher));
+            } else {
+                prompt.authenticate(promptInfo);
+            }
+        });
+
+        return true;
+    }
+
+    private void runOnCryptoThread(List<AuthRequest> batch, AuthRequest head,
+                                   BiometricPrompt.CryptoObject cryptoObject) {
+        mCryptoExecutor.execute(() -> {
+            try {
+                if (head instanceof CipherAuthRequest) {
+                    CipherAuthRequest request = (CipherAuthRequest) head;
+                    handleEncryptionCallback(
+                            request.promise,
+                            request.encryptionCallback,
+                            cryptoObject.getCipher(),
+                            request.postEncryptionCallback
+                    );
+                } else {
+                    for (AuthRequest request : batch) {
+                        runPostAuthCallback((NoCipherAuthRequest) request, true);
+                    }
+                }
+            } catch (RuntimeException e) {
+                // Nothing above us would catch it on this thread
+                Log.e(KeyStoreModule.TAG, "Caught unexpected exception after authentication", e);
+                rejectAll(batch, "FAILURE", "Could not encrypt/decrypt the value for KeychainStoreModule");
+            } finally {
+                dispatchNext();
+            }
         });
     }
 
+    private static boolean isGone(FragmentActivity activity) {
+        return activity.isFinishing() || activity.isDestroyed();
+    }
+
+    private void runPostAuthCallback(NoCipherAuthRequest request, boolean success) {
+        try {
+            request.postAuthCallback.run(success);
+        } catch (GeneralSecurityException e) {
+            request.promise.reject(e);
+        }
+    }
+
     private void handleEncryptionCallback(
             Promise promise,
             EncryptionCallback encryptionCallback,
@@ -278,10 +359,7 @@ public class AuthenticationHelper {
     }
 
     public Boolean isAppInforegrounded() {
-        ActivityManager.RunningAppProcessInfo appProcessInfo = new ActivityManager.RunningAppProcessInfo();
-        ActivityManager.getMyMemoryState(appProcessInfo);
-        return (appProcessInfo.importance == ActivityManager.RunningAppProcessInfo.IMPORTANCE_FOREGROUND ||
-                appProcessInfo.importance == ActivityManager.RunningAppProcessInfo.IMPORTANCE_VISIBLE);
+        return ProcessLifecycleTracker.getInstance().isForeground();
     }
 
     private class DefaultCallBack implements AuthenticationCallback {
@@ -291,12 +369,26 @@ public class AuthenticationHelper {
                 EncryptionCallback encryptionCallback,
                 PostEncryptionCallback postEncryptionCallback
         ) {
-            openAuthenticationPrompt(promise, encryptionCallback, cipher, postEncryptionCallback);
+            enqueue(new CipherAuthRequest(promise, cipher, encryptionCallback, postEncryptionCallback));
         }
 
         public void checkAuthNoCipher(Promise promise, PostAuthCallback postAuthCallback) {
-            authenticate(promise, postAuthCallback);
+            enqueue(new NoCipherAuthRequest(promise, postAuthCallback));
+        }
+    }
+
+    /**
+     * Stops the crypto thread and rejects the queued requests, they would only prompt the user for
+     * work that can no longer run
+     */
+    void shutdown() {
+        mCryptoExecutor.shutdown();
+        List<AuthRequest> queued;
+        synchronized (this) {
+            queued = new ArrayList<>(mQueue);
+            mQueue.clear();
         }
+        rejectAll(queued, "FAILURE", "KeyStoreModule was invalidated");
     }
 
     public AuthenticationCallback getDefaultCallback() {
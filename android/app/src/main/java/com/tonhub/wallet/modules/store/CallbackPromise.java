@@ -0,0 +1,106 @@
+package com.tonhub.wallet.modules.store;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.WritableMap;
+
+/**
+ * A {@link Promise} that is settled natively instead of being handed back to JS. Used to chain
+ * several encrypt/decrypt pipelines inside a single bridge call.
+ */
+public class CallbackPromise implements Promise {
+    private static final String DEFAULT_ERROR_CODE = "EUNSPECIFIED";
+
+    public interface Listener {
+        void onResolve(@Nullable Object value);
+
+        void onReject(String code, @Nullable String message, @Nullable Throwable throwable);
+    }
+
+    private final Listener mListener;
+    private boolean mSettled = false;
+
+    public CallbackPromise(Listener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public void resolve(@Nullable Object value) {
+        if (settle()) {
+            mListener.onResolve(value);
+        }
+    }
+
+    @Override
+    public void reject(String code, String message) {
+        settleRejected(code, message, null);
+    }
+
+    @Override
+    public void reject(String code, Throwable throwable) {
+        settleRejected(code, null, throwable);
+    }
+
+    @Override
+    public void reject(String code, String message, Throwable throwable) {
+        settleRejected(code, message, throwable);
+    }
+
+    @Override
+    public void reject(Throwable throwable) {
+        settleRejected(null, null, throwable);
+    }
+
+    @Override
+    public void reject(Throwable throwable, WritableMap userInfo) {
+        settleRejected(null, null, throwable);
+    }
+
+    @Override
+    public void reject(String code, @NonNull WritableMap userInfo) {
+        settleRejected(code, null, null);
+    }
+
+    @Override
+    public void reject(String code, Throwable throwable, WritableMap userInfo) {
+        settleRejected(code, null, throwable);
+    }
+
+    @Override
+    public void reject(String code, String message, @NonNull WritableMap userInfo) {
+        settleRejected(code, message, null);
+    }
+
+    @Override
+    public void reject(String code, String message, Throwable throwable, WritableMap userInfo) {
+        settleRejected(code, message, throwable);
+    }
+
+    @Override
+    @Deprecated
+    public void reject(String message) {
+        settleRejected(null, message, null);
+    }
+
+    private void settleRejected(@Nullable String code, @Nullable String message, @Nullable Throwable throwable) {
+        if (!settle()) {
+            return;
+        }
+        if (message == null && throwable != null) {
+            message = throwable.getMessage();
+        }
+        mListener.onReject(code != null ? code : DEFAULT_ERROR_CODE, message, throwable);
+    }
+
+    // Authentication callbacks may settle the same promise more than once (e.g. reject after
+    // a failed post-auth callback), only the first outcome is forwarded
+    private synchronized boolean settle() {
+        if (mSettled) {
+            return false;
+        }
+        mSettled = true;
+        return true;
+    }
+}
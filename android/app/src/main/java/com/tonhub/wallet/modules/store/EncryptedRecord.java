@@ -0,0 +1,19 @@
+package com.tonhub.wallet.modules.store;
+
+/**
+ * An encrypted item as persisted by {@link SecureRecordStore}: the scheme that sealed it, the GCM
+ * parameters and the raw ciphertext (with the authentication tag appended).
+ */
+public class EncryptedRecord {
+    public final String scheme;
+    public final byte[] iv;
+    public final int tagLength;
+    public final byte[] ciphertext;
+
+    public EncryptedRecord(String scheme, byte[] iv, int tagLength, byte[] ciphertext) {
+        this.scheme = scheme;
+        this.iv = iv;
+        this.tagLength = tagLength;
+        this.ciphertext = ciphertext;
+    }
+}
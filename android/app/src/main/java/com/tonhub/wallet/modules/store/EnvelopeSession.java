@@ -0,0 +1,60 @@
+package com.tonhub.wallet.modules.store;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Holds the unwrapped envelope data key for the current unlocked session. The raw key bytes live
+ * in a single array that is zeroed when the session expires, the app goes to background or the
+ * module is torn down.
+ */
+public class EnvelopeSession {
+    private static final String KEY_ALGORITHM = "AES";
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mExpireRunnable = this::close;
+
+    @Nullable
+    private byte[] mKey;
+
+    /**
+     * Opens the session with a copy of the given key, the caller stays responsible for wiping its
+     * own array
+     */
+    public synchronized void open(byte[] key, long timeoutMs) {
+        close();
+        mKey = key.clone();
+        mHandler.postDelayed(mExpireRunnable, timeoutMs);
+    }
+
+    /**
+     * Returns the session key or null if the session is closed. Each call returns a fresh
+     * SecretKeySpec so that the session array is the only long-lived copy.
+     */
+    @Nullable
+    public synchronized SecretKey getKey() {
+        if (mKey == null) {
+            return null;
+        }
+        return new SecretKeySpec(mKey, KEY_ALGORITHM);
+    }
+
+    public synchronized boolean isOpen() {
+        return mKey != null;
+    }
+
+    public synchronized void close() {
+        mHandler.removeCallbacks(mExpireRunnable);
+        if (mKey != null) {
+            Arrays.fill(mKey, (byte) 0);
+            mKey = null;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.tonhub.wallet.modules.store;
+
+import android.util.Log;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Orders asynchronous operations per key without holding a lock while they run. Each key has a
+ * tail future, an operation starts once the previous operation on the same key has signalled it is
+ * done, so a read never overtakes a write of its key (or the other way round), while operations
+ * on different keys run concurrently. A key's entry is dropped again once its queue drains.
+ * An operation on an idle key starts on the caller's thread, a queued one on the sequencer's own
+ * thread rather than on whichever thread signalled done, which may be the main thread.
+ */
+public class KeySequencer {
+    public interface Operation {
+        /**
+         * Starts the operation, which must call done exactly once when it has settled
+         */
+        void run(Runnable done);
+    }
+
+    private final ConcurrentHashMap<String, CompletableFuture<Void>> mTails = new ConcurrentHashMap<>();
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "KeyStoreSequencer")
+    );
+
+    /**
+     * Keys with an operation running or queued right now
+     */
+    public Set<String> getActiveKeys() {
+        return new HashSet<>(mTails.keySet());
+    }
+
+    public void enqueue(String key, Operation operation) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        CompletableFuture<Void> previous = mTails.put(key, done);
+
+        Runnable start = () -> {
+            try {
+                operation.run(() -> {
+                    mTails.remove(key, done);
+                    done.complete(null);
+                });
+            } catch (RuntimeException e) {
+                // Don't leave the key blocked forever
+                Log.e(KeyStoreModule.TAG, "Caught unexpected exception in a sequenced operation", e);
+                mTails.remove(key, done);
+                done.complete(null);
+            }
+        };
+
+        if (previous == null) {
+            start.run();
+        } else {
+            previous.whenComplete((res, e) -> {
+                try {
+                    mExecutor.execute(start);
+                } catch (RejectedExecutionException rejected) {
+                    // Shut down with the module, settle the operation rather than leaving it queued
+                    start.run();
+                }
+            });
+        }
+    }
+
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+}
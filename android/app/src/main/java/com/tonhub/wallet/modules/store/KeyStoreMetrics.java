@@ -0,0 +1,81 @@
+package com.tonhub.wallet.modules.store;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableMap;
+import com.tonhub.wallet.BuildConfig;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency histograms for KeyStoreModule: one per operation (measured from the bridge call until
+ * its promise settles, including waiting behind other operations on the same key) and one per
+ * phase of an operation, so a slow unlock can be attributed to key generation, cipher setup, the
+ * user looking at the prompt, the cipher itself or the disk write.
+ */
+public class KeyStoreMetrics implements SecureItemCodec.PhaseListener {
+    public final LatencyHistogram setItem = new LatencyHistogram("setItem");
+    public final LatencyHistogram getItem = new LatencyHistogram("getItem");
+    public final LatencyHistogram deleteItem = new LatencyHistogram("deleteItem");
+
+    public final LatencyHistogram keyGeneration = new LatencyHistogram("keyGeneration");
+    public final LatencyHistogram cipherInit = new LatencyHistogram("cipherInit");
+    public final LatencyHistogram prompt = new LatencyHistogram("prompt");
+    public final LatencyHistogram doFinal = new LatencyHistogram("doFinal");
+    public final LatencyHistogram persist = new LatencyHistogram("persist");
+
+    // Writes of a value the key already held, resolved without prompting or touching disk
+    public final AtomicLong skippedWrites = new AtomicLong();
+
+    private final List<LatencyHistogram> mHistograms = Arrays.asList(
+            setItem, getItem, deleteItem, keyGeneration, cipherInit, prompt, doFinal, persist
+    );
+
+    public static long now() {
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    /**
+     * Records the time since start, and logs it in debug builds
+     */
+    public void record(LatencyHistogram histogram, long start) {
+        recordDuration(histogram, now() - start);
+    }
+
+    @Override
+    public void onCipherInit(long durationNanos) {
+        recordDuration(cipherInit, durationNanos);
+    }
+
+    @Override
+    public void onDoFinal(long durationNanos) {
+        recordDuration(doFinal, durationNanos);
+    }
+
+    private void recordDuration(LatencyHistogram histogram, long duration) {
+        histogram.record(duration);
+        if (BuildConfig.DEBUG) {
+            Log.d(KeyStoreModule.TAG, String.format("%s took %.2f ms", histogram.getName(), duration / 1_000_000.0));
+        }
+    }
+
+    public WritableMap toWritableMap() {
+        WritableMap snapshot = Arguments.createMap();
+        for (LatencyHistogram histogram : mHistograms) {
+            WritableMap stats = Arguments.createMap();
+            stats.putDouble("count", histogram.getCount());
+            stats.putDouble("meanMs", histogram.getMeanMs());
+            stats.putDouble("p50Ms", histogram.getPercentileMs(0.5));
+            stats.putDouble("p90Ms", histogram.getPercentileMs(0.9));
+            stats.putDouble("p99Ms", histogram.getPercentileMs(0.99));
+            stats.putDouble("maxMs", histogram.getMaxMs());
+            snapshot.putMap(histogram.getName(), stats);
+        }
+        snapshot.putDouble("skippedWrites", skippedWrites.get());
+        return snapshot;
+    }
+}
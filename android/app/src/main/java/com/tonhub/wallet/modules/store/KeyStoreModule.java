@@ -1,131 +1,421 @@
 package com.tonhub.wallet.modules.store;
 
 import android.annotation.SuppressLint;
+import android.app.KeyguardManager;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.content.res.Configuration;
 import android.os.Build;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyPermanentlyInvalidatedException;
 import android.security.keystore.KeyProperties;
 import android.security.keystore.UserNotAuthenticatedException;
-import android.util.Base64;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
-import androidx.biometric.BiometricManager;
+import androidx.annotation.Nullable;
 
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.LifecycleEventListener;
 import com.facebook.react.bridge.Promise;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.modules.core.DeviceEventManagerModule;
+import com.tonhub.wallet.modules.capabilities.DeviceCapabilities;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 import java.security.UnrecoverableEntryException;
 import java.security.cert.CertificateException;
 import java.security.spec.AlgorithmParameterSpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.crypto.Cipher;
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
-import javax.crypto.spec.GCMParameterSpec;
 
 public class KeyStoreModule extends ReactContextBaseJavaModule {
     private static final String ALIAS_PROPERTY = "keychainService";
     private static final String SHARED_PREFERENCES_NAME = "KeychainStore";
-    private static final String SCHEME_PROPERTY = "scheme";
+    static final String SCHEME_PROPERTY = "scheme";
+    private static final String RECORD_STORE_FILE_NAME = "KeychainStore.bin";
+    private static final String BLOB_DIRECTORY_NAME = "KeychainStoreBlobs";
+    static final String REENCRYPT_PROGRESS_EVENT_NAME = "keyStoreReencryptProgress";
     private static final String KEYSTORE_PROVIDER = "AndroidKeyStore";
     static final String TAG = "KeyStore";
 
     private final Context mContext;
-    private AESEncrypter mAESEncrypter;
-    private final BiometricManager biometricManager;
-    private AuthenticationHelper mAuthenticationHelper;
+    private final AESEncrypter mAESEncrypter;
+    private final AuthenticationHelper mAuthenticationHelper;
+    private final KeySequencer mKeySequencer = new KeySequencer();
+    private final KeyStoreMetrics mMetrics = new KeyStoreMetrics();
     private KeyStore mKeyStore;
-
-    private static final int SECURITY_LEVEL_NONE = 0;
-    private static final int SECURITY_LEVEL_SECRET = 1;
-    private static final int SECURITY_LEVEL_BIOMETRIC = 2;
+    private final ConcurrentHashMap<String, KeyStore.Entry> mKeyEntryCache = new ConcurrentHashMap<>();
+    private volatile long mRecordStoreLoadMs = -1;
+    private volatile long mKeyStoreLoadMs = -1;
+    private volatile long mKeyEntryLoadMs = -1;
+    private volatile SecureRecordStore mRecordStore;
+    private volatile RecordStoreWriter mRecordStoreWriter;
+    private final SegmentedBlobStore mBlobStore;
+    private final EnvelopeEncrypter mEnvelopeEncrypter;
+    private final EnvelopeSession mEnvelopeSession;
+    private final PlaintextFingerprinter mFingerprinter = new PlaintextFingerprinter();
+    private volatile boolean mEnvelopeModeEnabled = false;
+    private volatile long mEnvelopeSessionTimeoutMs = DEFAULT_ENVELOPE_SESSION_TIMEOUT_MS;
+    private final List<EnvelopeSessionWaiter> mEnvelopeSessionWaiters = new ArrayList<>();
+    private boolean mEnvelopeSessionOpening = false;
+    // Number of running clears, while any runs the session stays closed (guarded by mEnvelopeSessionWaiters)
+    private int mEnvelopeSessionLocks = 0;
+    private final AtomicBoolean mReencryptionRunning = new AtomicBoolean(false);
+
+    private static final long DEFAULT_ENVELOPE_SESSION_TIMEOUT_MS = 5 * 60 * 1000;
+
+    // Values above this size are stored in segments in their own file instead of inline
+    private static final int BLOB_THRESHOLD_BYTES = 2048;
 
     KeyStoreModule(ReactApplicationContext context) {
         super(context);
         mContext = context;
-        biometricManager = BiometricManager.from(context);
-        mAESEncrypter = new AESEncrypter();
-        mAuthenticationHelper = new AuthenticationHelper(context);
+        SecureItemCodec codec = new SecureItemCodec(mMetrics);
+        mAESEncrypter = new AESEncrypter(codec);
+        mAuthenticationHelper = new AuthenticationHelper(context, mMetrics);
+        mEnvelopeEncrypter = new EnvelopeEncrypter(codec);
+        mEnvelopeSession = new EnvelopeSession();
+        mBlobStore = new SegmentedBlobStore(new File(context.getNoBackupFilesDir(), BLOB_DIRECTORY_NAME));
+
+        context.addLifecycleEventListener(mLifecycleEventListener);
+        context.getApplicationContext().registerComponentCallbacks(mComponentCallbacks);
     }
 
+    // Wipe the envelope data key as soon as the app UI is hidden or the host is destroyed
+    private final ComponentCallbacks2 mComponentCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+                mEnvelopeSession.close();
+            }
+        }
+
+        @Override
+        public void onConfigurationChanged(@NonNull Configuration newConfig) {
+        }
+
+        @Override
+        public void onLowMemory() {
+            mEnvelopeSession.close();
+        }
+    };
+
+    private final LifecycleEventListener mLifecycleEventListener = new LifecycleEventListener() {
+        @Override
+        public void onHostResume() {
+        }
+
+        @Override
+        public void onHostPause() {
+        }
+
+        @Override
+        public void onHostDestroy() {
+            mEnvelopeSession.close();
+        }
+    };
+
+    @Override
+    public void invalidate() {
+        mEnvelopeSession.close();
+        if (mRecordStoreWriter != null) {
+            mRecordStoreWriter.shutdown();
+        }
+        mAuthenticationHelper.shutdown();
+        mKeySequencer.shutdown();
+        mContext.getApplicationContext().unregisterComponentCallbacks(mComponentCallbacks);
+        getReactApplicationContext().removeLifecycleEventListener(mLifecycleEventListener);
+        super.invalidate();
+    }
+
+    /**
+     * Enables or disables envelope mode for new writes. Items written while it is enabled are
+     * sealed with a session data key, which is itself wrapped by the keystore key and only needs
+     * one authentication per session. Items written with any scheme stay readable either way.
+     */
     @ReactMethod
     @SuppressWarnings("unused")
-    public void setValueWithKeyAsync(String value, String key, Promise promise) {
-        try {
-            setItemImpl(key, value, promise);
-        } catch (Exception e) {
-            Log.e(TAG, "Caught unexpected exception when writing to KeyStoreModule", e);
-            promise.reject("WRITE_ERROR", "An unexpected error occurred when writing to KeyStoreModule", e);
+    public void setEnvelopeModeAsync(boolean enabled, double sessionTimeoutSeconds, Promise promise) {
+        mEnvelopeModeEnabled = enabled;
+        if (sessionTimeoutSeconds > 0) {
+            mEnvelopeSessionTimeoutMs = (long) (sessionTimeoutSeconds * 1000);
+        }
+        if (!enabled) {
+            mEnvelopeSession.close();
         }
+        promise.resolve(null);
     }
 
-    private void setItemImpl(String key, String value, Promise promise) {
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void lockEnvelopeSessionAsync(Promise promise) {
+        mEnvelopeSession.close();
+        promise.resolve(null);
+    }
+
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void setValueWithKeyAsync(String value, String key, Promise promise) {
         if (key == null) {
             promise.reject("NULL_KEY", "KeyStoreModule keys must not be null");
             return;
         }
 
-        SharedPreferences prefs = mContext.getSharedPreferences(SHARED_PREFERENCES_NAME, Context.MODE_PRIVATE);
+        runForKey(key, promise, mMetrics.setItem, keyPromise -> {
+            try {
+                setItemImpl(key, value, keyPromise);
+            } catch (Exception e) {
+                Log.e(TAG, "Caught unexpected exception when writing to KeyStoreModule", e);
+                keyPromise.reject("WRITE_ERROR", "An unexpected error occurred when writing to KeyStoreModule", e);
+            }
+        });
+    }
 
-        if (value == null) {
-            boolean success = prefs.edit().putString(key, null).commit();
-            if (success) {
+    private void setItemImpl(String key, String value, Promise promise) {
+        try {
+            SecureRecordStore store = getRecordStore();
+
+            if (value == null) {
+                EncryptedRecord previous = getStoredRecord(key);
+                settleWrite(promise, getRecordStoreWriter().apply(getRemoval(key)).thenRun(() -> releaseBlob(previous)),
+                        "Could not write a null value to KeyStoreModule");
+                return;
+            }
+
+            EncryptedRecord fingerprint = fingerprintValue(key, value);
+            if (fingerprint != null && isStoredValue(store, key, fingerprint)) {
+                // Nothing to prompt for or write
+                mMetrics.skippedWrites.incrementAndGet();
                 promise.resolve(null);
-            } else {
-                promise.reject("WRITE_ERROR", "Could not write a null value to KeyStoreModule");
+                return;
             }
-            return;
-        }
 
-        try {
-            KeyStore keyStore = getKeyStore();
-            KeyStore.SecretKeyEntry secretKeyEntry = getKeyEntry(KeyStore.SecretKeyEntry.class, mAESEncrypter);
-            mAESEncrypter.createEncryptedItem(
-                    promise, value, keyStore, secretKeyEntry, mAuthenticationHelper.getDefaultCallback(),
-                    (innerPromise, result) -> {
-                        JSONObject obj = (JSONObject) result;
-                        obj.put(SCHEME_PROPERTY, AESEncrypter.NAME);
-                        saveEncryptedItem(innerPromise, obj, prefs, key);
-                    }
-            );
+            sealItem(key, value, store, mEnvelopeModeEnabled, new CallbackPromise(new CallbackPromise.Listener() {
+                @Override
+                public void onResolve(@Nullable Object record) {
+                    saveEncryptedItem(promise, (EncryptedRecord) record, fingerprint, key);
+                }
+
+                @Override
+                public void onReject(String code, @Nullable String message, @Nullable Throwable throwable) {
+                    promise.reject(code, message, throwable);
+                }
+            }));
         } catch (IOException e) {
             Log.w(TAG, e);
             promise.reject("IO_ERROR", "There was an I/O error loading the keystore for KeyStoreModule", e);
         } catch (GeneralSecurityException e) {
             Log.w(TAG, e);
+            onKeyStoreError(e);
             promise.reject("ENCRYPT_ERROR", "Could not encrypt the value for KeyStoreModule", e);
         }
     }
 
-    private void saveEncryptedItem(Promise promise, JSONObject encryptedItem, SharedPreferences prefs, String key) {
-        String encryptedItemString = encryptedItem.toString();
-        if (encryptedItemString == null) { // lint warning suppressed, JSONObject#toString() may return null
-            promise.reject("JSON_ERROR", "Could not JSON-encode the encrypted item for KeyStoreModule");
+    /**
+     * Encrypts the value with the keystore key, or the envelope data key if envelope is set, and
+     * resolves the promise with the record to store. Nothing is written to the record store.
+     */
+    private void sealItem(String key, String value, SecureRecordStore store, boolean envelope, Promise promise) throws
+            IOException, GeneralSecurityException {
+        byte[] plaintextBytes = value.getBytes(StandardCharsets.UTF_8);
+        if (plaintextBytes.length > BLOB_THRESHOLD_BYTES) {
+            sealBlobItem(key, plaintextBytes, store, envelope, promise);
             return;
         }
 
-        boolean success = prefs.edit().putString(key, encryptedItemString).commit();
-        if (success) {
-            promise.resolve(null);
-        } else {
-            promise.reject("WRITE_ERROR", "Could not write encrypted JSON to KeyStoreModule");
+        if (envelope) {
+            withEnvelopeSession(promise, store, (innerPromise, dataKey) ->
+                    innerPromise.resolve(mEnvelopeEncrypter.createEncryptedItem(key, value, dataKey))
+            );
+            return;
+        }
+
+        KeyStore keyStore = getKeyStore();
+        KeyStore.SecretKeyEntry secretKeyEntry = getKeyEntry(KeyStore.SecretKeyEntry.class, mAESEncrypter);
+        mAESEncrypter.createEncryptedItem(
+                promise, value, keyStore, secretKeyEntry, mAuthenticationHelper.getDefaultCallback(),
+                (innerPromise, result) -> innerPromise.resolve(result)
+        );
+    }
+
+    /**
+     * Encrypts a large value into its own blob file, and resolves with a manifest record holding the
+     * blob's content key wrapped by the keystore key (or by the envelope data key)
+     */
+    private void sealBlobItem(String key, byte[] plaintextBytes, SecureRecordStore store, boolean envelope, Promise promise) throws
+            IOException, GeneralSecurityException {
+        SegmentedBlobStore.Manifest manifest = mBlobStore.write(key, plaintextBytes);
+        byte[] fileId = manifest.fileId;
+        byte[] secret = manifest.encodeSecret();
+        manifest.wipe();
+
+        // The new file is garbage if the manifest can't be sealed, and is swept on the next launch
+        // if the record never makes it into the store
+        CallbackPromise blobPromise = new CallbackPromise(new CallbackPromise.Listener() {
+            @Override
+            public void onResolve(@Nullable Object value) {
+                promise.resolve(value);
+            }
+
+            @Override
+            public void onReject(String code, @Nullable String message, @Nullable Throwable throwable) {
+                Arrays.fill(secret, (byte) 0);
+                mBlobStore.delete(fileId);
+                promise.reject(code, message, throwable);
+            }
+        });
+
+        try {
+            if (envelope) {
+                withEnvelopeSession(blobPromise, store, (innerPromise, dataKey) -> {
+                    EncryptedRecord wrappedSecret;
+                    try {
+                        wrappedSecret = mEnvelopeEncrypter.createEncryptedItem(key, secret, dataKey);
+                    } finally {
+                        Arrays.fill(secret, (byte) 0);
+                    }
+                    innerPromise.resolve(SegmentedBlobStore.toRecord(SegmentedBlobStore.ENVELOPE_NAME, fileId, wrappedSecret));
+                });
+                return;
+            }
+
+            KeyStore.SecretKeyEntry secretKeyEntry = getKeyEntry(KeyStore.SecretKeyEntry.class, mAESEncrypter);
+            Cipher cipher = mAESEncrypter.createEncryptionCipher(secretKeyEntry.getSecretKey());
+            mAuthenticationHelper.getDefaultCallback().checkAuthentication(blobPromise, cipher, (promise1, cipher1, postEncryptionCallback) -> {
+                        EncryptedRecord wrappedSecret;
+                        try {
+                            wrappedSecret = mAESEncrypter.createEncryptedItem(secret, cipher1);
+                        } finally {
+                            Arrays.fill(secret, (byte) 0);
+                        }
+                        promise1.resolve(SegmentedBlobStore.toRecord(SegmentedBlobStore.NAME, fileId, wrappedSecret));
+                        return null;
+                    },
+                    null
+            );
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            Arrays.fill(secret, (byte) 0);
+            mBlobStore.delete(fileId);
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the item together with the fingerprint of its value, or drops the stale fingerprint if
+     * there is none. Both go into one record store batch, so a crash can't leave the new item next
+     * to the old fingerprint, which would make a later write of the old value look like a no-op.
+     * The fingerprint still comes first: should the two ever be split, a stale item next to a new
+     * fingerprint only costs an extra write.
+     */
+    private void saveEncryptedItem(Promise promise, EncryptedRecord encryptedItem, @Nullable EncryptedRecord fingerprint, String key) {
+        EncryptedRecord previous = getStoredRecord(key);
+        Map<String, EncryptedRecord> changes = new LinkedHashMap<>();
+        changes.put(PlaintextFingerprinter.getItemKey(key), fingerprint);
+        changes.put(key, encryptedItem);
+        settleWrite(promise, mRecordStoreWriter.apply(changes).thenRun(() -> releaseBlob(previous)),
+                "Could not write the encrypted item to KeyStoreModule");
+    }
+
+    private static Map<String, EncryptedRecord> getRemoval(String key) {
+        Map<String, EncryptedRecord> changes = new LinkedHashMap<>();
+        changes.put(PlaintextFingerprinter.getItemKey(key), null);
+        changes.put(key, null);
+        return changes;
+    }
+
+    /**
+     * The fingerprint of the value, or null if it can't be computed, in which case the write is
+     * never skipped
+     */
+    @Nullable
+    private EncryptedRecord fingerprintValue(String key, String value) {
+        try {
+            return mFingerprinter.fingerprint(getKeyStore(), key, value.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException | GeneralSecurityException e) {
+            Log.w(TAG, e);
+            return null;
         }
     }
 
+    /**
+     * Whether the key already holds this value, sealed with the scheme a write would use now
+     */
+    private boolean isStoredValue(SecureRecordStore store, String key, EncryptedRecord fingerprint) throws IOException {
+        EncryptedRecord record = store.get(key);
+        String scheme = mEnvelopeModeEnabled ? EnvelopeEncrypter.NAME : AESEncrypter.NAME;
+        return record != null && isSealedWith(record, scheme)
+                && PlaintextFingerprinter.matches(store.get(PlaintextFingerprinter.getItemKey(key)), fingerprint);
+    }
+
+    /**
+     * The record currently stored for the key, read before it is replaced so that its blob file
+     * can be deleted once the replacement is durable
+     */
+    @Nullable
+    private EncryptedRecord getStoredRecord(String key) {
+        try {
+            return getRecordStore().get(key);
+        } catch (IOException e) {
+            Log.w(TAG, e);
+            return null;
+        }
+    }
+
+    private void releaseBlob(@Nullable EncryptedRecord record) {
+        if (record != null && SegmentedBlobStore.isBlobScheme(record.scheme)) {
+            mBlobStore.delete(SegmentedBlobStore.getFileId(record));
+        }
+    }
+
+    /**
+     * Resolves the promise once the write is on disk, from the writer thread
+     */
+    private void settleWrite(Promise promise, CompletableFuture<Void> write, String errorMessage) {
+        long start = KeyStoreMetrics.now();
+        write.whenComplete((res, e) -> {
+            mMetrics.record(mMetrics.persist, start);
+            if (e == null) {
+                promise.resolve(null);
+            } else {
+                Log.w(TAG, e);
+                promise.reject("WRITE_ERROR", errorMessage, e);
+            }
+        });
+    }
+
     @NonNull
     @Override
     public String getName() {
@@ -135,60 +425,175 @@ public class KeyStoreModule extends ReactContextBaseJavaModule {
     @ReactMethod
     @SuppressWarnings("unused")
     public void getEnrolledLevelAsync(Promise promise) {
-        int level = SECURITY_LEVEL_NONE;
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) {
-            int result = biometricManager.canAuthenticate(BiometricManager.Authenticators.BIOMETRIC_STRONG);
-            if (result == BiometricManager.BIOMETRIC_SUCCESS) {
-                level = SECURITY_LEVEL_BIOMETRIC;
+        // Kept up to date by DeviceCapabilities, which rechecks when the app returns from settings.
+        // A recheck that is still running is waited for.
+        DeviceCapabilities.get(mContext).getFreshSnapshot().thenAccept(snapshot -> promise.resolve(snapshot.enrolledLevel));
+    }
+
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void getValueWithKeyAsync(String key, Promise promise) {
+        if (key == null) {
+            promise.reject("NULL_KEY", "KeyStoreModule keys must not be null");
+            return;
+        }
+
+        runForKey(key, promise, mMetrics.getItem, keyPromise -> {
+            try {
+                getItemImpl(key, keyPromise);
+            } catch (Exception e) {
+                Log.e(TAG, "Caught unexpected exception when reading from KeyStoreModule", e);
+                keyPromise.reject("READ_ERROR", "An unexpected error occurred when reading from KeyStoreModule", e);
             }
-        } else {
-            int deviceCredentialResult = biometricManager.canAuthenticate(BiometricManager.Authenticators.DEVICE_CREDENTIAL);
-            if (deviceCredentialResult == BiometricManager.BIOMETRIC_SUCCESS) {
-                level = SECURITY_LEVEL_SECRET;
+        });
+    }
+
+    private interface KeyOperation {
+        void run(Promise promise);
+    }
+
+    /**
+     * Runs the operation once every earlier operation on the same key has settled, see
+     * {@link KeySequencer}. The key is released right before the caller's promise settles, and the
+     * whole operation is recorded into the histogram.
+     */
+    private void runForKey(String key, Promise promise, LatencyHistogram histogram, KeyOperation operation) {
+        long start = KeyStoreMetrics.now();
+        mKeySequencer.enqueue(key, done -> operation.run(new CallbackPromise(new CallbackPromise.Listener() {
+            @Override
+            public void onResolve(@Nullable Object value) {
+                done.run();
+                mMetrics.record(histogram, start);
+                promise.resolve(value);
             }
-            int biometricResult = biometricManager.canAuthenticate(BiometricManager.Authenticators.BIOMETRIC_STRONG);
-            if (biometricResult == BiometricManager.BIOMETRIC_SUCCESS) {
-                level = SECURITY_LEVEL_BIOMETRIC;
+
+            @Override
+            public void onReject(String code, @Nullable String message, @Nullable Throwable throwable) {
+                done.run();
+                mMetrics.record(histogram, start);
+                promise.reject(code, message, throwable);
             }
+        })));
+    }
+
+    private void getItemImpl(String key, Promise promise) {
+        // We use a KeyStoreModule-specific record store, which lets us do things like enumerate
+        // its entries or clear all of them
+        try {
+            readEncryptedItem(key, getRecordStore(), promise);
+        } catch (IOException e) {
+            Log.w(TAG, e);
+            promise.reject("IO_ERROR", "There was an I/O error loading the record store for KeyStoreModule", e);
         }
-        promise.resolve(level);
     }
 
     @ReactMethod
     @SuppressWarnings("unused")
-    public void getValueWithKeyAsync(String key, Promise promise) {
+    public void getValuesWithKeysAsync(ReadableArray keys, Promise promise) {
         try {
-            getItemImpl(key, promise);
+            getItemsImpl(keys, promise);
         } catch (Exception e) {
-            Log.e(TAG, "Caught unexpected exception when reading from KeyStoreModule", e);
+            Log.e(TAG, "Caught unexpected exception when batch reading from KeyStoreModule", e);
             promise.reject("READ_ERROR", "An unexpected error occurred when reading from KeyStoreModule", e);
         }
     }
 
-    private void getItemImpl(String key, Promise promise) {
-        // We use a KeyStoreModule-specific shared preferences file, which lets us do things like enumerate
-        // its entries or clear all of them
-        SharedPreferences prefs = getSharedPreferences();
-        readJSONEncodedItem(key, prefs, promise);
+    /**
+     * Reads several items within one bridge call and resolves with a map of key to plaintext.
+     * Missing keys resolve to null without opening a prompt, present ones are decrypted one after
+     * another so their authentications never overlap.
+     */
+    private void getItemsImpl(ReadableArray keys, Promise promise) throws IOException {
+        SecureRecordStore store = getRecordStore();
+        WritableMap result = Arguments.createMap();
+        List<String> pending = new ArrayList<>();
+
+        for (int i = 0; i < keys.size(); i++) {
+            String key = keys.getString(i);
+            if (key == null) {
+                promise.reject("NULL_KEY", "KeyStoreModule keys must not be null");
+                return;
+            }
+            // Even a missing key is read in its sequence, a write queued before this read may add it
+            if (!pending.contains(key)) {
+                pending.add(key);
+            }
+        }
+
+        readNextItem(pending.iterator(), store, result, promise);
     }
 
-    private void readJSONEncodedItem(String key, SharedPreferences prefs, Promise promise) {
-        String encryptedItemString = prefs.getString(key, null);
-        JSONObject encryptedItem;
+    private void readNextItem(Iterator<String> keys, SecureRecordStore store, WritableMap result, Promise promise) {
+        if (!keys.hasNext()) {
+            promise.resolve(result);
+            return;
+        }
+
+        String key = keys.next();
+        CallbackPromise itemPromise = new CallbackPromise(new CallbackPromise.Listener() {
+            @Override
+            public void onResolve(@Nullable Object value) {
+                result.putString(key, (String) value);
+                readNextItem(keys, store, result, promise);
+            }
+
+            @Override
+            public void onReject(String code, @Nullable String message, @Nullable Throwable throwable) {
+                promise.reject(code, message, throwable);
+            }
+        });
+
+        // Later items are read from authentication callbacks, outside of the bridge call's try/catch
+        runForKey(key, itemPromise, mMetrics.getItem, keyPromise -> {
+            try {
+                readEncryptedItem(key, store, keyPromise);
+            } catch (Exception e) {
+                Log.e(TAG, "Caught unexpected exception when batch reading from KeyStoreModule", e);
+                keyPromise.reject("READ_ERROR", "An unexpected error occurred when reading from KeyStoreModule", e);
+            }
+        });
+    }
+
+    private void readEncryptedItem(String key, SecureRecordStore store, Promise promise) {
+        EncryptedRecord encryptedItem;
         try {
-            encryptedItem = new JSONObject(encryptedItemString);
-        } catch (JSONException e) {
-            Log.e(TAG, String.format("Could not parse stored value as JSON (key = %s, value = %s)", key, encryptedItemString), e);
-            promise.reject("JSON_ERROR", "Could not parse the encrypted JSON item in KeyStoreModule");
+            encryptedItem = store.get(key);
+        } catch (IOException e) {
+            Log.e(TAG, String.format("Could not read stored record (key = %s)", key), e);
+            promise.reject("IO_ERROR", "Could not read the encrypted item in KeyStoreModule", e);
             return;
         }
 
-        String scheme = encryptedItem.optString(SCHEME_PROPERTY);
+        if (encryptedItem == null) {
+            promise.resolve(null);
+            return;
+        }
+
+        String scheme = encryptedItem.scheme;
 
         try {
             if (AESEncrypter.NAME.equals(scheme)) {
                 KeyStore.SecretKeyEntry secretKeyEntry = getKeyEntry(KeyStore.SecretKeyEntry.class, mAESEncrypter);
                 mAESEncrypter.decryptItem(promise, encryptedItem, secretKeyEntry, mAuthenticationHelper.getDefaultCallback());
+            } else if (EnvelopeEncrypter.NAME.equals(scheme)) {
+                withEnvelopeSession(promise, store, (innerPromise, dataKey) ->
+                        innerPromise.resolve(mEnvelopeEncrypter.decryptItem(key, encryptedItem, dataKey))
+                );
+            } else if (SegmentedBlobStore.NAME.equals(scheme)) {
+                EncryptedRecord wrappedSecret = SegmentedBlobStore.getWrappedSecret(encryptedItem, AESEncrypter.NAME);
+                KeyStore.SecretKeyEntry secretKeyEntry = getKeyEntry(KeyStore.SecretKeyEntry.class, mAESEncrypter);
+                Cipher cipher = mAESEncrypter.createDecryptionCipher(wrappedSecret, secretKeyEntry);
+                mAuthenticationHelper.getDefaultCallback().checkAuthentication(promise, cipher, (promise1, cipher1, postEncryptionCallback) -> {
+                            readBlobItem(promise1, key, encryptedItem, mAESEncrypter.decryptBytes(wrappedSecret, cipher1));
+                            return null;
+                        },
+                        null
+                );
+            } else if (SegmentedBlobStore.ENVELOPE_NAME.equals(scheme)) {
+                EncryptedRecord wrappedSecret = SegmentedBlobStore.getWrappedSecret(encryptedItem, EnvelopeEncrypter.NAME);
+                withEnvelopeSession(promise, store, (innerPromise, dataKey) ->
+                        readBlobItem(innerPromise, key, encryptedItem, mEnvelopeEncrypter.decryptBytes(key, wrappedSecret, dataKey))
+                );
             } else {
                 String message = String.format("The item for key \"%s\" in KeyStoreModule has an unknown encoding scheme (%s)", key, scheme);
                 Log.e(TAG, message);
@@ -199,52 +604,827 @@ public class KeyStoreModule extends ReactContextBaseJavaModule {
             promise.reject("IO_ERROR", "There was an I/O error loading the keystore for KeyStoreModule", e);
         } catch (GeneralSecurityException e) {
             Log.w(TAG, e);
+            onKeyStoreError(e);
             promise.reject("DECRYPT_ERROR", "Could not decrypt the item in KeyStoreModule", e);
-        } catch (JSONException e) {
+        }
+    }
+
+    /**
+     * Streams the blob of a manifest record through its segments with the unwrapped secret
+     */
+    private void readBlobItem(Promise promise, String key, EncryptedRecord encryptedItem, byte[] secret) throws
+            GeneralSecurityException {
+        SegmentedBlobStore.Manifest manifest;
+        try {
+            manifest = SegmentedBlobStore.Manifest.decodeSecret(SegmentedBlobStore.getFileId(encryptedItem), secret);
+        } finally {
+            Arrays.fill(secret, (byte) 0);
+        }
+
+        try {
+            promise.resolve(new String(mBlobStore.read(key, manifest), StandardCharsets.UTF_8));
+        } catch (IOException e) {
             Log.w(TAG, e);
-            promise.reject("DECODE_ERROR", "Could not decode the encrypted JSON item in KeyStoreModule", e);
+            promise.reject("IO_ERROR", "Could not read the encrypted blob in KeyStoreModule", e);
+        } finally {
+            manifest.wipe();
         }
     }
 
     @ReactMethod
     @SuppressWarnings("unused")
     public void deleteValueWithKeyAsync(String key, expo.modules.core.arguments.ReadableArguments options, expo.modules.core.Promise promise) {
+        if (key == null) {
+            promise.reject("NULL_KEY", "KeyStoreModule keys must not be null");
+            return;
+        }
+
+        long start = KeyStoreMetrics.now();
+        mKeySequencer.enqueue(key, done -> {
+            try {
+                deleteItemImpl(key, promise, () -> {
+                    done.run();
+                    mMetrics.record(mMetrics.deleteItem, start);
+                });
+            } catch (Exception e) {
+                Log.e(TAG, "Caught unexpected exception when deleting from KeyStoreModule", e);
+                done.run();
+                mMetrics.record(mMetrics.deleteItem, start);
+                promise.reject("DELETE_ERROR", "An unexpected error occurred when deleting item from KeyStoreModule", e);
+            }
+        });
+    }
+
+    private void deleteItemImpl(String key, expo.modules.core.Promise promise, Runnable done) throws IOException {
+        deleteItemsImpl(Collections.singletonList(key), (removed, success) -> {
+            done.run();
+
+            if (success) {
+                promise.resolve(null);
+            } else {
+                promise.reject("DELETE_ERROR", "Could not delete the item from KeyStoreModule");
+            }
+        });
+    }
+
+    /**
+     * Deletes several items at once: one record store batch and one legacy preferences commit for
+     * all of them. The batch is atomic, so a crash can't delete an item and keep its fingerprint
+     * or the other way round. Resolves with the number of keys that held an item.
+     */
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void deleteValuesWithKeysAsync(ReadableArray keys, Promise promise) {
+        Set<String> unique = new HashSet<>();
+        for (int i = 0; i < keys.size(); i++) {
+            String key = keys.getString(i);
+            if (key == null) {
+                promise.reject("NULL_KEY", "KeyStoreModule keys must not be null");
+                return;
+            }
+            unique.add(key);
+        }
+
+        List<String> sorted = new ArrayList<>(unique);
+        Collections.sort(sorted);
+        deleteLocked(sorted, false, promise);
+    }
+
+    /**
+     * Deletes every item, and with deleteKeys also the keystore keys, so the next write starts
+     * from scratch. Resolves with the number of items removed.
+     */
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void clearAllAsync(boolean deleteKeys, Promise promise) {
+        // The envelope data key record is deleted below, so nothing may seal with the current data
+        // key from here on. Operations already holding it are in the sequencer and are waited for.
+        lockEnvelopeSession();
+
+        Set<String> unique;
         try {
-            deleteItemImpl(key, promise);
+            unique = new HashSet<>(getRecordStore().keys());
+        } catch (IOException e) {
+            Log.w(TAG, e);
+            unlockEnvelopeSession();
+            promise.reject("IO_ERROR", "There was an I/O error loading KeyStoreModule", e);
+            return;
+        }
+        // Keys that are being written for the first time, and a data key that is being created
+        unique.addAll(mKeySequencer.getActiveKeys());
+        unique.add(EnvelopeEncrypter.DATA_KEY_ITEM);
+        // Kept, so KeychainStore items that couldn't be removed after migrating aren't copied back
+        unique.remove(KeychainStoreMigrator.MIGRATED_MARKER);
+
+        List<String> keys = new ArrayList<>(unique);
+        Collections.sort(keys);
+        deleteLocked(keys, true, new CallbackPromise(new CallbackPromise.Listener() {
+            @Override
+            public void onResolve(@Nullable Object value) {
+                try {
+                    if (deleteKeys) {
+                        deleteKeyStoreKeys();
+                    }
+                } catch (IOException | GeneralSecurityException e) {
+                    Log.w(TAG, e);
+                    promise.reject("DELETE_ERROR", "Could not delete the keystore keys of KeyStoreModule", e);
+                    return;
+                } finally {
+                    // A new data key is created by the next envelope write
+                    unlockEnvelopeSession();
+                }
+                promise.resolve(value);
+            }
+
+            @Override
+            public void onReject(String code, @Nullable String message, @Nullable Throwable throwable) {
+                unlockEnvelopeSession();
+                promise.reject(code, message, throwable);
+            }
+        }));
+    }
+
+    /**
+     * Closes the envelope session and keeps it closed until unlockEnvelopeSession. Operations that
+     * need the session in the meantime are rejected rather than queued, as they may hold a key
+     * the clear is waiting for.
+     */
+    private void lockEnvelopeSession() {
+        synchronized (mEnvelopeSessionWaiters) {
+            mEnvelopeSessionLocks++;
+            mEnvelopeSession.close();
+        }
+    }
+
+    private void unlockEnvelopeSession() {
+        synchronized (mEnvelopeSessionWaiters) {
+            mEnvelopeSessionLocks--;
+        }
+    }
+
+    /**
+     * Opens the session with the data key unless a clear locked it meanwhile
+     */
+    private void openEnvelopeSessionUnlessLocked(byte[] dataKey) {
+        synchronized (mEnvelopeSessionWaiters) {
+            if (mEnvelopeSessionLocks == 0) {
+                mEnvelopeSession.open(dataKey, mEnvelopeSessionTimeoutMs);
+            }
+        }
+    }
+
+    /**
+     * Takes every key (in sorted order) and deletes them together
+     */
+    private void deleteLocked(List<String> keys, boolean clearLegacyItems, Promise promise) {
+        long start = KeyStoreMetrics.now();
+        List<Runnable> releases = new ArrayList<>();
+        acquireKeys(keys.iterator(), releases, () -> {
+            Runnable done = () -> {
+                for (Runnable release : releases) {
+                    release.run();
+                }
+                mMetrics.record(mMetrics.deleteItem, start);
+            };
+
+            try {
+                DeleteCallback callback = (removed, success) -> {
+                    done.run();
+
+                    if (success) {
+                        promise.resolve(removed);
+                    } else {
+                        promise.reject("DELETE_ERROR", "Could not delete the items from KeyStoreModule");
+                    }
+                };
+                if (clearLegacyItems) {
+                    clearItemsImpl(keys, callback);
+                } else {
+                    deleteItemsImpl(keys, callback);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Caught unexpected exception when deleting from KeyStoreModule", e);
+                done.run();
+                promise.reject("DELETE_ERROR", "An unexpected error occurred when deleting items from KeyStoreModule", e);
+            }
+        });
+    }
+
+    private interface DeleteCallback {
+        void run(int removed, boolean success);
+    }
+
+    private void deleteItemsImpl(Collection<String> keys, DeleteCallback callback) throws IOException {
+        removeItems(keys, legacyPrefs -> {
+            List<String> legacyKeys = new ArrayList<>();
+            for (String key : keys) {
+                if (legacyPrefs.contains(key)) {
+                    legacyKeys.add(key);
+                }
+            }
+            return legacyKeys;
+        }, callback);
+    }
+
+    /**
+     * Like deleteItemsImpl, but also removes every item left in the legacy preferences, which can
+     * only be told apart from other preferences by their JSON encoding
+     */
+    private void clearItemsImpl(Collection<String> keys, DeleteCallback callback) throws IOException {
+        removeItems(keys, legacyPrefs -> {
+            List<String> legacyKeys = new ArrayList<>();
+            for (Map.Entry<String, ?> entry : legacyPrefs.getAll().entrySet()) {
+                if (isLegacyItem(entry.getValue())) {
+                    legacyKeys.add(entry.getKey());
+                }
+            }
+            return legacyKeys;
+        }, callback);
+    }
+
+    private interface LegacyKeySelector {
+        List<String> select(SharedPreferences legacyPrefs);
+    }
+
+    private void removeItems(Collection<String> keys, LegacyKeySelector legacyKeySelector, DeleteCallback callback) throws
+            IOException {
+        SecureRecordStore store = getRecordStore();
+        Set<String> removedKeys = new HashSet<>();
+        List<EncryptedRecord> previous = new ArrayList<>();
+        Map<String, EncryptedRecord> changes = new LinkedHashMap<>();
+        for (String key : keys) {
+            EncryptedRecord record = store.get(key);
+            if (record != null) {
+                previous.add(record);
+                removedKeys.add(key);
+            }
+            if (key.startsWith("@")) {
+                changes.put(key, null);
+            } else {
+                changes.putAll(getRemoval(key));
+            }
+        }
+
+        long persistStart = KeyStoreMetrics.now();
+        getRecordStoreWriter().apply(changes).whenComplete((res, e) -> {
+            mMetrics.record(mMetrics.persist, persistStart);
+            if (e == null) {
+                for (EncryptedRecord record : previous) {
+                    releaseBlob(record);
+                }
+            }
+            // Runs on the writer thread, which also owns the legacy preferences writes
+            boolean success = e == null;
+            if (e != null) {
+                Log.w(TAG, e);
+            }
+
+            SharedPreferences legacyPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+            List<String> legacyKeys = legacyKeySelector.select(legacyPrefs);
+            if (!legacyKeys.isEmpty()) {
+                SharedPreferences.Editor editor = legacyPrefs.edit();
+                for (String key : legacyKeys) {
+                    editor.remove(key);
+                }
+                success = editor.commit() && success;
+                removedKeys.addAll(legacyKeys);
+            }
+
+            int removed = 0;
+            for (String key : removedKeys) {
+                // Reserved entries such as fingerprints aren't items of their own
+                if (!key.startsWith("@")) {
+                    removed++;
+                }
+            }
+            callback.run(removed, success);
+        });
+    }
+
+    private static boolean isLegacyItem(Object value) {
+        if (!(value instanceof String)) {
+            return false;
+        }
+        try {
+            return new JSONObject((String) value).has(SCHEME_PROPERTY);
+        } catch (JSONException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Deletes the keystore key and the fingerprint key, after which nothing stored before can be
+     * decrypted any more
+     */
+    private void deleteKeyStoreKeys() throws IOException, GeneralSecurityException {
+        KeyStore keyStore = getKeyStore();
+        synchronized (mKeyEntryCache) {
+            keyStore.deleteEntry(mAESEncrypter.getKeyStoreAlias());
+            mKeyEntryCache.clear();
+        }
+        mFingerprinter.deleteKey(keyStore);
+    }
+
+    /**
+     * Re-encrypts every item sealed with fromScheme ("aes" or "aes-envelope", large items stored as
+     * blobs included) with toScheme, and commits all of them in a single record store transaction
+     * at the end. Progress is emitted as {@value #REENCRYPT_PROGRESS_EVENT_NAME} events.
+     * <p>
+     * Nothing is written until the commit, and the commit is a single record store batch that is
+     * loaded whole or not at all, so a job interrupted by process death (even during the commit's
+     * append) leaves every item as it was. Running it again only picks up items still sealed with
+     * fromScheme. Items that are changed or deleted from JS while the job runs keep their new value.
+     */
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void reencryptAllAsync(String fromScheme, String toScheme, Promise promise) {
+        if (!isReencryptionScheme(fromScheme) || !isReencryptionScheme(toScheme) || fromScheme.equals(toScheme)) {
+            promise.reject("INVALID_SCHEME", String.format("Can't re-encrypt items from %s to %s", fromScheme, toScheme));
+            return;
+        }
+        if (!mReencryptionRunning.compareAndSet(false, true)) {
+            promise.reject("REENCRYPT_IN_PROGRESS", "Another re-encryption job is already running");
+            return;
+        }
+
+        CallbackPromise jobPromise = new CallbackPromise(new CallbackPromise.Listener() {
+            @Override
+            public void onResolve(@Nullable Object value) {
+                mReencryptionRunning.set(false);
+                promise.resolve(value);
+            }
+
+            @Override
+            public void onReject(String code, @Nullable String message, @Nullable Throwable throwable) {
+                mReencryptionRunning.set(false);
+                promise.reject(code, message, throwable);
+            }
+        });
+
+        try {
+            SecureRecordStore store = getRecordStore();
+            List<String> keys = new ArrayList<>();
+            for (String key : store.keys()) {
+                EncryptedRecord record = store.get(key);
+                // Reserved items such as the wrapped envelope data key are never re-encrypted
+                if (!key.startsWith("@") && record != null && isSealedWith(record, fromScheme)) {
+                    keys.add(key);
+                }
+            }
+
+            ReencryptionJob job = new ReencryptionJob(store, EnvelopeEncrypter.NAME.equals(toScheme), keys.size(), jobPromise);
+            reencryptNextItem(job, keys.iterator());
         } catch (Exception e) {
-            Log.e(TAG, "Caught unexpected exception when deleting from KeyStoreModule", e);
-            promise.reject("DELETE_ERROR", "An unexpected error occurred when deleting item from KeyStoreModule", e);
+            Log.e(TAG, "Caught unexpected exception when re-encrypting KeyStoreModule", e);
+            jobPromise.reject("REENCRYPT_ERROR", "An unexpected error occurred when re-encrypting KeyStoreModule", e);
         }
     }
 
-    private void deleteItemImpl(String key, expo.modules.core.Promise promise) {
-        boolean success = true;
-        SharedPreferences prefs = getSharedPreferences();
-        if (prefs.contains(key)) {
-            success = prefs.edit().remove(key).commit();
+    private static boolean isReencryptionScheme(String scheme) {
+        return AESEncrypter.NAME.equals(scheme) || EnvelopeEncrypter.NAME.equals(scheme);
+    }
+
+    private static boolean isSealedWith(EncryptedRecord record, String scheme) {
+        if (AESEncrypter.NAME.equals(scheme)) {
+            return AESEncrypter.NAME.equals(record.scheme) || SegmentedBlobStore.NAME.equals(record.scheme);
         }
+        return EnvelopeEncrypter.NAME.equals(record.scheme) || SegmentedBlobStore.ENVELOPE_NAME.equals(record.scheme);
+    }
 
-        SharedPreferences legacyPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
-        if (legacyPrefs.contains(key)) {
-            success = legacyPrefs.edit().remove(key).commit() && success;
+    private static class ReencryptionJob {
+        final SecureRecordStore store;
+        final boolean toEnvelope;
+        final int total;
+        final Promise promise;
+        int completed = 0;
+        // The record each item had when it was read, and the one replacing it
+        final LinkedHashMap<String, EncryptedRecord> originals = new LinkedHashMap<>();
+        final LinkedHashMap<String, EncryptedRecord> replacements = new LinkedHashMap<>();
+
+        ReencryptionJob(SecureRecordStore store, boolean toEnvelope, int total, Promise promise) {
+            this.store = store;
+            this.toEnvelope = toEnvelope;
+            this.total = total;
+            this.promise = promise;
         }
+    }
 
-        if (success) {
-            promise.resolve(null);
-        } else {
-            promise.reject("DELETE_ERROR", "Could not delete the item from KeyStoreModule");
+    private void reencryptNextItem(ReencryptionJob job, Iterator<String> keys) {
+        if (!keys.hasNext()) {
+            commitReencryption(job);
+            return;
+        }
+
+        String key = keys.next();
+        CallbackPromise itemPromise = new CallbackPromise(new CallbackPromise.Listener() {
+            @Override
+            public void onResolve(@Nullable Object value) {
+                job.completed++;
+                emitReencryptionProgress(job.completed, job.total);
+                reencryptNextItem(job, keys);
+            }
+
+            @Override
+            public void onReject(String code, @Nullable String message, @Nullable Throwable throwable) {
+                for (EncryptedRecord replacement : job.replacements.values()) {
+                    releaseBlob(replacement);
+                }
+                job.promise.reject(code, message, throwable);
+            }
+        });
+
+        try {
+            EncryptedRecord original = job.store.get(key);
+            if (original == null) {
+                // Deleted since the job started
+                itemPromise.resolve(null);
+                return;
+            }
+
+            readEncryptedItem(key, job.store, new CallbackPromise(new CallbackPromise.Listener() {
+                @Override
+                public void onResolve(@Nullable Object value) {
+                    if (value == null) {
+                        itemPromise.resolve(null);
+                        return;
+                    }
+                    try {
+                        sealItem(key, (String) value, job.store, job.toEnvelope, new CallbackPromise(new CallbackPromise.Listener() {
+                            @Override
+                            public void onResolve(@Nullable Object record) {
+                                job.originals.put(key, original);
+                                job.replacements.put(key, (EncryptedRecord) record);
+                                itemPromise.resolve(null);
+                            }
+
+                            @Override
+                            public void onReject(String code, @Nullable String message, @Nullable Throwable throwable) {
+                                itemPromise.reject(code, message, throwable);
+                            }
+                        }));
+                    } catch (Exception e) {
+                        Log.w(TAG, e);
+                        itemPromise.reject("ENCRYPT_ERROR", "Could not re-encrypt the item in KeyStoreModule", e);
+                    }
+                }
+
+                @Override
+                public void onReject(String code, @Nullable String message, @Nullable Throwable throwable) {
+                    itemPromise.reject(code, message, throwable);
+                }
+            }));
+        } catch (Exception e) {
+            Log.e(TAG, "Caught unexpected exception when re-encrypting KeyStoreModule", e);
+            itemPromise.reject("REENCRYPT_ERROR", "An unexpected error occurred when re-encrypting KeyStoreModule", e);
         }
     }
 
     /**
-     * We use a shared preferences file that's scoped to both the experience and KeyStoreModule. This
-     * lets us easily list or remove all the entries for an experience.
+     * Takes every re-encrypted key in order, drops the items that changed since they were read
+     * and writes the rest as one atomic batch with one fsync
+     */
+    private void commitReencryption(ReencryptionJob job) {
+        List<String> keys = new ArrayList<>(job.replacements.keySet());
+        Collections.sort(keys);
+        List<Runnable> releases = new ArrayList<>();
+        acquireKeys(keys.iterator(), releases, () -> {
+            LinkedHashMap<String, EncryptedRecord> changes = new LinkedHashMap<>();
+            for (String key : keys) {
+                EncryptedRecord replacement = job.replacements.get(key);
+                if (isSameRecord(getStoredRecord(key), job.originals.get(key))) {
+                    changes.put(key, replacement);
+                } else {
+                    releaseBlob(replacement);
+                }
+            }
+
+            mRecordStoreWriter.apply(changes).whenComplete((res, e) -> {
+                for (Runnable release : releases) {
+                    release.run();
+                }
+                if (e != null) {
+                    Log.w(TAG, e);
+                    for (EncryptedRecord replacement : changes.values()) {
+                        releaseBlob(replacement);
+                    }
+                    job.promise.reject("WRITE_ERROR", "Could not write the re-encrypted items to KeyStoreModule", e);
+                    return;
+                }
+
+                for (String key : changes.keySet()) {
+                    releaseBlob(job.originals.get(key));
+                }
+                job.promise.resolve(changes.size());
+            });
+        });
+    }
+
+    /**
+     * Enqueues on every key in turn and runs the callback once all of them are held. Keys are
+     * always taken in sorted order, so two callers can't wait on each other.
+     */
+    private void acquireKeys(Iterator<String> keys, List<Runnable> releases, Runnable callback) {
+        if (!keys.hasNext()) {
+            callback.run();
+            return;
+        }
+        mKeySequencer.enqueue(keys.next(), done -> {
+            releases.add(done);
+            acquireKeys(keys, releases, callback);
+        });
+    }
+
+    private static boolean isSameRecord(@Nullable EncryptedRecord a, @Nullable EncryptedRecord b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        return a.scheme.equals(b.scheme) && a.tagLength == b.tagLength
+                && Arrays.equals(a.iv, b.iv) && Arrays.equals(a.ciphertext, b.ciphertext);
+    }
+
+    private void emitReencryptionProgress(int completed, int total) {
+        WritableMap progress = Arguments.createMap();
+        progress.putInt("completed", completed);
+        progress.putInt("total", total);
+        getReactApplicationContext()
+                .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+                .emit(REENCRYPT_PROGRESS_EVENT_NAME, progress);
+    }
+
+    // Required by NativeEventEmitter
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void addListener(String eventName) {
+    }
+
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void removeListeners(double count) {
+    }
+
+    /**
+     * The shared preferences file that held JSON-encoded items before the record store, only read
+     * by the one-time migration.
      */
     protected SharedPreferences getSharedPreferences() {
         return mContext.getSharedPreferences(SHARED_PREFERENCES_NAME, Context.MODE_PRIVATE);
     }
 
-    private KeyStore getKeyStore() throws IOException, KeyStoreException, NoSuchAlgorithmException, CertificateException {
+    /**
+     * Opens the record store on first use, moving any items still left in the KeychainStore shared
+     * preferences into it
+     */
+    private synchronized SecureRecordStore getRecordStore() throws IOException {
+        if (mRecordStore == null) {
+            SecureRecordStore store = new SecureRecordStore(new File(mContext.getNoBackupFilesDir(), RECORD_STORE_FILE_NAME));
+            store.setCompactionErrorHandler(e -> Log.w(TAG, "Could not compact the record store", e));
+            store.load();
+            KeychainStoreMigrator.migrate(getSharedPreferences(), store);
+            mBlobStore.retainOnly(getBlobFileIds(store));
+            mRecordStoreWriter = new RecordStoreWriter(store);
+            mRecordStore = store;
+        }
+        return mRecordStore;
+    }
+
+    /**
+     * Ids of the blob files referenced by the store, anything else in the blob directory was left
+     * behind by a write or delete that didn't complete
+     */
+    private static Set<String> getBlobFileIds(SecureRecordStore store) throws IOException {
+        Set<String> fileIds = new HashSet<>();
+        for (String key : store.keys()) {
+            EncryptedRecord record = store.get(key);
+            if (record != null && SegmentedBlobStore.isBlobScheme(record.scheme)) {
+                fileIds.add(SegmentedBlobStore.toHex(SegmentedBlobStore.getFileId(record)));
+            }
+        }
+        return fileIds;
+    }
+
+    private RecordStoreWriter getRecordStoreWriter() throws IOException {
+        getRecordStore();
+        return mRecordStoreWriter;
+    }
+
+    /**
+     * Barrier that completes once every write issued before it is durable
+     */
+    CompletableFuture<Void> flush() throws IOException {
+        return getRecordStoreWriter().flush();
+    }
+
+    private interface EnvelopeSessionCallback {
+        void run(Promise promise, SecretKey dataKey) throws GeneralSecurityException;
+    }
+
+    private static class EnvelopeSessionWaiter {
+        final Promise promise;
+        final EnvelopeSessionCallback callback;
+
+        EnvelopeSessionWaiter(Promise promise, EnvelopeSessionCallback callback) {
+            this.promise = promise;
+            this.callback = callback;
+        }
+    }
+
+    /**
+     * Runs the callback with the envelope data key, opening the session first if needed. Opening
+     * unwraps the stored data key with the keystore key (one authentication), or generates and
+     * wraps a new data key on first use. Callers that arrive while the session is being opened wait
+     * for that same unwrap instead of prompting again.
+     */
+    private void withEnvelopeSession(Promise promise, SecureRecordStore store, EnvelopeSessionCallback callback) throws
+            GeneralSecurityException {
+        SecretKey sessionKey;
+        synchronized (mEnvelopeSessionWaiters) {
+            if (mEnvelopeSessionLocks > 0) {
+                promise.reject("CLEAR_IN_PROGRESS", "KeyStoreModule is being cleared");
+                return;
+            }
+            sessionKey = mEnvelopeSession.getKey();
+        }
+        if (sessionKey != null) {
+            callback.run(promise, sessionKey);
+            return;
+        }
+
+        synchronized (mEnvelopeSessionWaiters) {
+            mEnvelopeSessionWaiters.add(new EnvelopeSessionWaiter(promise, callback));
+            if (mEnvelopeSessionOpening) {
+                return;
+            }
+            mEnvelopeSessionOpening = true;
+        }
+
+        CallbackPromise openPromise = new CallbackPromise(new CallbackPromise.Listener() {
+            @Override
+            public void onResolve(@Nullable Object value) {
+                settleEnvelopeSessionWaiters(null, null, null);
+            }
+
+            @Override
+            public void onReject(String code, @Nullable String message, @Nullable Throwable throwable) {
+                settleEnvelopeSessionWaiters(code, message, throwable);
+            }
+        });
+
+        try {
+            openEnvelopeSession(openPromise, store);
+        } catch (IOException e) {
+            Log.w(TAG, e);
+            openPromise.reject("IO_ERROR", "There was an I/O error opening the envelope session for KeyStoreModule", e);
+        } catch (GeneralSecurityException e) {
+            Log.w(TAG, e);
+            onKeyStoreError(e);
+            openPromise.reject("SESSION_ERROR", "Could not open the envelope session for KeyStoreModule", e);
+        }
+    }
+
+    /**
+     * Runs every waiting callback with the freshly opened session, or rejects them all with the
+     * error that prevented it from opening
+     */
+    private void settleEnvelopeSessionWaiters(@Nullable String code, @Nullable String message, @Nullable Throwable throwable) {
+        List<EnvelopeSessionWaiter> waiters;
+        synchronized (mEnvelopeSessionWaiters) {
+            waiters = new ArrayList<>(mEnvelopeSessionWaiters);
+            mEnvelopeSessionWaiters.clear();
+            mEnvelopeSessionOpening = false;
+        }
+
+        SecretKey sessionKey = code == null ? mEnvelopeSession.getKey() : null;
+        for (EnvelopeSessionWaiter waiter : waiters) {
+            if (code != null) {
+                waiter.promise.reject(code, message, throwable);
+            } else if (sessionKey == null) {
+                waiter.promise.reject("SESSION_ERROR", "The envelope session was locked before it could be used");
+            } else {
+                try {
+                    waiter.callback.run(waiter.promise, sessionKey);
+                } catch (GeneralSecurityException e) {
+                    Log.w(TAG, e);
+                    waiter.promise.reject("FAILURE", "Could not encrypt/decrypt the value for KeychainStoreModule", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens the envelope session and resolves the promise once it is usable
+     */
+    private void openEnvelopeSession(Promise promise, SecureRecordStore store) throws IOException, GeneralSecurityException {
+        KeyStore.SecretKeyEntry secretKeyEntry = getKeyEntry(KeyStore.SecretKeyEntry.class, mAESEncrypter);
+        AuthenticationCallback authenticationCallback = mAuthenticationHelper.getDefaultCallback();
+        EncryptedRecord wrappedKey = store.get(EnvelopeEncrypter.DATA_KEY_ITEM);
+
+        if (wrappedKey == null) {
+            byte[] dataKey = mEnvelopeEncrypter.generateDataKey();
+            Cipher cipher = mAESEncrypter.createEncryptionCipher(secretKeyEntry.getSecretKey());
+            authenticationCallback.checkAuthentication(promise, cipher, (promise1, cipher1, postEncryptionCallback) -> {
+                        EncryptedRecord wrappedDataKey;
+                        try {
+                            wrappedDataKey = mAESEncrypter.createEncryptedItem(dataKey, cipher1);
+                        } catch (GeneralSecurityException e) {
+                            Arrays.fill(dataKey, (byte) 0);
+                            throw e;
+                        }
+                        // Only use the new data key once it is durable, items sealed with it would
+                        // be unreadable otherwise
+                        mRecordStoreWriter.put(EnvelopeEncrypter.DATA_KEY_ITEM, wrappedDataKey).whenComplete((res, e) -> {
+                            try {
+                                if (e != null) {
+                                    promise1.reject("WRITE_ERROR", "Could not write the envelope data key to KeyStoreModule", e);
+                                    return;
+                                }
+                                openEnvelopeSessionUnlessLocked(dataKey);
+                                promise1.resolve(null);
+                            } finally {
+                                Arrays.fill(dataKey, (byte) 0);
+                            }
+                        });
+                        return null;
+                    },
+                    null
+            );
+            return;
+        }
+
+        Cipher cipher = mAESEncrypter.createDecryptionCipher(wrappedKey, secretKeyEntry);
+        authenticationCallback.checkAuthentication(promise, cipher, (promise1, cipher1, postEncryptionCallback) -> {
+                    byte[] dataKey = mAESEncrypter.decryptBytes(wrappedKey, cipher1);
+                    try {
+                        openEnvelopeSessionUnlessLocked(dataKey);
+                    } finally {
+                        Arrays.fill(dataKey, (byte) 0);
+                    }
+                    promise1.resolve(null);
+                    return null;
+                },
+                null
+        );
+    }
+
+    /**
+     * Loads the record store, the keystore provider and the key entry in the background, so the
+     * first unlock doesn't pay for them. Called by {@link KeyStorePackage} right after the module
+     * is created.
+     * <p>
+     * A missing key is generated here too (once the device has a secure lock screen, without one
+     * generation fails), so the first write during onboarding doesn't wait for key generation.
+     * A write that races with this blocks on the same lock in getKeyEntry and reuses the key.
+     */
+    void prewarm() {
+        CompletableFuture.runAsync(() -> {
+            try {
+                long start = SystemClock.elapsedRealtime();
+                getRecordStore();
+                long recordStoreLoaded = SystemClock.elapsedRealtime();
+                KeyStore keyStore = getKeyStore();
+                long keyStoreLoaded = SystemClock.elapsedRealtime();
+                if (keyStore.containsAlias(mAESEncrypter.getKeyStoreAlias()) || isDeviceSecure()) {
+                    getKeyEntry(KeyStore.SecretKeyEntry.class, mAESEncrypter);
+                }
+                mFingerprinter.prepare(keyStore);
+                long keyEntryLoaded = SystemClock.elapsedRealtime();
+
+                mRecordStoreLoadMs = recordStoreLoaded - start;
+                mKeyStoreLoadMs = keyStoreLoaded - recordStoreLoaded;
+                mKeyEntryLoadMs = keyEntryLoaded - keyStoreLoaded;
+                Log.d(TAG, String.format(
+                        "Pre-warmed in %d ms (record store %d ms, keystore %d ms, key entry %d ms)",
+                        keyEntryLoaded - start, mRecordStoreLoadMs, mKeyStoreLoadMs, mKeyEntryLoadMs));
+            } catch (Exception e) {
+                Log.w(TAG, "Could not pre-warm KeyStoreModule", e);
+            }
+        });
+    }
+
+    /**
+     * Resolves with how long each pre-warm step took, which is the latency the first unlock no
+     * longer pays. Steps that haven't finished (or failed) are reported as -1.
+     */
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void getWarmupTimingsAsync(Promise promise) {
+        WritableMap timings = Arguments.createMap();
+        timings.putDouble("recordStoreLoadMs", mRecordStoreLoadMs);
+        timings.putDouble("keyStoreLoadMs", mKeyStoreLoadMs);
+        timings.putDouble("keyEntryLoadMs", mKeyEntryLoadMs);
+        promise.resolve(timings);
+    }
+
+    /**
+     * Resolves with count, mean, p50/p90/p99 and max latency (ms) of every operation and phase
+     * since the module was created, and the number of skipped writes
+     */
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void getMetricsSnapshot(Promise promise) {
+        promise.resolve(mMetrics.toWritableMap());
+    }
+
+    private synchronized KeyStore getKeyStore() throws IOException, KeyStoreException, NoSuchAlgorithmException, CertificateException {
         if (mKeyStore == null) {
             KeyStore keyStore = KeyStore.getInstance(KEYSTORE_PROVIDER);
             keyStore.load(null);
@@ -253,26 +1433,79 @@ public class KeyStoreModule extends ReactContextBaseJavaModule {
         return mKeyStore;
     }
 
+    /**
+     * Drops cached key entries once the keystore reports the key as permanently invalidated, so
+     * the next access resolves it again instead of reusing a dead handle
+     */
+    private void onKeyStoreError(GeneralSecurityException e) {
+        if (e instanceof KeyPermanentlyInvalidatedException) {
+            mKeyEntryCache.clear();
+            discardUnusedKey();
+        }
+    }
+
+    /**
+     * A key generated ahead of time can be invalidated (lock screen removed) before anything was
+     * encrypted with it. With nothing stored it is safe to delete, and the next write generates a
+     * fresh one instead of failing forever.
+     */
+    private void discardUnusedKey() {
+        try {
+            synchronized (mKeyEntryCache) {
+                List<String> keys = getRecordStore().keys();
+                keys.remove(KeychainStoreMigrator.MIGRATED_MARKER);
+                if (keys.isEmpty()) {
+                    getKeyStore().deleteEntry(mAESEncrypter.getKeyStoreAlias());
+                    mKeyEntryCache.clear();
+                }
+            }
+        } catch (IOException | GeneralSecurityException e) {
+            Log.w(TAG, e);
+        }
+    }
+
+    private boolean isDeviceSecure() {
+        KeyguardManager keyguardManager = (KeyguardManager) mContext.getSystemService(Context.KEYGUARD_SERVICE);
+        return keyguardManager != null && keyguardManager.isDeviceSecure();
+    }
+
     private <E extends KeyStore.Entry> E getKeyEntry(Class<E> keyStoreEntryClass,
                                                      KeyBasedEncrypter<E> encrypter) throws IOException, GeneralSecurityException {
-        KeyStore keyStore = getKeyStore();
         String keystoreAlias = encrypter.getKeyStoreAlias();
+        KeyStore.Entry cachedEntry = mKeyEntryCache.get(keystoreAlias);
+        if (keyStoreEntryClass.isInstance(cachedEntry)) {
+            return keyStoreEntryClass.cast(cachedEntry);
+        }
+
+        KeyStore keyStore = getKeyStore();
 
-        E keyStoreEntry;
-        if (!keyStore.containsAlias(keystoreAlias)) {
-            keyStoreEntry = encrypter.initializeKeyStoreEntry(keyStore);
-        } else {
-            KeyStore.Entry entry = keyStore.getEntry(keystoreAlias, null);
-            if (!keyStoreEntryClass.isInstance(entry)) {
-                String message = String.format(
-                        "The entry for the keystore alias \"%s\" is not a %s",
-                        keystoreAlias, keyStoreEntryClass.getSimpleName());
-                throw new KeyStoreException(message);
+        // Two callers that both miss the cache must not both generate the key, the second one
+        // would replace the key the first one already encrypted with
+        synchronized (mKeyEntryCache) {
+            cachedEntry = mKeyEntryCache.get(keystoreAlias);
+            if (keyStoreEntryClass.isInstance(cachedEntry)) {
+                return keyStoreEntryClass.cast(cachedEntry);
+            }
+
+            E keyStoreEntry;
+            if (!keyStore.containsAlias(keystoreAlias)) {
+                long start = KeyStoreMetrics.now();
+                keyStoreEntry = encrypter.initializeKeyStoreEntry(keyStore);
+                mMetrics.record(mMetrics.keyGeneration, start);
+            } else {
+                KeyStore.Entry entry = keyStore.getEntry(keystoreAlias, null);
+                if (!keyStoreEntryClass.isInstance(entry)) {
+                    String message = String.format(
+                            "The entry for the keystore alias \"%s\" is not a %s",
+                            keystoreAlias, keyStoreEntryClass.getSimpleName());
+                    throw new KeyStoreException(message);
+                }
+                keyStoreEntry = keyStoreEntryClass.cast(entry);
             }
-            keyStoreEntry = keyStoreEntryClass.cast(entry);
-        }
 
-        return keyStoreEntry;
+            mKeyEntryCache.put(keystoreAlias, keyStoreEntry);
+            return keyStoreEntry;
+        }
     }
 
     private interface KeyBasedEncrypter<E extends KeyStore.Entry> {
@@ -289,8 +1522,8 @@ public class KeyStoreModule extends ReactContextBaseJavaModule {
                 GeneralSecurityException, JSONException;
 
         @SuppressWarnings("unused")
-        void decryptItem(Promise promise, JSONObject encryptedItem, E keyStoreEntry, AuthenticationCallback callback) throws
-                GeneralSecurityException, JSONException;
+        void decryptItem(Promise promise, EncryptedRecord encryptedItem, E keyStoreEntry, AuthenticationCallback callback) throws
+                GeneralSecurityException;
     }
 
     /**
@@ -302,16 +1535,22 @@ public class KeyStoreModule extends ReactContextBaseJavaModule {
         public static final String NAME = "aes";
 
         private static final String DEFAULT_ALIAS = "tonhub_v4";
-        private static final String AES_CIPHER = "AES/GCM/NoPadding";
         private static final int AES_KEY_SIZE_BITS = 256;
 
-        private static final String CIPHERTEXT_PROPERTY = "ct";
-        private static final String IV_PROPERTY = "iv";
-        private static final String GCM_AUTHENTICATION_TAG_LENGTH_PROPERTY = "tlen";
+        // Property names of the JSON items stored before the record store, see KeychainStoreMigrator
+        static final String CIPHERTEXT_PROPERTY = "ct";
+        static final String IV_PROPERTY = "iv";
+        static final String GCM_AUTHENTICATION_TAG_LENGTH_PROPERTY = "tlen";
+
+        private final SecureItemCodec mCodec;
+
+        AESEncrypter(SecureItemCodec codec) {
+            mCodec = codec;
+        }
 
         @Override
         public String getKeyStoreAlias() {
-            return AES_CIPHER + ":" + DEFAULT_ALIAS;
+            return SecureItemCodec.AES_CIPHER + ":" + DEFAULT_ALIAS;
         }
 
         /**
@@ -388,80 +1627,60 @@ public class KeyStoreModule extends ReactContextBaseJavaModule {
                 PostEncryptionCallback postEncryptionCallback) throws GeneralSecurityException {
 
             SecretKey secretKey = secretKeyEntry.getSecretKey();
-            Cipher cipher = Cipher.getInstance(AES_CIPHER);
             try {
-                cipher.init(Cipher.ENCRYPT_MODE, secretKey);
-                authenticationCallback.checkAuthentication(promise, cipher, (promise1, cipher1, postEncryptionCallback1) -> {
-                            GCMParameterSpec gcmSpec = cipher1.getParameters().getParameterSpec(GCMParameterSpec.class);
-                            return createEncryptedItem(
-                                    promise1,
-                                    plaintextValue,
-                                    cipher1,
-                                    gcmSpec,
-                                    postEncryptionCallback1
-                            );
-                        },
+                Cipher cipher = mCodec.createEncryptionCipher(secretKey);
+                authenticationCallback.checkAuthentication(promise, cipher, (promise1, cipher1, postEncryptionCallback1) ->
+                                createEncryptedItem(promise1, plaintextValue, cipher1, postEncryptionCallback1),
                         postEncryptionCallback
                 );
             } catch (UserNotAuthenticatedException e) {
                 authenticationCallback.checkAuthNoCipher(promise, (success) -> {
                     if (success) {
-                        cipher.init(Cipher.ENCRYPT_MODE, secretKey);
-                        authenticationCallback.checkAuthentication(promise, cipher, (promise1, cipher1, postEncryptionCallback1) -> {
-                                GCMParameterSpec gcmSpec = cipher1.getParameters().getParameterSpec(GCMParameterSpec.class);
-                                return createEncryptedItem(
-                                        promise1,
-                                        plaintextValue,
-                                        cipher1,
-                                        gcmSpec,
-                                        postEncryptionCallback1
-                                );
-                            },
-                            postEncryptionCallback
-                    );
+                        Cipher cipher = mCodec.createEncryptionCipher(secretKey);
+                        authenticationCallback.checkAuthentication(promise, cipher, (promise1, cipher1, postEncryptionCallback1) ->
+                                        createEncryptedItem(promise1, plaintextValue, cipher1, postEncryptionCallback1),
+                                postEncryptionCallback
+                        );
                     }
                 });
             }
         }
 
-        JSONObject createEncryptedItem(Promise promise, String plaintextValue, Cipher cipher,
-                                       GCMParameterSpec gcmSpec, PostEncryptionCallback postEncryptionCallback) throws
+        EncryptedRecord createEncryptedItem(Promise promise, String plaintextValue, Cipher cipher,
+                                            PostEncryptionCallback postEncryptionCallback) throws
                 GeneralSecurityException, JSONException {
 
-            byte[] plaintextBytes = plaintextValue.getBytes(StandardCharsets.UTF_8);
-            byte[] ciphertextBytes = cipher.doFinal(plaintextBytes);
-            String ciphertext = Base64.encodeToString(ciphertextBytes, Base64.NO_WRAP);
+            EncryptedRecord result = createEncryptedItem(plaintextValue.getBytes(StandardCharsets.UTF_8), cipher);
+            postEncryptionCallback.run(promise, result);
+            return result;
+        }
 
-            String ivString = Base64.encodeToString(gcmSpec.getIV(), Base64.NO_WRAP);
-            int authenticationTagLength = gcmSpec.getTLen();
+        EncryptedRecord createEncryptedItem(byte[] plaintextBytes, Cipher cipher) throws GeneralSecurityException {
+            return mCodec.seal(NAME, plaintextBytes, cipher);
+        }
 
-            JSONObject result = new JSONObject()
-                    .put(CIPHERTEXT_PROPERTY, ciphertext)
-                    .put(IV_PROPERTY, ivString)
-                    .put(GCM_AUTHENTICATION_TAG_LENGTH_PROPERTY, authenticationTagLength);
+        Cipher createEncryptionCipher(SecretKey secretKey) throws GeneralSecurityException {
+            return mCodec.createEncryptionCipher(secretKey);
+        }
 
-            postEncryptionCallback.run(promise, result);
+        Cipher createDecryptionCipher(EncryptedRecord encryptedItem, KeyStore.SecretKeyEntry secretKeyEntry) throws
+                GeneralSecurityException {
+            return mCodec.createDecryptionCipher(secretKeyEntry.getSecretKey(), encryptedItem);
+        }
 
-            return result;
+        byte[] decryptBytes(EncryptedRecord encryptedItem, Cipher cipher) throws GeneralSecurityException {
+            return mCodec.open(encryptedItem, cipher);
         }
 
         @Override
-        public void decryptItem(Promise promise, JSONObject encryptedItem, KeyStore.SecretKeyEntry secretKeyEntry,
+        public void decryptItem(Promise promise, EncryptedRecord encryptedItem, KeyStore.SecretKeyEntry secretKeyEntry,
                                 AuthenticationCallback callback) throws
-                GeneralSecurityException, JSONException {
+                GeneralSecurityException {
 
-            String ciphertext = encryptedItem.getString(CIPHERTEXT_PROPERTY);
-            String ivString = encryptedItem.getString(IV_PROPERTY);
-            int authenticationTagLength = encryptedItem.getInt(GCM_AUTHENTICATION_TAG_LENGTH_PROPERTY);
-            byte[] ciphertextBytes = Base64.decode(ciphertext, Base64.DEFAULT);
-            byte[] ivBytes = Base64.decode(ivString, Base64.DEFAULT);
-
-            GCMParameterSpec gcmSpec = new GCMParameterSpec(authenticationTagLength, ivBytes);
-            Cipher cipher = Cipher.getInstance(AES_CIPHER);
-            cipher.init(Cipher.DECRYPT_MODE, secretKeyEntry.getSecretKey(), gcmSpec);
+            Cipher cipher = createDecryptionCipher(encryptedItem, secretKeyEntry);
 
             callback.checkAuthentication(promise, cipher, (promise1, cipher1, postEncryptionCallback) -> {
-                        String result = new String(cipher1.doFinal(ciphertextBytes), StandardCharsets.UTF_8);
+                        String result = new String(decryptBytes(encryptedItem, cipher1), StandardCharsets.UTF_8);
                         promise1.resolve(result);
                         return result;
                     },
@@ -469,4 +1688,52 @@ public class KeyStoreModule extends ReactContextBaseJavaModule {
             );
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * An encrypter for items sealed with the envelope data key instead of the keystore key. The
+     * data key lives in software for the duration of an unlocked session, so items can be read and
+     * written without a keystore round trip or prompt. The item key is bound as associated data so
+     * that ciphertexts can't be swapped between keys.
+     */
+    protected static class EnvelopeEncrypter {
+        public static final String NAME = "aes-envelope";
+
+        // Not a valid JS key, so it can never collide with an item written from JS
+        static final String DATA_KEY_ITEM = "@envelope:dek";
+
+        private static final int DATA_KEY_SIZE_BYTES = 32;
+
+        private final SecureRandom mSecureRandom = new SecureRandom();
+        private final SecureItemCodec mCodec;
+
+        EnvelopeEncrypter(SecureItemCodec codec) {
+            mCodec = codec;
+        }
+
+        byte[] generateDataKey() {
+            byte[] dataKey = new byte[DATA_KEY_SIZE_BYTES];
+            mSecureRandom.nextBytes(dataKey);
+            return dataKey;
+        }
+
+        EncryptedRecord createEncryptedItem(String key, String plaintextValue, SecretKey dataKey) throws
+                GeneralSecurityException {
+            return createEncryptedItem(key, plaintextValue.getBytes(StandardCharsets.UTF_8), dataKey);
+        }
+
+        EncryptedRecord createEncryptedItem(String key, byte[] plaintextBytes, SecretKey dataKey) throws
+                GeneralSecurityException {
+            return mCodec.sealBound(NAME, key, plaintextBytes, dataKey);
+        }
+
+        String decryptItem(String key, EncryptedRecord encryptedItem, SecretKey dataKey) throws
+                GeneralSecurityException {
+            return new String(decryptBytes(key, encryptedItem, dataKey), StandardCharsets.UTF_8);
+        }
+
+        byte[] decryptBytes(String key, EncryptedRecord encryptedItem, SecretKey dataKey) throws
+                GeneralSecurityException {
+            return mCodec.openBound(key, encryptedItem, dataKey);
+        }
+    }
+}
@@ -22,7 +22,10 @@ public class KeyStorePackage implements ReactPackage {
             ReactApplicationContext reactContext) {
         List<NativeModule> modules = new ArrayList<>();
 
-        modules.add(new KeyStoreModule(reactContext));
+        KeyStoreModule keyStoreModule = new KeyStoreModule(reactContext);
+        keyStoreModule.prewarm();
+        modules.add(keyStoreModule);
+        modules.add(new PasscodeCryptoModule(reactContext));
 
         return modules;
     }
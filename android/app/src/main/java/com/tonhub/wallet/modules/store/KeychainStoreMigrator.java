@@ -0,0 +1,75 @@
+package com.tonhub.wallet.modules.store;
+
+import android.content.SharedPreferences;
+import android.util.Base64;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * One-time migration of the JSON + Base64 items in the KeychainStore shared preferences into the
+ * binary {@link SecureRecordStore}. Items are copied first and only removed from the preferences
+ * once the store has synced them. The copy is written together with a marker record, so if the
+ * removal fails it is retried on next launch without copying the (by then possibly stale) items
+ * over newer values again.
+ */
+final class KeychainStoreMigrator {
+    static final String MIGRATED_MARKER = "@migrated:keychain_store";
+
+    private KeychainStoreMigrator() {
+    }
+
+    static void migrate(SharedPreferences prefs, SecureRecordStore store) throws IOException {
+        Map<String, ?> entries = prefs.getAll();
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        LinkedHashMap<String, EncryptedRecord> records = new LinkedHashMap<>();
+        for (Map.Entry<String, ?> entry : entries.entrySet()) {
+            if (!(entry.getValue() instanceof String)) {
+                continue;
+            }
+            try {
+                records.put(entry.getKey(), fromJSON(new JSONObject((String) entry.getValue())));
+            } catch (JSONException | IllegalArgumentException e) {
+                // Leave unreadable items in place, reading them failed before the migration as well
+                Log.w(KeyStoreModule.TAG, String.format("Could not migrate stored value (key = %s)", entry.getKey()), e);
+            }
+        }
+
+        if (!store.contains(MIGRATED_MARKER)) {
+            LinkedHashMap<String, EncryptedRecord> changes = new LinkedHashMap<>();
+            for (Map.Entry<String, EncryptedRecord> record : records.entrySet()) {
+                // Never overwrite a value written through the store
+                if (!store.contains(record.getKey())) {
+                    changes.put(record.getKey(), record.getValue());
+                }
+            }
+            changes.put(MIGRATED_MARKER, new EncryptedRecord("migrated", new byte[0], 0, new byte[0]));
+            store.apply(changes);
+        }
+
+        SharedPreferences.Editor editor = prefs.edit();
+        for (String key : records.keySet()) {
+            editor.remove(key);
+        }
+        if (!editor.commit()) {
+            Log.w(KeyStoreModule.TAG, "Could not remove migrated items from the KeychainStore preferences");
+        }
+    }
+
+    private static EncryptedRecord fromJSON(JSONObject encryptedItem) throws JSONException {
+        return new EncryptedRecord(
+                encryptedItem.optString(KeyStoreModule.SCHEME_PROPERTY),
+                Base64.decode(encryptedItem.getString(KeyStoreModule.AESEncrypter.IV_PROPERTY), Base64.DEFAULT),
+                encryptedItem.getInt(KeyStoreModule.AESEncrypter.GCM_AUTHENTICATION_TAG_LENGTH_PROPERTY),
+                Base64.decode(encryptedItem.getString(KeyStoreModule.AESEncrypter.CIPHERTEXT_PROPERTY), Base64.DEFAULT)
+        );
+    }
+}
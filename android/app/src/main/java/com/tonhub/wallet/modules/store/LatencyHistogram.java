@@ -0,0 +1,92 @@
+package com.tonhub.wallet.modules.store;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with fixed buckets. Recording is a couple of atomic increments and
+ * never allocates, so it is safe on the hot path of every keystore operation. Percentiles are
+ * reported as the upper bound of the bucket they fall in.
+ */
+public class LatencyHistogram {
+    // Upper bounds in microseconds, the last bucket catches everything slower
+    private static final long[] BUCKET_BOUNDS_US = {
+            100, 250, 500,
+            1_000, 2_000, 5_000,
+            10_000, 20_000, 50_000,
+            100_000, 200_000, 500_000,
+            1_000_000, 2_000_000, 5_000_000,
+            10_000_000, 30_000_000, 60_000_000,
+            Long.MAX_VALUE
+    };
+
+    private final String mName;
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_BOUNDS_US.length);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mTotalUs = new AtomicLong();
+    private final AtomicLong mMaxUs = new AtomicLong();
+
+    public LatencyHistogram(String name) {
+        mName = name;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public void record(long durationNanos) {
+        long durationUs = Math.max(0, durationNanos / 1000);
+
+        int bucket = 0;
+        while (durationUs > BUCKET_BOUNDS_US[bucket]) {
+            bucket++;
+        }
+        mBuckets.incrementAndGet(bucket);
+        mCount.incrementAndGet();
+        mTotalUs.addAndGet(durationUs);
+
+        long max;
+        do {
+            max = mMaxUs.get();
+        } while (durationUs > max && !mMaxUs.compareAndSet(max, durationUs));
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    public double getMeanMs() {
+        long count = mCount.get();
+        return count == 0 ? 0 : mTotalUs.get() / 1000.0 / count;
+    }
+
+    public double getMaxMs() {
+        return mMaxUs.get() / 1000.0;
+    }
+
+    /**
+     * @param percentile between 0 and 1
+     */
+    public double getPercentileMs(double percentile) {
+        long[] buckets = new long[BUCKET_BOUNDS_US.length];
+        long total = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = mBuckets.get(i);
+            total += buckets[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(percentile * total);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                // The overflow bucket has no meaningful bound, and no bound is worse than the max
+                return i == buckets.length - 1 ? getMaxMs() : Math.min(BUCKET_BOUNDS_US[i] / 1000.0, getMaxMs());
+            }
+        }
+        return getMaxMs();
+    }
+}
@@ -0,0 +1,105 @@
+package com.tonhub.wallet.modules.store;
+
+import android.util.Base64;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.bridge.ReactContextBaseJavaModule;
+import com.facebook.react.bridge.ReactMethod;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Native versions of the passcode primitives in secureStorage.ts: PBKDF2-SHA512 key derivation and
+ * the @ton/crypto sealBox/openBox secretbox. They produce the same bytes as the JS implementation,
+ * but run on a background thread instead of blocking the JS thread. Binary values cross the bridge
+ * as Base64.
+ */
+public class PasscodeCryptoModule extends ReactContextBaseJavaModule {
+    static final String TAG = "PasscodeCrypto";
+
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "PasscodeCrypto")
+    );
+
+    PasscodeCryptoModule(ReactApplicationContext context) {
+        super(context);
+    }
+
+    @NonNull
+    @Override
+    public String getName() {
+        return TAG;
+    }
+
+    @Override
+    public void invalidate() {
+        mExecutor.shutdown();
+        super.invalidate();
+    }
+
+    /**
+     * Derives a key from the passcode, both the passcode and the salt string are used as UTF-8
+     */
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void deriveKeyAsync(String passcode, String salt, int iterations, int keyLength, Promise promise) {
+        mExecutor.execute(() -> {
+            byte[] password = passcode.getBytes(StandardCharsets.UTF_8);
+            try {
+                byte[] key = Pbkdf2.deriveSha512(password, salt.getBytes(StandardCharsets.UTF_8), iterations, keyLength);
+                promise.resolve(encode(key));
+                Arrays.fill(key, (byte) 0);
+            } catch (Exception e) {
+                Log.w(TAG, e);
+                promise.reject("KDF_ERROR", "Could not derive the key from the passcode", e);
+            } finally {
+                Arrays.fill(password, (byte) 0);
+            }
+        });
+    }
+
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void sealBoxAsync(String data, String nonce, String key, Promise promise) {
+        mExecutor.execute(() -> {
+            try {
+                promise.resolve(encode(SecretBox.seal(decode(data), decode(nonce), decode(key))));
+            } catch (Exception e) {
+                Log.w(TAG, e);
+                promise.reject("SEAL_ERROR", "Could not seal the box", e);
+            }
+        });
+    }
+
+    /**
+     * Resolves with null if the box doesn't authenticate, like openBox in JS
+     */
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public void openBoxAsync(String box, String nonce, String key, Promise promise) {
+        mExecutor.execute(() -> {
+            try {
+                byte[] data = SecretBox.open(decode(box), decode(nonce), decode(key));
+                promise.resolve(data != null ? encode(data) : null);
+            } catch (Exception e) {
+                Log.w(TAG, e);
+                promise.reject("OPEN_ERROR", "Could not open the box", e);
+            }
+        });
+    }
+
+    private static byte[] decode(String value) {
+        return Base64.decode(value, Base64.NO_WRAP);
+    }
+
+    private static String encode(byte[] value) {
+        return Base64.encodeToString(value, Base64.NO_WRAP);
+    }
+}
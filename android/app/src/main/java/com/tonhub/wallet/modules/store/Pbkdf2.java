@@ -0,0 +1,58 @@
+package com.tonhub.wallet.modules.store;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * PBKDF2 with HMAC-SHA512 over raw bytes. The platform's PBKDF2WithHmacSHA512 takes a char[]
+ * password and its byte encoding differs between providers, this matches the JS implementation
+ * which uses the UTF-8 bytes of both the password and the salt.
+ */
+final class Pbkdf2 {
+    private static final String HMAC_SHA512 = "HmacSHA512";
+    private static final int HASH_SIZE_BYTES = 64;
+
+    private Pbkdf2() {
+    }
+
+    static byte[] deriveSha512(byte[] password, byte[] salt, int iterations, int keyLength) throws
+            GeneralSecurityException {
+        if (iterations <= 0 || keyLength <= 0) {
+            throw new IllegalArgumentException("Iterations and key length must be positive");
+        }
+
+        Mac mac = Mac.getInstance(HMAC_SHA512);
+        // SecretKeySpec rejects an empty key, HMAC zero-pads keys so a single zero byte is equivalent
+        mac.init(new SecretKeySpec(password.length > 0 ? password : new byte[1], HMAC_SHA512));
+
+        byte[] result = new byte[keyLength];
+        byte[] u = new byte[HASH_SIZE_BYTES];
+        byte[] block = new byte[HASH_SIZE_BYTES];
+        int blocks = (keyLength + HASH_SIZE_BYTES - 1) / HASH_SIZE_BYTES;
+
+        for (int i = 1; i <= blocks; i++) {
+            mac.update(salt);
+            mac.update(new byte[]{(byte) (i >>> 24), (byte) (i >>> 16), (byte) (i >>> 8), (byte) i});
+            mac.doFinal(u, 0);
+            System.arraycopy(u, 0, block, 0, HASH_SIZE_BYTES);
+
+            for (int j = 1; j < iterations; j++) {
+                mac.update(u);
+                mac.doFinal(u, 0);
+                for (int k = 0; k < HASH_SIZE_BYTES; k++) {
+                    block[k] ^= u[k];
+                }
+            }
+
+            int offset = (i - 1) * HASH_SIZE_BYTES;
+            System.arraycopy(block, 0, result, offset, Math.min(HASH_SIZE_BYTES, keyLength - offset));
+        }
+
+        Arrays.fill(u, (byte) 0);
+        Arrays.fill(block, (byte) 0);
+        return result;
+    }
+}
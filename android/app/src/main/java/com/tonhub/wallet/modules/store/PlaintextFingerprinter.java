@@ -0,0 +1,94 @@
+package com.tonhub.wallet.modules.store;
+
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.UnrecoverableEntryException;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+
+/**
+ * Keyed fingerprints of stored plaintexts, so that writing a value that is already stored can be
+ * detected without decrypting anything. The fingerprint is HMAC-SHA256 over the item key and the
+ * value, with a keystore key that doesn't require authentication, and is kept in the record store
+ * next to its item under {@link #getItemKey(String)}.
+ * <p>
+ * The HMAC key never leaves the keystore, so a fingerprint reveals nothing about the value to
+ * someone holding only the files. Anyone able to run code as the app could use the key to confirm
+ * a guessed value, but they could equally call the module itself.
+ */
+public class PlaintextFingerprinter {
+    public static final String NAME = "hmac-sha256";
+    private static final String KEYSTORE_ALIAS = "HmacSHA256:tonhub_fingerprint";
+    private static final String ITEM_KEY_PREFIX = "@fingerprint:";
+
+    private volatile SecretKey mKey;
+
+    static String getItemKey(String key) {
+        return ITEM_KEY_PREFIX + key;
+    }
+
+    /**
+     * The fingerprint record of the value stored under the key
+     */
+    EncryptedRecord fingerprint(KeyStore keyStore, String key, byte[] value) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(KeyProperties.KEY_ALGORITHM_HMAC_SHA256);
+        mac.init(getKey(keyStore));
+        // Length-prefix the item key so key and value can't be shifted into each other
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        mac.update(ByteBuffer.allocate(4).putInt(keyBytes.length).array());
+        mac.update(keyBytes);
+        return new EncryptedRecord(NAME, new byte[0], 0, mac.doFinal(value));
+    }
+
+    /**
+     * Loads the HMAC key, generating it on first use, ahead of the first write
+     */
+    void prepare(KeyStore keyStore) throws GeneralSecurityException {
+        getKey(keyStore);
+    }
+
+    synchronized void deleteKey(KeyStore keyStore) throws GeneralSecurityException {
+        keyStore.deleteEntry(KEYSTORE_ALIAS);
+        mKey = null;
+    }
+
+    static boolean matches(@Nullable EncryptedRecord stored, EncryptedRecord fingerprint) {
+        return stored != null && NAME.equals(stored.scheme) && MessageDigest.isEqual(stored.ciphertext, fingerprint.ciphertext);
+    }
+
+    private SecretKey getKey(KeyStore keyStore) throws GeneralSecurityException {
+        SecretKey key = mKey;
+        if (key != null) {
+            return key;
+        }
+
+        synchronized (this) {
+            if (mKey != null) {
+                return mKey;
+            }
+
+            if (!keyStore.containsAlias(KEYSTORE_ALIAS)) {
+                KeyGenerator keyGenerator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_HMAC_SHA256, keyStore.getProvider());
+                keyGenerator.init(new KeyGenParameterSpec.Builder(KEYSTORE_ALIAS, KeyProperties.PURPOSE_SIGN).build());
+                keyGenerator.generateKey();
+            }
+
+            KeyStore.SecretKeyEntry entry = (KeyStore.SecretKeyEntry) keyStore.getEntry(KEYSTORE_ALIAS, null);
+            if (entry == null) {
+                throw new UnrecoverableEntryException("Could not retrieve the fingerprint key entry");
+            }
+            mKey = entry.getSecretKey();
+            return mKey;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.tonhub.wallet.modules.store;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Where encrypted records live. {@link SecureRecordStore} is the on-device file, the interface
+ * lets {@link RecordStoreWriter} and the codec run against any other backend, such as an in-memory
+ * map on a plain JVM.
+ */
+public interface RecordStorage {
+    EncryptedRecord get(String key) throws IOException;
+
+    List<String> keys() throws IOException;
+
+    /**
+     * Applies every change at once, a null record removes the key
+     */
+    void apply(Map<String, EncryptedRecord> changes) throws IOException;
+}
@@ -0,0 +1,90 @@
+package com.tonhub.wallet.modules.store;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serializes all {@link RecordStorage} writes on one background thread. Changes that arrive
+ * while a batch is being flushed are merged into the next one, so a burst of puts and removes costs
+ * a single append + fsync, and only the latest change per key is written. Every returned future
+ * completes once the batch holding its changes is durable.
+ */
+public class RecordStoreWriter {
+    private final RecordStorage mStore;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "KeyStoreWriter")
+    );
+
+    // A null record removes the key
+    private LinkedHashMap<String, EncryptedRecord> mPending = new LinkedHashMap<>();
+    private List<CompletableFuture<Void>> mWaiters = new ArrayList<>();
+    private boolean mScheduled = false;
+
+    public RecordStoreWriter(RecordStorage store) {
+        mStore = store;
+    }
+
+    public CompletableFuture<Void> put(String key, EncryptedRecord record) {
+        return apply(Collections.singletonMap(key, record));
+    }
+
+    public CompletableFuture<Void> remove(String key) {
+        return apply(Collections.singletonMap(key, null));
+    }
+
+    public synchronized CompletableFuture<Void> apply(Map<String, EncryptedRecord> changes) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        mPending.putAll(changes);
+        mWaiters.add(future);
+        if (!mScheduled) {
+            mScheduled = true;
+            mExecutor.execute(this::flushPending);
+        }
+        return future;
+    }
+
+    /**
+     * Barrier that completes once every change enqueued before it is on disk
+     */
+    public CompletableFuture<Void> flush() {
+        return apply(Collections.emptyMap());
+    }
+
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    private void flushPending() {
+        LinkedHashMap<String, EncryptedRecord> batch;
+        List<CompletableFuture<Void>> waiters;
+        synchronized (this) {
+            batch = mPending;
+            waiters = mWaiters;
+            mPending = new LinkedHashMap<>();
+            mWaiters = new ArrayList<>();
+            mScheduled = false;
+        }
+
+        try {
+            if (!batch.isEmpty()) {
+                mStore.apply(batch);
+            }
+        } catch (IOException | RuntimeException e) {
+            for (CompletableFuture<Void> waiter : waiters) {
+                waiter.completeExceptionally(e);
+            }
+            return;
+        }
+
+        for (CompletableFuture<Void> waiter : waiters) {
+            waiter.complete(null);
+        }
+    }
+}
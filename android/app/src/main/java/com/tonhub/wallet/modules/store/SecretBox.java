@@ -0,0 +1,329 @@
+package com.tonhub.wallet.modules.store;
+
+import androidx.annotation.VisibleForTesting;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * NaCl secretbox (XSalsa20-Poly1305) in the layout produced by tweetnacl's nacl.secretbox, which
+ * is what sealBox/openBox of @ton/crypto use: the 16-byte Poly1305 tag followed by the ciphertext.
+ * Neither primitive is available from the platform providers.
+ */
+final class SecretBox {
+    static final int KEY_SIZE_BYTES = 32;
+    static final int NONCE_SIZE_BYTES = 24;
+    static final int TAG_SIZE_BYTES = 16;
+
+    // "expand 32-byte k"
+    private static final int[] SIGMA = {0x61707865, 0x3320646e, 0x79622d32, 0x6b206574};
+
+    private SecretBox() {
+    }
+
+    static byte[] seal(byte[] message, byte[] nonce, byte[] key) {
+        checkParameters(nonce, key);
+
+        byte[] stream = xsalsa20Stream(KEY_SIZE_BYTES + message.length, nonce, key);
+        byte[] box = new byte[TAG_SIZE_BYTES + message.length];
+        for (int i = 0; i < message.length; i++) {
+            box[TAG_SIZE_BYTES + i] = (byte) (message[i] ^ stream[KEY_SIZE_BYTES + i]);
+        }
+        byte[] tag = poly1305(box, TAG_SIZE_BYTES, message.length, stream);
+        System.arraycopy(tag, 0, box, 0, TAG_SIZE_BYTES);
+
+        Arrays.fill(stream, (byte) 0);
+        return box;
+    }
+
+    /**
+     * Returns the message, or null if the box is too short or fails authentication
+     */
+    static byte[] open(byte[] box, byte[] nonce, byte[] key) {
+        checkParameters(nonce, key);
+        if (box.length < TAG_SIZE_BYTES) {
+            return null;
+        }
+
+        int length = box.length - TAG_SIZE_BYTES;
+        byte[] stream = xsalsa20Stream(KEY_SIZE_BYTES + length, nonce, key);
+        byte[] tag = poly1305(box, TAG_SIZE_BYTES, length, stream);
+        if (!MessageDigest.isEqual(tag, Arrays.copyOf(box, TAG_SIZE_BYTES))) {
+            Arrays.fill(stream, (byte) 0);
+            return null;
+        }
+
+        byte[] message = new byte[length];
+        for (int i = 0; i < length; i++) {
+            message[i] = (byte) (box[TAG_SIZE_BYTES + i] ^ stream[KEY_SIZE_BYTES + i]);
+        }
+
+        Arrays.fill(stream, (byte) 0);
+        return message;
+    }
+
+    private static void checkParameters(byte[] nonce, byte[] key) {
+        if (nonce.length != NONCE_SIZE_BYTES) {
+            throw new IllegalArgumentException("Nonce must be " + NONCE_SIZE_BYTES + " bytes");
+        }
+        if (key.length != KEY_SIZE_BYTES) {
+            throw new IllegalArgumentException("Key must be " + KEY_SIZE_BYTES + " bytes");
+        }
+    }
+
+    /**
+     * XSalsa20 keystream: Salsa20 keyed with HSalsa20(key, nonce[0..16]) and nonce[16..24]
+     */
+    private static byte[] xsalsa20Stream(int length, byte[] nonce, byte[] key) {
+        int[] subKey = hsalsa20(key, nonce);
+
+        int[] state = new int[16];
+        state[0] = SIGMA[0];
+        System.arraycopy(subKey, 0, state, 1, 4);
+        state[5] = SIGMA[1];
+        state[6] = load32(nonce, 16);
+        state[7] = load32(nonce, 20);
+        state[10] = SIGMA[2];
+        System.arraycopy(subKey, 4, state, 11, 4);
+        state[15] = SIGMA[3];
+        Arrays.fill(subKey, 0);
+
+        byte[] stream = new byte[length];
+        int[] block = new int[16];
+        long counter = 0;
+        for (int offset = 0; offset < length; offset += 64) {
+            state[8] = (int) counter;
+            state[9] = (int) (counter >>> 32);
+            salsa20Core(state, block, true);
+            for (int i = 0; i < 16 && offset + i * 4 < length; i++) {
+                store32(stream, offset + i * 4, block[i], length);
+            }
+            counter++;
+        }
+
+        Arrays.fill(state, 0);
+        Arrays.fill(block, 0);
+        return stream;
+    }
+
+    private static int[] hsalsa20(byte[] key, byte[] nonce) {
+        int[] state = new int[16];
+        state[0] = SIGMA[0];
+        for (int i = 0; i < 4; i++) {
+            state[1 + i] = load32(key, i * 4);
+            state[11 + i] = load32(key, 16 + i * 4);
+            state[6 + i] = load32(nonce, i * 4);
+        }
+        state[5] = SIGMA[1];
+        state[10] = SIGMA[2];
+        state[15] = SIGMA[3];
+
+        int[] out = new int[16];
+        salsa20Core(state, out, false);
+        Arrays.fill(state, 0);
+        return new int[]{out[0], out[5], out[10], out[15], out[6], out[7], out[8], out[9]};
+    }
+
+    /**
+     * Salsa20/20 block function. HSalsa20 skips the final addition of the input.
+     */
+    private static void salsa20Core(int[] in, int[] out, boolean addInput) {
+        int x0 = in[0], x1 = in[1], x2 = in[2], x3 = in[3], x4 = in[4], x5 = in[5], x6 = in[6], x7 = in[7];
+        int x8 = in[8], x9 = in[9], x10 = in[10], x11 = in[11], x12 = in[12], x13 = in[13], x14 = in[14], x15 = in[15];
+
+        for (int i = 0; i < 20; i += 2) {
+            x4 ^= Integer.rotateLeft(x0 + x12, 7);
+            x8 ^= Integer.rotateLeft(x4 + x0, 9);
+            x12 ^= Integer.rotateLeft(x8 + x4, 13);
+            x0 ^= Integer.rotateLeft(x12 + x8, 18);
+            x9 ^= Integer.rotateLeft(x5 + x1, 7);
+            x13 ^= Integer.rotateLeft(x9 + x5, 9);
+            x1 ^= Integer.rotateLeft(x13 + x9, 13);
+            x5 ^= Integer.rotateLeft(x1 + x13, 18);
+            x14 ^= Integer.rotateLeft(x10 + x6, 7);
+            x2 ^= Integer.rotateLeft(x14 + x10, 9);
+            x6 ^= Integer.rotateLeft(x2 + x14, 13);
+            x10 ^= Integer.rotateLeft(x6 + x2, 18);
+            x3 ^= Integer.rotateLeft(x15 + x11, 7);
+            x7 ^= Integer.rotateLeft(x3 + x15, 9);
+            x11 ^= Integer.rotateLeft(x7 + x3, 13);
+            x15 ^= Integer.rotateLeft(x11 + x7, 18);
+
+            x1 ^= Integer.rotateLeft(x0 + x3, 7);
+            x2 ^= Integer.rotateLeft(x1 + x0, 9);
+            x3 ^= Integer.rotateLeft(x2 + x1, 13);
+            x0 ^= Integer.rotateLeft(x3 + x2, 18);
+            x6 ^= Integer.rotateLeft(x5 + x4, 7);
+            x7 ^= Integer.rotateLeft(x6 + x5, 9);
+            x4 ^= Integer.rotateLeft(x7 + x6, 13);
+            x5 ^= Integer.rotateLeft(x4 + x7, 18);
+            x11 ^= Integer.rotateLeft(x10 + x9, 7);
+            x8 ^= Integer.rotateLeft(x11 + x10, 9);
+            x9 ^= Integer.rotateLeft(x8 + x11, 13);
+            x10 ^= Integer.rotateLeft(x9 + x8, 18);
+            x12 ^= Integer.rotateLeft(x15 + x14, 7);
+            x13 ^= Integer.rotateLeft(x12 + x15, 9);
+            x14 ^= Integer.rotateLeft(x13 + x12, 13);
+            x15 ^= Integer.rotateLeft(x14 + x13, 18);
+        }
+
+        out[0] = x0;
+        out[1] = x1;
+        out[2] = x2;
+        out[3] = x3;
+        out[4] = x4;
+        out[5] = x5;
+        out[6] = x6;
+        out[7] = x7;
+        out[8] = x8;
+        out[9] = x9;
+        out[10] = x10;
+        out[11] = x11;
+        out[12] = x12;
+        out[13] = x13;
+        out[14] = x14;
+        out[15] = x15;
+        if (addInput) {
+            for (int i = 0; i < 16; i++) {
+                out[i] += in[i];
+            }
+        }
+    }
+
+    /**
+     * Poly1305 of data[offset..offset+length] keyed with the first 32 bytes of key, using 26-bit
+     * limbs so every product fits in a long
+     */
+    @VisibleForTesting
+    static byte[] poly1305(byte[] data, int offset, int length, byte[] key) {
+        final long mask26 = 0x3ffffff;
+
+        long r0 = load32(key, 0) & 0x3ffffffL;
+        long r1 = (load32(key, 3) >>> 2) & 0x3ffff03L;
+        long r2 = (load32(key, 6) >>> 4) & 0x3ffc0ffL;
+        long r3 = (load32(key, 9) >>> 6) & 0x3f03fffL;
+        long r4 = (load32(key, 12) >>> 8) & 0x00fffffL;
+        long s1 = r1 * 5, s2 = r2 * 5, s3 = r3 * 5, s4 = r4 * 5;
+
+        long h0 = 0, h1 = 0, h2 = 0, h3 = 0, h4 = 0;
+        byte[] block = new byte[16];
+        for (int position = 0; position < length; position += 16) {
+            int blockLength = Math.min(16, length - position);
+            Arrays.fill(block, (byte) 0);
+            System.arraycopy(data, offset + position, block, 0, blockLength);
+            // Full blocks get the 2^128 bit through hibit, partial ones a 0x01 byte after the data
+            long hibit = blockLength == 16 ? (1L << 24) : 0;
+            if (blockLength < 16) {
+                block[blockLength] = 1;
+            }
+
+            h0 += load32(block, 0) & mask26;
+            h1 += (load32(block, 3) >>> 2) & mask26;
+            h2 += (load32(block, 6) >>> 4) & mask26;
+            h3 += (load32(block, 9) >>> 6) & mask26;
+            h4 += ((load32(block, 12) & 0xffffffffL) >>> 8) | hibit;
+
+            long d0 = h0 * r0 + h1 * s4 + h2 * s3 + h3 * s2 + h4 * s1;
+            long d1 = h0 * r1 + h1 * r0 + h2 * s4 + h3 * s3 + h4 * s2;
+            long d2 = h0 * r2 + h1 * r1 + h2 * r0 + h3 * s4 + h4 * s3;
+            long d3 = h0 * r3 + h1 * r2 + h2 * r1 + h3 * r0 + h4 * s4;
+            long d4 = h0 * r4 + h1 * r3 + h2 * r2 + h3 * r1 + h4 * r0;
+
+            long c = d0 >>> 26;
+            h0 = d0 & mask26;
+            d1 += c;
+            c = d1 >>> 26;
+            h1 = d1 & mask26;
+            d2 += c;
+            c = d2 >>> 26;
+            h2 = d2 & mask26;
+            d3 += c;
+            c = d3 >>> 26;
+            h3 = d3 & mask26;
+            d4 += c;
+            c = d4 >>> 26;
+            h4 = d4 & mask26;
+            h0 += c * 5;
+            c = h0 >>> 26;
+            h0 &= mask26;
+            h1 += c;
+        }
+
+        // Fully carry h
+        long c = h1 >>> 26;
+        h1 &= mask26;
+        h2 += c;
+        c = h2 >>> 26;
+        h2 &= mask26;
+        h3 += c;
+        c = h3 >>> 26;
+        h3 &= mask26;
+        h4 += c;
+        c = h4 >>> 26;
+        h4 &= mask26;
+        h0 += c * 5;
+        c = h0 >>> 26;
+        h0 &= mask26;
+        h1 += c;
+
+        // Compute h - p and select it if h >= p
+        long g0 = h0 + 5;
+        c = g0 >>> 26;
+        g0 &= mask26;
+        long g1 = h1 + c;
+        c = g1 >>> 26;
+        g1 &= mask26;
+        long g2 = h2 + c;
+        c = g2 >>> 26;
+        g2 &= mask26;
+        long g3 = h3 + c;
+        c = g3 >>> 26;
+        g3 &= mask26;
+        long g4 = h4 + c - (1L << 26);
+
+        long select = (g4 >>> 63) - 1;
+        h0 = (h0 & ~select) | (g0 & select);
+        h1 = (h1 & ~select) | (g1 & select);
+        h2 = (h2 & ~select) | (g2 & select);
+        h3 = (h3 & ~select) | (g3 & select);
+        h4 = (h4 & ~select) | (g4 & select);
+
+        // h = (h + s) % 2^128
+        long f0 = ((h0) | (h1 << 26)) & 0xffffffffL;
+        long f1 = ((h1 >>> 6) | (h2 << 20)) & 0xffffffffL;
+        long f2 = ((h2 >>> 12) | (h3 << 14)) & 0xffffffffL;
+        long f3 = ((h3 >>> 18) | (h4 << 8)) & 0xffffffffL;
+
+        long f = f0 + (load32(key, 16) & 0xffffffffL);
+        f0 = f & 0xffffffffL;
+        f = f1 + (load32(key, 20) & 0xffffffffL) + (f >>> 32);
+        f1 = f & 0xffffffffL;
+        f = f2 + (load32(key, 24) & 0xffffffffL) + (f >>> 32);
+        f2 = f & 0xffffffffL;
+        f = f3 + (load32(key, 28) & 0xffffffffL) + (f >>> 32);
+        f3 = f & 0xffffffffL;
+
+        byte[] tag = new byte[TAG_SIZE_BYTES];
+        store32(tag, 0, (int) f0, TAG_SIZE_BYTES);
+        store32(tag, 4, (int) f1, TAG_SIZE_BYTES);
+        store32(tag, 8, (int) f2, TAG_SIZE_BYTES);
+        store32(tag, 12, (int) f3, TAG_SIZE_BYTES);
+        return tag;
+    }
+
+    private static int load32(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff)
+                | (bytes[offset + 1] & 0xff) << 8
+                | (bytes[offset + 2] & 0xff) << 16
+                | (bytes[offset + 3] & 0xff) << 24;
+    }
+
+    /**
+     * Little-endian store that stops at limit, for the last partial keystream block
+     */
+    private static void store32(byte[] bytes, int offset, int value, int limit) {
+        for (int i = 0; i < 4 && offset + i < limit; i++) {
+            bytes[offset + i] = (byte) (value >>> (8 * i));
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.tonhub.wallet.modules.store;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * The AES-GCM encrypt/decrypt pipeline behind every KeyStoreModule scheme, free of Android and
+ * React Native types so it runs unchanged on a plain JVM. Keys are always passed in: an
+ * AndroidKeyStore key once its cipher has been authenticated, the envelope data key, or any
+ * software key when benchmarking or testing against a {@link RecordStorage}.
+ */
+public class SecureItemCodec {
+    public static final String AES_CIPHER = "AES/GCM/NoPadding";
+
+    private static final int IV_SIZE_BYTES = 12;
+    private static final int GCM_AUTHENTICATION_TAG_LENGTH_BITS = 128;
+
+    /**
+     * Told how long each phase took, so the caller can feed its latency histograms
+     */
+    public interface PhaseListener {
+        void onCipherInit(long durationNanos);
+
+        void onDoFinal(long durationNanos);
+    }
+
+    private final PhaseListener mListener;
+    private final SecureRandom mSecureRandom = new SecureRandom();
+
+    public SecureItemCodec(PhaseListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * A cipher that picks its own IV, as the keystore requires for its keys
+     */
+    public Cipher createEncryptionCipher(SecretKey key) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(AES_CIPHER);
+        long start = System.nanoTime();
+        cipher.init(Cipher.ENCRYPT_MODE, key);
+        mListener.onCipherInit(System.nanoTime() - start);
+        return cipher;
+    }
+
+    public Cipher createDecryptionCipher(SecretKey key, EncryptedRecord record) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(AES_CIPHER);
+        long start = System.nanoTime();
+        cipher.init(Cipher.DECRYPT_MODE, key, getParameterSpec(record));
+        mListener.onCipherInit(System.nanoTime() - start);
+        return cipher;
+    }
+
+    /**
+     * Encrypts with an initialised (and, for keystore keys, authenticated) cipher
+     */
+    public EncryptedRecord seal(String scheme, byte[] plaintext, Cipher cipher) throws GeneralSecurityException {
+        GCMParameterSpec gcmSpec = cipher.getParameters().getParameterSpec(GCMParameterSpec.class);
+        long start = System.nanoTime();
+        byte[] ciphertext = cipher.doFinal(plaintext);
+        mListener.onDoFinal(System.nanoTime() - start);
+        return new EncryptedRecord(scheme, gcmSpec.getIV(), gcmSpec.getTLen(), ciphertext);
+    }
+
+    public byte[] open(EncryptedRecord record, Cipher cipher) throws GeneralSecurityException {
+        long start = System.nanoTime();
+        byte[] plaintext = cipher.doFinal(record.ciphertext);
+        mListener.onDoFinal(System.nanoTime() - start);
+        return plaintext;
+    }
+
+    /**
+     * Encrypts with a key held in memory, binding the item key as associated data so the record
+     * can't be moved to another key
+     */
+    public EncryptedRecord sealBound(String scheme, String itemKey, byte[] plaintext, SecretKey key) throws
+            GeneralSecurityException {
+        byte[] iv = new byte[IV_SIZE_BYTES];
+        mSecureRandom.nextBytes(iv);
+        GCMParameterSpec gcmSpec = new GCMParameterSpec(GCM_AUTHENTICATION_TAG_LENGTH_BITS, iv);
+
+        Cipher cipher = Cipher.getInstance(AES_CIPHER);
+        long start = System.nanoTime();
+        cipher.init(Cipher.ENCRYPT_MODE, key, gcmSpec);
+        mListener.onCipherInit(System.nanoTime() - start);
+        cipher.updateAAD(itemKey.getBytes(StandardCharsets.UTF_8));
+        return seal(scheme, plaintext, cipher);
+    }
+
+    public byte[] openBound(String itemKey, EncryptedRecord record, SecretKey key) throws GeneralSecurityException {
+        Cipher cipher = createDecryptionCipher(key, record);
+        cipher.updateAAD(itemKey.getBytes(StandardCharsets.UTF_8));
+        return open(record, cipher);
+    }
+
+    static GCMParameterSpec getParameterSpec(EncryptedRecord record) {
+        return new GCMParameterSpec(record.tagLength, record.iv);
+    }
+}
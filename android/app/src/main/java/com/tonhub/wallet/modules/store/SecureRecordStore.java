@@ -0,0 +1,519 @@
+package com.tonhub.wallet.modules.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only binary store for encrypted items, replacing the JSON + Base64 values that used to
+ * live in the KeychainStore shared preferences.
+ * <p>
+ * The file starts with a header ([magic u32][version u8]) followed by records:
+ * <pre>
+ * PUT/DELETE: [type u8][key length u16][key utf-8]
+ * PUT only:   [scheme length u8][scheme][iv length u8][iv][tag length u16][ciphertext length u32][ciphertext]
+ * BATCH:      [type u8][record count u32]
+ * all:        [crc32 u32] of all the preceding record bytes
+ * </pre>
+ * Writes append a record and fsync the file instead of rewriting it, deletes append a tombstone.
+ * A batch of several changes is preceded by a BATCH record, and load only indexes the batch once
+ * all of its records are intact, so a crash in the middle of a batch loses the whole batch rather
+ * than leaving a prefix of it. An in-memory index maps every live key to the offset of its latest
+ * record, so a read is a single positional read. A torn record or batch at the tail (crash during
+ * append) is dropped on load.
+ * <p>
+ * The file is compacted once the dead records outweigh the live ones, and after every batch that
+ * deletes a key, so an explicitly deleted secret doesn't linger in the file. Overwritten values
+ * are left to the threshold, their ciphertexts are still sealed by the same keys.
+ */
+public class SecureRecordStore implements RecordStorage {
+    private static final int MAGIC = 0x544B5352; // "TKSR"
+    // Version 1 files have no BATCH records and load unchanged
+    private static final byte LEGACY_VERSION = 1;
+    private static final byte VERSION = 2;
+    private static final int HEADER_SIZE = 5;
+
+    private static final byte TYPE_PUT = 1;
+    private static final byte TYPE_DELETE = 2;
+    private static final byte TYPE_BATCH = 3;
+
+    private static final int COMPACTION_MIN_GARBAGE_BYTES = 16 * 1024;
+
+    private static class IndexEntry {
+        final long offset;
+        final int length;
+
+        IndexEntry(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private static class DecodedRecord {
+        final byte type;
+        final String key;
+        final EncryptedRecord record;
+        // Number of records that follow a BATCH record
+        final int count;
+
+        DecodedRecord(byte type, String key, EncryptedRecord record) {
+            this(type, key, record, 0);
+        }
+
+        DecodedRecord(byte type, String key, EncryptedRecord record, int count) {
+            this.type = type;
+            this.key = key;
+            this.record = record;
+            this.count = count;
+        }
+    }
+
+    private static class PendingRecord {
+        final DecodedRecord decoded;
+        final long offset;
+        final int length;
+
+        PendingRecord(DecodedRecord decoded, long offset, int length) {
+            this.decoded = decoded;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private final File mFile;
+    private final HashMap<String, IndexEntry> mIndex = new HashMap<>();
+    private FileChannel mChannel;
+    private long mSize;
+    private long mLiveBytes;
+    private Consumer<IOException> mCompactionErrorHandler = e -> {
+    };
+
+    public SecureRecordStore(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Told about compactions that failed. They don't fail the write that triggered them, that
+     * write is durable by then, and a later write tries again.
+     */
+    public synchronized void setCompactionErrorHandler(Consumer<IOException> handler) {
+        mCompactionErrorHandler = handler;
+    }
+
+    /**
+     * Opens the file and rebuilds the index. Called lazily by every other method.
+     */
+    public synchronized void load() throws IOException {
+        if (mChannel != null) {
+            return;
+        }
+
+        FileChannel channel = new RandomAccessFile(mFile, "rw").getChannel();
+        try {
+            long fileSize = channel.size();
+            if (fileSize < HEADER_SIZE) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).put(VERSION);
+                header.flip();
+                channel.truncate(0);
+                writeFully(channel, header, 0);
+                channel.force(true);
+                mChannel = channel;
+                mSize = HEADER_SIZE;
+                return;
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate((int) fileSize);
+            readFully(channel, buffer, 0);
+            buffer.flip();
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Unsupported record store format in " + mFile.getName());
+            }
+            byte version = buffer.get();
+            if (version != VERSION && version != LEGACY_VERSION) {
+                throw new IOException("Unsupported record store format in " + mFile.getName());
+            }
+
+            while (buffer.hasRemaining()) {
+                int start = buffer.position();
+                if (!loadNext(buffer)) {
+                    buffer.position(start);
+                    break;
+                }
+            }
+
+            // Drop a record or batch that was only partially written
+            long validSize = buffer.position();
+            if (validSize < fileSize) {
+                channel.truncate(validSize);
+                channel.force(true);
+            }
+            if (version == LEGACY_VERSION) {
+                // Batches are about to be appended, builds that don't know them must not read on
+                writeFully(channel, ByteBuffer.wrap(new byte[]{VERSION}), 4);
+                channel.force(true);
+            }
+
+            mChannel = channel;
+            mSize = validSize;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Indexes the record, or the whole batch, at the buffer position. Returns false without
+     * indexing anything if it is incomplete or corrupted.
+     */
+    private boolean loadNext(ByteBuffer buffer) {
+        int start = buffer.position();
+        DecodedRecord decoded = decode(buffer);
+        if (decoded == null) {
+            return false;
+        }
+        if (decoded.type != TYPE_BATCH) {
+            indexRecord(decoded, start, buffer.position() - start);
+            return true;
+        }
+
+        List<PendingRecord> batch = new ArrayList<>(Math.min(decoded.count, 1024));
+        for (int i = 0; i < decoded.count; i++) {
+            int offset = buffer.position();
+            DecodedRecord record = decode(buffer);
+            if (record == null || record.type == TYPE_BATCH) {
+                return false;
+            }
+            batch.add(new PendingRecord(record, offset, buffer.position() - offset));
+        }
+        for (PendingRecord record : batch) {
+            indexRecord(record.decoded, record.offset, record.length);
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized EncryptedRecord get(String key) throws IOException {
+        load();
+        IndexEntry entry = mIndex.get(key);
+        if (entry == null) {
+            return null;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(entry.length);
+        readFully(mChannel, buffer, entry.offset);
+        buffer.flip();
+        DecodedRecord decoded = decode(buffer);
+        if (decoded == null || decoded.record == null) {
+            throw new IOException("Corrupted record for key " + key);
+        }
+        return decoded.record;
+    }
+
+    public synchronized boolean contains(String key) throws IOException {
+        load();
+        return mIndex.containsKey(key);
+    }
+
+    @Override
+    public synchronized List<String> keys() throws IOException {
+        load();
+        return new ArrayList<>(mIndex.keySet());
+    }
+
+    public synchronized void put(String key, EncryptedRecord record) throws IOException {
+        HashMap<String, EncryptedRecord> changes = new HashMap<>();
+        changes.put(key, record);
+        apply(changes);
+    }
+
+    public synchronized void remove(String key) throws IOException {
+        HashMap<String, EncryptedRecord> changes = new HashMap<>();
+        changes.put(key, null);
+        apply(changes);
+    }
+
+    /**
+     * Appends all changes and makes them durable with a single fsync. Several changes are written
+     * as one batch that is either loaded whole or not at all. A null record removes the key.
+     * Removing a key that is not present writes nothing.
+     */
+    @Override
+    public synchronized void apply(Map<String, EncryptedRecord> changes) throws IOException {
+        load();
+
+        List<String> keys = new ArrayList<>();
+        List<ByteBuffer> records = new ArrayList<>();
+        int size = 0;
+        boolean deleted = false;
+        for (Map.Entry<String, EncryptedRecord> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                if (!mIndex.containsKey(change.getKey())) {
+                    continue;
+                }
+                deleted = true;
+            }
+            ByteBuffer buffer = encode(change.getKey(), change.getValue());
+            keys.add(change.getKey());
+            records.add(buffer);
+            size += buffer.remaining();
+        }
+        if (records.isEmpty()) {
+            return;
+        }
+
+        ByteBuffer header = records.size() > 1 ? encodeBatch(records.size()) : null;
+        ByteBuffer batch = ByteBuffer.allocate(size + (header != null ? header.remaining() : 0));
+        if (header != null) {
+            batch.put(header);
+        }
+        for (ByteBuffer record : records) {
+            batch.put(record.duplicate());
+        }
+        batch.flip();
+
+        try {
+            writeFully(mChannel, batch, mSize);
+            mChannel.force(false);
+        } catch (IOException e) {
+            // Part of the batch may have reached the disk, the next access reloads the file and
+            // drops it
+            close();
+            throw e;
+        }
+
+        long offset = mSize + (header != null ? header.limit() : 0);
+        for (int i = 0; i < records.size(); i++) {
+            String key = keys.get(i);
+            EncryptedRecord record = changes.get(key);
+            int length = records.get(i).limit();
+            indexRecord(new DecodedRecord(record != null ? TYPE_PUT : TYPE_DELETE, key, record), offset, length);
+            offset += length;
+        }
+        mSize = offset;
+
+        long garbage = mSize - HEADER_SIZE - mLiveBytes;
+        if (deleted || (garbage > COMPACTION_MIN_GARBAGE_BYTES && garbage > mLiveBytes)) {
+            try {
+                compact();
+            } catch (IOException e) {
+                mCompactionErrorHandler.accept(e);
+            }
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        if (mChannel != null) {
+            FileChannel channel = mChannel;
+            mChannel = null;
+            mIndex.clear();
+            mLiveBytes = 0;
+            channel.close();
+        }
+    }
+
+    private void indexRecord(DecodedRecord decoded, long offset, int length) {
+        IndexEntry previous = decoded.type == TYPE_PUT
+                ? mIndex.put(decoded.key, new IndexEntry(offset, length))
+                : mIndex.remove(decoded.key);
+        if (previous != null) {
+            mLiveBytes -= previous.length;
+        }
+        if (decoded.type == TYPE_PUT) {
+            mLiveBytes += length;
+        }
+    }
+
+    /**
+     * Rewrites the live records into a new file and atomically renames it over the old one
+     */
+    private void compact() throws IOException {
+        File compacted = new File(mFile.getPath() + ".tmp");
+        HashMap<String, IndexEntry> index = new HashMap<>();
+
+        try (FileChannel channel = new RandomAccessFile(compacted, "rw").getChannel()) {
+            channel.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).put(VERSION);
+            header.flip();
+            writeFully(channel, header, 0);
+
+            long offset = HEADER_SIZE;
+            for (Map.Entry<String, IndexEntry> entry : mIndex.entrySet()) {
+                ByteBuffer buffer = ByteBuffer.allocate(entry.getValue().length);
+                readFully(mChannel, buffer, entry.getValue().offset);
+                buffer.flip();
+                writeFully(channel, buffer, offset);
+                index.put(entry.getKey(), new IndexEntry(offset, entry.getValue().length));
+                offset += entry.getValue().length;
+            }
+            channel.force(true);
+        } catch (IOException e) {
+            compacted.delete();
+            throw e;
+        }
+
+        if (!compacted.renameTo(mFile)) {
+            compacted.delete();
+            throw new IOException("Could not replace " + mFile.getName() + " with its compacted copy");
+        }
+        syncDirectory();
+
+        // If reopening fails the store stays closed, and the next access reloads the new file
+        close();
+        FileChannel channel = new RandomAccessFile(mFile, "rw").getChannel();
+        long size;
+        try {
+            size = channel.size();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        mChannel = channel;
+        mIndex.putAll(index);
+        mSize = size;
+        mLiveBytes = mSize - HEADER_SIZE;
+    }
+
+    /**
+     * Makes the rename durable, it is only recorded in the directory. Not every platform lets a
+     * directory be opened, the rename is then as durable as the file system makes it anyway.
+     */
+    private void syncDirectory() {
+        File directory = mFile.getAbsoluteFile().getParentFile();
+        if (directory == null) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Best effort, see above
+        }
+    }
+
+    private static ByteBuffer encodeBatch(int count) {
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 4 + 4);
+        buffer.put(TYPE_BATCH).putInt(count);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+        return buffer;
+    }
+
+    private static ByteBuffer encode(String key, EncryptedRecord record) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        if (keyBytes.length > 0xFFFF) {
+            throw new IOException("Key is too long for the record store");
+        }
+
+        int size = 1 + 2 + keyBytes.length + 4;
+        byte[] schemeBytes = null;
+        if (record != null) {
+            schemeBytes = record.scheme.getBytes(StandardCharsets.UTF_8);
+            if (schemeBytes.length > 0xFF || record.iv.length > 0xFF || record.tagLength > 0xFFFF) {
+                throw new IOException("Record parameters are too long for the record store");
+            }
+            size += 1 + schemeBytes.length + 1 + record.iv.length + 2 + 4 + record.ciphertext.length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(record != null ? TYPE_PUT : TYPE_DELETE);
+        buffer.putShort((short) keyBytes.length).put(keyBytes);
+        if (record != null) {
+            buffer.put((byte) schemeBytes.length).put(schemeBytes);
+            buffer.put((byte) record.iv.length).put(record.iv);
+            buffer.putShort((short) record.tagLength);
+            buffer.putInt(record.ciphertext.length).put(record.ciphertext);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Decodes the record at the buffer position, or returns null if it is incomplete or corrupted
+     */
+    private static DecodedRecord decode(ByteBuffer buffer) {
+        int start = buffer.position();
+        try {
+            byte type = buffer.get();
+            if (type == TYPE_BATCH) {
+                int count = buffer.getInt();
+                if (count < 0 || !checkCrc(buffer, start)) {
+                    return null;
+                }
+                return new DecodedRecord(type, null, null, count);
+            }
+            if (type != TYPE_PUT && type != TYPE_DELETE) {
+                return null;
+            }
+            byte[] keyBytes = new byte[buffer.getShort() & 0xFFFF];
+            buffer.get(keyBytes);
+
+            EncryptedRecord record = null;
+            if (type == TYPE_PUT) {
+                byte[] schemeBytes = new byte[buffer.get() & 0xFF];
+                buffer.get(schemeBytes);
+                byte[] iv = new byte[buffer.get() & 0xFF];
+                buffer.get(iv);
+                int tagLength = buffer.getShort() & 0xFFFF;
+                int ciphertextLength = buffer.getInt();
+                if (ciphertextLength < 0 || ciphertextLength > buffer.remaining()) {
+                    return null;
+                }
+                byte[] ciphertext = new byte[ciphertextLength];
+                buffer.get(ciphertext);
+                record = new EncryptedRecord(new String(schemeBytes, StandardCharsets.UTF_8), iv, tagLength, ciphertext);
+            }
+
+            if (!checkCrc(buffer, start)) {
+                return null;
+            }
+
+            return new DecodedRecord(type, new String(keyBytes, StandardCharsets.UTF_8), record);
+        } catch (RuntimeException e) {
+            // BufferUnderflowException or a negative length from a torn record
+            return null;
+        }
+    }
+
+    /**
+     * Checks the crc32 at the buffer position against the bytes from start, and skips it
+     */
+    private static boolean checkCrc(ByteBuffer buffer, int start) {
+        int end = buffer.position();
+        CRC32 crc = new CRC32();
+        if (buffer.hasArray()) {
+            crc.update(buffer.array(), buffer.arrayOffset() + start, end - start);
+        }
+        return (int) crc.getValue() == buffer.getInt();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of record store");
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            offset += channel.write(buffer, offset);
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package com.tonhub.wallet.modules.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Set;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Stores large values outside of {@link SecureRecordStore}, one file per value, encrypted in
+ * fixed-size AES-GCM segments with a random content key.
+ * <p>
+ * Every segment is sealed on its own with the nonce [prefix (7 bytes)][segment index u32][last u8]
+ * and the item key as associated data, so segments can't be reordered, truncated or moved to
+ * another key without failing authentication. Segments are streamed through a FileChannel with
+ * one reusable segment buffer, the file is written under a temporary name and renamed once durable.
+ * <p>
+ * The content key, nonce prefix and length make up the {@link Manifest}, which the caller wraps
+ * with the keystore or envelope key and stores in the record store. Files are named by a random
+ * id, so replacing a value never touches the file the current record still points to.
+ */
+public class SegmentedBlobStore {
+    // Manifest records whose secret is wrapped by the keystore key or by the envelope data key
+    public static final String NAME = "aes-stream";
+    public static final String ENVELOPE_NAME = "aes-envelope-stream";
+
+    static final int SEGMENT_SIZE_BYTES = 64 * 1024;
+    static final int FILE_ID_SIZE_BYTES = 16;
+
+    private static final int CONTENT_KEY_SIZE_BYTES = 32;
+    private static final int NONCE_PREFIX_SIZE_BYTES = 7;
+    private static final int NONCE_SIZE_BYTES = 12;
+    private static final int GCM_AUTHENTICATION_TAG_LENGTH_BITS = 128;
+    private static final int TAG_SIZE_BYTES = GCM_AUTHENTICATION_TAG_LENGTH_BITS / 8;
+    private static final String FILE_SUFFIX = ".blob";
+
+    /**
+     * Everything needed to decrypt a blob. Only {@link #fileId} may be stored in the clear, the
+     * rest is what {@link #encodeSecret()} returns for wrapping.
+     */
+    static class Manifest {
+        final byte[] fileId;
+        final byte[] contentKey;
+        final byte[] noncePrefix;
+        final long plaintextLength;
+
+        Manifest(byte[] fileId, byte[] contentKey, byte[] noncePrefix, long plaintextLength) {
+            this.fileId = fileId;
+            this.contentKey = contentKey;
+            this.noncePrefix = noncePrefix;
+            this.plaintextLength = plaintextLength;
+        }
+
+        byte[] encodeSecret() {
+            return ByteBuffer.allocate(CONTENT_KEY_SIZE_BYTES + NONCE_PREFIX_SIZE_BYTES + 8)
+                    .put(contentKey)
+                    .put(noncePrefix)
+                    .putLong(plaintextLength)
+                    .array();
+        }
+
+        static Manifest decodeSecret(byte[] fileId, byte[] secret) throws GeneralSecurityException {
+            if (secret.length != CONTENT_KEY_SIZE_BYTES + NONCE_PREFIX_SIZE_BYTES + 8) {
+                throw new GeneralSecurityException("Invalid blob manifest");
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(secret);
+            byte[] contentKey = new byte[CONTENT_KEY_SIZE_BYTES];
+            byte[] noncePrefix = new byte[NONCE_PREFIX_SIZE_BYTES];
+            buffer.get(contentKey).get(noncePrefix);
+            return new Manifest(fileId, contentKey, noncePrefix, buffer.getLong());
+        }
+
+        void wipe() {
+            Arrays.fill(contentKey, (byte) 0);
+        }
+    }
+
+    private final File mDirectory;
+    private final SecureRandom mSecureRandom = new SecureRandom();
+
+    public SegmentedBlobStore(File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * Encrypts the value into a new file and returns its manifest
+     */
+    Manifest write(String key, byte[] plaintext) throws IOException, GeneralSecurityException {
+        byte[] fileId = new byte[FILE_ID_SIZE_BYTES];
+        byte[] contentKey = new byte[CONTENT_KEY_SIZE_BYTES];
+        byte[] noncePrefix = new byte[NONCE_PREFIX_SIZE_BYTES];
+        mSecureRandom.nextBytes(fileId);
+        mSecureRandom.nextBytes(contentKey);
+        mSecureRandom.nextBytes(noncePrefix);
+        Manifest manifest = new Manifest(fileId, contentKey, noncePrefix, plaintext.length);
+
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Could not create " + mDirectory.getName());
+        }
+        File file = getFile(fileId);
+        File temporary = new File(file.getPath() + ".tmp");
+
+        Cipher cipher = Cipher.getInstance(SecureItemCodec.AES_CIPHER);
+        SecretKeySpec secretKey = new SecretKeySpec(contentKey, "AES");
+        byte[] associatedData = key.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer output = ByteBuffer.allocate(SEGMENT_SIZE_BYTES + TAG_SIZE_BYTES);
+
+        try (FileChannel channel = new RandomAccessFile(temporary, "rw").getChannel()) {
+            channel.truncate(0);
+            int segments = segmentCount(plaintext.length);
+            for (int index = 0; index < segments; index++) {
+                int offset = index * SEGMENT_SIZE_BYTES;
+                int length = Math.min(SEGMENT_SIZE_BYTES, plaintext.length - offset);
+
+                cipher.init(Cipher.ENCRYPT_MODE, secretKey, segmentSpec(noncePrefix, index, index == segments - 1));
+                cipher.updateAAD(associatedData);
+                output.clear();
+                cipher.doFinal(ByteBuffer.wrap(plaintext, offset, length), output);
+                output.flip();
+                while (output.hasRemaining()) {
+                    channel.write(output);
+                }
+            }
+            channel.force(true);
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            temporary.delete();
+            manifest.wipe();
+            throw e;
+        }
+
+        if (!temporary.renameTo(file)) {
+            temporary.delete();
+            manifest.wipe();
+            throw new IOException("Could not move the blob into place");
+        }
+        return manifest;
+    }
+
+    /**
+     * Decrypts and authenticates every segment of the blob described by the manifest
+     */
+    byte[] read(String key, Manifest manifest) throws IOException, GeneralSecurityException {
+        if (manifest.plaintextLength > Integer.MAX_VALUE) {
+            throw new IOException("Blob is too large to read into memory");
+        }
+        int plaintextLength = (int) manifest.plaintextLength;
+        int segments = segmentCount(plaintextLength);
+        long expectedSize = (long) plaintextLength + (long) segments * TAG_SIZE_BYTES;
+
+        Cipher cipher = Cipher.getInstance(SecureItemCodec.AES_CIPHER);
+        SecretKeySpec secretKey = new SecretKeySpec(manifest.contentKey, "AES");
+        byte[] associatedData = key.getBytes(StandardCharsets.UTF_8);
+        byte[] plaintext = new byte[plaintextLength];
+        ByteBuffer input = ByteBuffer.allocate(SEGMENT_SIZE_BYTES + TAG_SIZE_BYTES);
+
+        try (FileChannel channel = new RandomAccessFile(getFile(manifest.fileId), "r").getChannel()) {
+            if (channel.size() != expectedSize) {
+                throw new AEADBadTagException("Blob size does not match its manifest");
+            }
+
+            for (int index = 0; index < segments; index++) {
+                int offset = index * SEGMENT_SIZE_BYTES;
+                int length = Math.min(SEGMENT_SIZE_BYTES, plaintextLength - offset);
+
+                input.clear();
+                input.limit(length + TAG_SIZE_BYTES);
+                while (input.hasRemaining()) {
+                    if (channel.read(input) < 0) {
+                        throw new IOException("Unexpected end of blob");
+                    }
+                }
+                input.flip();
+
+                cipher.init(Cipher.DECRYPT_MODE, secretKey, segmentSpec(manifest.noncePrefix, index, index == segments - 1));
+                cipher.updateAAD(associatedData);
+                cipher.doFinal(input, ByteBuffer.wrap(plaintext, offset, length));
+            }
+        }
+        return plaintext;
+    }
+
+    void delete(byte[] fileId) {
+        getFile(fileId).delete();
+    }
+
+    /**
+     * Deletes every blob (and leftover temporary file) whose id is not in the set, such as the
+     * file of a write that never made it into the record store
+     */
+    void retainOnly(Set<String> fileIds) {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.endsWith(FILE_SUFFIX) || !fileIds.contains(name.substring(0, name.length() - FILE_SUFFIX.length()))) {
+                file.delete();
+            }
+        }
+    }
+
+    static boolean isBlobScheme(String scheme) {
+        return NAME.equals(scheme) || ENVELOPE_NAME.equals(scheme);
+    }
+
+    /**
+     * The record stored for a blob: the wrapped manifest secret, with the file id in front of its
+     * ciphertext
+     */
+    static EncryptedRecord toRecord(String scheme, byte[] fileId, EncryptedRecord wrappedSecret) {
+        byte[] ciphertext = ByteBuffer.allocate(FILE_ID_SIZE_BYTES + wrappedSecret.ciphertext.length)
+                .put(fileId)
+                .put(wrappedSecret.ciphertext)
+                .array();
+        return new EncryptedRecord(scheme, wrappedSecret.iv, wrappedSecret.tagLength, ciphertext);
+    }
+
+    static byte[] getFileId(EncryptedRecord record) {
+        return Arrays.copyOf(record.ciphertext, FILE_ID_SIZE_BYTES);
+    }
+
+    static EncryptedRecord getWrappedSecret(EncryptedRecord record, String wrapScheme) {
+        byte[] ciphertext = Arrays.copyOfRange(record.ciphertext, FILE_ID_SIZE_BYTES, record.ciphertext.length);
+        return new EncryptedRecord(wrapScheme, record.iv, record.tagLength, ciphertext);
+    }
+
+    static String toHex(byte[] fileId) {
+        StringBuilder builder = new StringBuilder(fileId.length * 2);
+        for (byte b : fileId) {
+            builder.append(String.format("%02x", b));
+        }
+        return builder.toString();
+    }
+
+    private File getFile(byte[] fileId) {
+        return new File(mDirectory, toHex(fileId) + FILE_SUFFIX);
+    }
+
+    private static int segmentCount(int plaintextLength) {
+        // An empty value still gets one (empty, final) segment so truncation is detectable
+        return Math.max(1, (plaintextLength + SEGMENT_SIZE_BYTES - 1) / SEGMENT_SIZE_BYTES);
+    }
+
+    private static GCMParameterSpec segmentSpec(byte[] noncePrefix, int index, boolean last) {
+        byte[] nonce = ByteBuffer.allocate(NONCE_SIZE_BYTES)
+                .put(noncePrefix)
+                .putInt(index)
+                .put((byte) (last ? 1 : 0))
+                .array();
+        return new GCMParameterSpec(GCM_AUTHENTICATION_TAG_LENGTH_BITS, nonce);
+    }
+}
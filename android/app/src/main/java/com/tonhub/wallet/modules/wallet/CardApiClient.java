@@ -0,0 +1,65 @@
+package com.tonhub.wallet.modules.wallet;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * The one HTTP client for the card API. Sharing it keeps the connection pool, dispatcher threads
+ * and TLS sessions alive between requests, so an OPC fetch reuses a warm HTTP/2 connection
+ * instead of paying for DNS, TCP and TLS every time.
+ */
+public class CardApiClient {
+    private static final String PROD_URL = "https://card-prod.whales-api.com";
+    private static final String STAGING_URL = "https://card-staging.whales-api.com";
+
+    private static volatile OkHttpClient client;
+
+    public static OkHttpClient get() {
+        if (client == null) {
+            synchronized (CardApiClient.class) {
+                if (client == null) {
+                    client = new OkHttpClient.Builder()
+                            .connectionPool(new ConnectionPool(2, 5, TimeUnit.MINUTES))
+                            .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                            .connectTimeout(15, TimeUnit.SECONDS)
+                            .readTimeout(30, TimeUnit.SECONDS)
+                            .build();
+                }
+            }
+        }
+        return client;
+    }
+
+    public static String getBaseUrl(boolean isTestnet) {
+        return isTestnet ? STAGING_URL : PROD_URL;
+    }
+
+    /**
+     * Opens a connection to the card API ahead of a request, e.g. when the card screen opens. The
+     * response doesn't matter, only the pooled connection it leaves behind.
+     */
+    public static void prewarm(boolean isTestnet) {
+        Request request = new Request.Builder().url(getBaseUrl(isTestnet)).head().build();
+        get().newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(@NonNull Call call, @NonNull IOException e) {
+            }
+
+            @Override
+            public void onResponse(@NonNull Call call, @NonNull Response response) {
+                response.close();
+            }
+        });
+    }
+}
@@ -0,0 +1,83 @@
+package com.tonhub.wallet.modules.wallet;
+
+import android.os.SystemClock;
+
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * OPCs fetched ahead of provisioning, keyed by card, holders token, wallet id and network, so a
+ * token that changed since the prefetch misses instead of pushing an OPC fetched for the old one.
+ * An entry is valid for a short time and is handed out once, a failed fetch is dropped right away.
+ */
+public class OPCCache {
+    static final long TTL_MS = 60_000;
+
+    private static class Entry {
+        final CompletableFuture<String> future;
+        final long createdAt;
+
+        Entry(CompletableFuture<String> future, long createdAt) {
+            this.future = future;
+            this.createdAt = createdAt;
+        }
+
+        boolean isUsable(long now) {
+            return now - createdAt < TTL_MS && !future.isCompletedExceptionally();
+        }
+    }
+
+    private final HashMap<String, Entry> entries = new HashMap<>();
+
+    static String getKey(String cardId, String token, String walletId, boolean isTestnet) {
+        return (isTestnet ? "testnet:" : "mainnet:") + walletId + ":" + cardId + ":" + token;
+    }
+
+    /**
+     * Caches the future unless a usable entry for the key already exists. Returns false if it
+     * didn't, so the caller can skip the fetch.
+     */
+    public synchronized boolean putIfAbsent(String key, CompletableFuture<String> future) {
+        long now = SystemClock.elapsedRealtime();
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (!iterator.next().isUsable(now)) {
+                iterator.remove();
+            }
+        }
+        if (entries.containsKey(key)) {
+            return false;
+        }
+
+        Entry entry = new Entry(future, now);
+        entries.put(key, entry);
+        future.whenComplete((res, e) -> {
+            if (e != null) {
+                synchronized (this) {
+                    entries.remove(key, entry);
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Removes and returns the OPC (possibly still being fetched) for the key, or null if there is
+     * none or it expired
+     */
+    @Nullable
+    public synchronized CompletableFuture<String> take(String key) {
+        Entry entry = entries.remove(key);
+        if (entry == null || !entry.isUsable(SystemClock.elapsedRealtime())) {
+            return null;
+        }
+        return entry.future;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+}
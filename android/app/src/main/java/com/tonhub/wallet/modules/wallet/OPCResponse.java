@@ -0,0 +1,78 @@
+package com.tonhub.wallet.modules.wallet;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Decoded response of the provisioning data endpoint: either the encryptedData OPC or an error
+ * message. The body is streamed and decoding stops at the first encryptedData or error, without
+ * building a JSON tree of the whole response.
+ */
+public class OPCResponse {
+    @Nullable
+    final String encryptedData;
+    @Nullable
+    final String error;
+
+    private OPCResponse(@Nullable String encryptedData, @Nullable String error) {
+        this.encryptedData = encryptedData;
+        this.error = error;
+    }
+
+    private static OPCResponse failure(String error) {
+        return new OPCResponse(null, error);
+    }
+
+    /**
+     * Never throws, a malformed or truncated body decodes to an error
+     */
+    public static OPCResponse decode(Reader body) {
+        try (JsonReader reader = new JsonReader(body)) {
+            return decode(reader);
+        } catch (IOException | RuntimeException e) {
+            // MalformedJsonException, or IllegalStateException for an unexpected token
+            return failure("Malformed response: " + e.getMessage());
+        }
+    }
+
+    private static OPCResponse decode(JsonReader reader) throws IOException {
+        boolean hasData = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("error") && reader.peek() != JsonToken.NULL) {
+                return failure(readMessage(reader));
+            } else if (name.equals("data") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                hasData = true;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (reader.nextName().equals("encryptedData") && reader.peek() == JsonToken.STRING) {
+                        return new OPCResponse(reader.nextString(), null);
+                    }
+                    reader.skipValue();
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return failure(hasData ? "Missing encryptedData" : "Missing data");
+    }
+
+    private static String readMessage(JsonReader reader) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.STRING || token == JsonToken.NUMBER) {
+            return reader.nextString();
+        }
+        reader.skipValue();
+        return "Failed to fetch OPC";
+    }
+}
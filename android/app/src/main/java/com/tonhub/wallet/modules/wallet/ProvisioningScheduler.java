@@ -0,0 +1,184 @@
+package com.tonhub.wallet.modules.wallet;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * Runs provisioning requests one at a time from a bounded FIFO queue. A request is finished once
+ * its completableFuture completes, whoever completes it, and the next one starts right after. A
+ * request for a card that is already queued or running shares that request's result. A running
+ * request that gets no result within the timeout fails, so a lost activity result can't hold up
+ * the queue.
+ */
+public class ProvisioningScheduler {
+    static final int DEFAULT_CAPACITY = 8;
+    // Covers the wallet UI, where the user may still have to accept terms or verify the card
+    static final long DEFAULT_TIMEOUT_MS = 10 * 60 * 1000;
+
+    private final Consumer<ProvisionRequest> runner;
+    private final int capacity;
+    private final long timeoutMs;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final ArrayDeque<ProvisionRequest> queue = new ArrayDeque<>();
+
+    @Nullable
+    private ProvisionRequest current;
+
+    private long enqueued = 0;
+    private long deduplicated = 0;
+    private long rejected = 0;
+    private long cancelled = 0;
+    private long timedOut = 0;
+    private int maxQueueDepth = 0;
+
+    public ProvisioningScheduler(Consumer<ProvisionRequest> runner, int capacity, long timeoutMs) {
+        this.runner = runner;
+        this.capacity = capacity;
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * Queues the request and returns the future its result arrives on, which is the existing
+     * request's future if the same card is already being provisioned
+     */
+    public CompletableFuture<Boolean> enqueue(ProvisionRequest req) {
+        synchronized (this) {
+            ProvisionRequest existing = find(req);
+            if (existing != null) {
+                deduplicated++;
+                return existing.completableFuture;
+            }
+            if (queue.size() >= capacity) {
+                rejected++;
+                req.completableFuture.completeExceptionally(new Exception("Too many provisioning requests in progress"));
+                return req.completableFuture;
+            }
+
+            enqueued++;
+            queue.addLast(req);
+            maxQueueDepth = Math.max(maxQueueDepth, queue.size());
+        }
+
+        req.completableFuture.whenComplete((res, e) -> onFinished(req));
+        runNext();
+        return req.completableFuture;
+    }
+
+    /**
+     * Cancels the queued or running request for the card. A running request fails right away and
+     * the next one starts, a result the wallet UI still delivers for it is ignored.
+     */
+    public boolean cancel(String cardId) {
+        ProvisionRequest cancelledRequest = null;
+        synchronized (this) {
+            if (current != null && current.cardId.equals(cardId)) {
+                cancelledRequest = current;
+            }
+            Iterator<ProvisionRequest> iterator = queue.iterator();
+            while (cancelledRequest == null && iterator.hasNext()) {
+                ProvisionRequest req = iterator.next();
+                if (req.cardId.equals(cardId)) {
+                    iterator.remove();
+                    cancelledRequest = req;
+                }
+            }
+        }
+
+        if (cancelledRequest == null
+                || !cancelledRequest.completableFuture.completeExceptionally(new CancellationException("Provisioning cancelled"))) {
+            return false;
+        }
+        synchronized (this) {
+            cancelled++;
+        }
+        return true;
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(queue.size(), current != null, maxQueueDepth, enqueued, deduplicated, rejected, cancelled,
+                timedOut);
+    }
+
+    @Nullable
+    private ProvisionRequest find(ProvisionRequest req) {
+        if (current != null && isSameCard(current, req)) {
+            return current;
+        }
+        for (ProvisionRequest queued : queue) {
+            if (isSameCard(queued, req)) {
+                return queued;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isSameCard(ProvisionRequest a, ProvisionRequest b) {
+        return a.isTestnet == b.isTestnet && a.cardId.equals(b.cardId);
+    }
+
+    private void onFinished(ProvisionRequest req) {
+        synchronized (this) {
+            if (current != req) {
+                // Failed or was cancelled while still queued
+                queue.remove(req);
+                return;
+            }
+            current = null;
+        }
+        runNext();
+    }
+
+    private void runNext() {
+        ProvisionRequest next;
+        synchronized (this) {
+            if (current != null || queue.isEmpty()) {
+                return;
+            }
+            next = queue.pollFirst();
+            current = next;
+        }
+
+        Runnable timeout = () -> {
+            if (next.completableFuture.completeExceptionally(new TimeoutException("Provisioning timed out"))) {
+                synchronized (this) {
+                    timedOut++;
+                }
+            }
+        };
+        handler.postDelayed(timeout, timeoutMs);
+        next.completableFuture.whenComplete((res, e) -> handler.removeCallbacks(timeout));
+        runner.accept(next);
+    }
+
+    public static class Stats {
+        final int queueDepth;
+        final boolean running;
+        final int maxQueueDepth;
+        final long enqueued;
+        final long deduplicated;
+        final long rejected;
+        final long cancelled;
+        final long timedOut;
+
+        Stats(int queueDepth, boolean running, int maxQueueDepth, long enqueued, long deduplicated, long rejected,
+                long cancelled, long timedOut) {
+            this.queueDepth = queueDepth;
+            this.running = running;
+            this.maxQueueDepth = maxQueueDepth;
+            this.enqueued = enqueued;
+            this.deduplicated = deduplicated;
+            this.rejected = rejected;
+            this.cancelled = cancelled;
+            this.timedOut = timedOut;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.tonhub.wallet.modules.wallet;
+
+import com.google.android.gms.tapandpay.TapAndPay;
+import com.google.android.gms.tapandpay.issuer.TokenInfo;
+
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * One listTokens snapshot, indexed by fpan last four and issuer token id so any number of cards
+ * can be looked up without going back to Play Services.
+ */
+public class TokenIndex {
+    private final HashMap<String, TokenStatus> byFpanLastFour = new HashMap<>();
+    private final HashMap<String, TokenStatus> byIssuerTokenId = new HashMap<>();
+
+    public TokenIndex(List<TokenInfo> tokens) {
+        for (TokenInfo tokenInfo : tokens) {
+            TokenStatus status = new TokenStatus(tokenInfo.getTokenState(), tokenInfo.getIssuerTokenId());
+            // Keep the first token for a card, as the linear scan this replaces did
+            if (tokenInfo.getFpanLastFour() != null) {
+                byFpanLastFour.putIfAbsent(tokenInfo.getFpanLastFour(), status);
+            }
+            if (tokenInfo.getIssuerTokenId() != null) {
+                byIssuerTokenId.putIfAbsent(tokenInfo.getIssuerTokenId(), status);
+            }
+        }
+    }
+
+    /**
+     * Status of the token for a card, looked up by fpan last four first and then by issuer token
+     * id. Status is -1 if the card has no token.
+     */
+    public TokenStatus getStatus(String identifier) {
+        TokenStatus status = byFpanLastFour.get(identifier);
+        if (status == null) {
+            status = byIssuerTokenId.get(identifier);
+        }
+        return status != null ? status : new TokenStatus(-1, null);
+    }
+
+    /**
+     * Whether the card has a token that is ready to use, not waiting on verification
+     */
+    public boolean isAdded(String identifier) {
+        int status = getStatus(identifier).status;
+        return status != -1
+                && status != TapAndPay.TOKEN_STATE_NEEDS_IDENTITY_VERIFICATION
+                && status != TapAndPay.TOKEN_STATE_FELICA_PENDING_PROVISIONING;
+    }
+}
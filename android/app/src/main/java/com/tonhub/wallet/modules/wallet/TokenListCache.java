@@ -0,0 +1,75 @@
+package com.tonhub.wallet.modules.wallet;
+
+import android.os.SystemClock;
+
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.tapandpay.issuer.TokenInfo;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the last listTokens result for a short time. Concurrent callers share the load that is
+ * in flight, and a failed load is never cached. Invalidated whenever the tokens may have changed.
+ */
+public class TokenListCache {
+    static final long DEFAULT_TTL_MS = 30_000;
+
+    private final Supplier<CompletableFuture<List<TokenInfo>>> loader;
+    private volatile long ttlMs = DEFAULT_TTL_MS;
+
+    @Nullable
+    private CompletableFuture<List<TokenInfo>> current;
+    private long loadedAt;
+
+    final AtomicLong hits = new AtomicLong();
+    final AtomicLong misses = new AtomicLong();
+
+    public TokenListCache(Supplier<CompletableFuture<List<TokenInfo>>> loader) {
+        this.loader = loader;
+    }
+
+    public CompletableFuture<List<TokenInfo>> get() {
+        CompletableFuture<List<TokenInfo>> load;
+        synchronized (this) {
+            if (current != null && (!current.isDone() || SystemClock.elapsedRealtime() - loadedAt < ttlMs)) {
+                hits.incrementAndGet();
+                return current;
+            }
+
+            misses.incrementAndGet();
+            load = loader.get();
+            current = load;
+        }
+
+        load.whenComplete((res, e) -> {
+            synchronized (this) {
+                // Ignore a load that was invalidated while in flight
+                if (current != load) {
+                    return;
+                }
+                if (e != null) {
+                    current = null;
+                } else {
+                    loadedAt = SystemClock.elapsedRealtime();
+                }
+            }
+        });
+        return load;
+    }
+
+    public synchronized void invalidate() {
+        current = null;
+    }
+
+    /**
+     * Zero disables caching, only concurrent callers still share a load
+     */
+    public void setTtl(long ttlMs) {
+        this.ttlMs = ttlMs;
+        invalidate();
+    }
+}
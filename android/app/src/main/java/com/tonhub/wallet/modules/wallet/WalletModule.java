@@ -5,12 +5,9 @@ import static com.google.android.gms.tapandpay.TapAndPayStatusCodes.TAP_AND_PAY_
 import android.app.Activity;
 import android.app.PendingIntent;
 import android.content.ComponentName;
-import android.content.Context;
 import android.content.Intent;
-import android.nfc.NfcAdapter;
-import android.nfc.NfcManager;
 import android.nfc.cardemulation.CardEmulation;
-import android.os.Build;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.View;
 import android.widget.TextView;
@@ -26,19 +23,18 @@ import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
 import com.facebook.react.bridge.ReadableArray;
-import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
 import com.google.android.gms.common.GoogleApiAvailability;
 import com.google.android.gms.common.api.ApiException;
 import com.google.android.gms.tapandpay.TapAndPay;
 import com.google.android.gms.tapandpay.TapAndPayClient;
-import com.google.android.gms.tapandpay.issuer.IsTokenizedRequest;
 import com.google.android.gms.tapandpay.issuer.PushTokenizeRequest;
 import com.google.android.gms.tapandpay.issuer.TokenInfo;
 import com.google.android.gms.tapandpay.issuer.ViewTokenRequest;
 import com.google.android.gms.tasks.OnCompleteListener;
 import com.google.android.gms.tasks.Task;
+import com.tonhub.wallet.modules.capabilities.DeviceCapabilities;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -48,7 +44,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import okhttp3.Call;
 import okhttp3.Callback;
@@ -64,22 +60,55 @@ public class WalletModule extends ReactContextBaseJavaModule implements Activity
     static final int REQUEST_CODE_PUSH_TOKENIZE = 3;
     private static final int SET_DEFAULT_PAYMENTS_REQUEST_CODE = 5;
     private static final int REQUEST_CREATE_WALLET = 4;
+    private static final String TAG = "WalletModule";
     public static final String GOOGLE_PAY_TP_HCE_SERVICE = "com.google.android.gms.tapandpay.hce.service.TpHceService";
 
     private final TapAndPayClient tapAndPayClient;
+    private final DeviceCapabilities capabilities;
+    private final TokenListCache tokenCache;
+    private final OPCCache opcCache = new OPCCache();
+    private final TapAndPay.DataChangedListener dataChangedListener;
 
-    @Nullable
-    private ProvisionRequest currentProvisioning;
+    // The request whose pushTokenize activity is showing, completed by handleTokenizationResult
+    private final AtomicReference<ProvisionRequest> tokenizingRequest = new AtomicReference<>();
+    private final ProvisioningScheduler provisioningScheduler = new ProvisioningScheduler(
+            this::pushProvisionWithTokeStatusCheck, ProvisioningScheduler.DEFAULT_CAPACITY,
+            ProvisioningScheduler.DEFAULT_TIMEOUT_MS);
 
     @Nullable
     private CompletableFuture<Boolean> isDefaultWalletFuture;
     @Nullable
     private CompletableFuture<Boolean> walletAddFuture;
 
+    // Memoized for the session, see getActiveWalletId and getStableHardwareId
+    @Nullable
+    private CompletableFuture<String> activeWalletIdFuture;
+    @Nullable
+    private CompletableFuture<String> stableHardwareIdFuture;
+
+    // Time from a provisioning request to having the wallet id and hardware id, -1 until measured
+    private volatile long lastIdentityWaitMs = -1;
+    private volatile boolean lastIdentityPrefetched = false;
+
     public WalletModule(ReactApplicationContext reactContext) {
         super(reactContext);
         tapAndPayClient = TapAndPay.getClient(reactContext);
+        capabilities = DeviceCapabilities.get(reactContext);
+        tokenCache = new TokenListCache(this::loadTokenInfos);
+        dataChangedListener = tokenCache::invalidate;
+        tapAndPayClient.registerDataChangedListener(dataChangedListener);
         reactContext.addActivityEventListener(this);
+
+        // Prefetch the wallet identity, so adding a card doesn't wait for two Play Services calls
+        getActiveWalletId();
+        getStableHardwareId();
+    }
+
+    @Override
+    public void invalidate() {
+        tapAndPayClient.removeDataChangedListener(dataChangedListener);
+        getReactApplicationContext().removeActivityEventListener(this);
+        super.invalidate();
     }
 
     @NonNull
@@ -88,7 +117,7 @@ public class WalletModule extends ReactContextBaseJavaModule implements Activity
         return "WalletModule";
     }
 
-    private CompletableFuture<Boolean> createWallet() {
+    private synchronized CompletableFuture<Boolean> createWallet() {
         if (walletAddFuture != null) {
             return walletAddFuture;
         }
@@ -103,29 +132,29 @@ public class WalletModule extends ReactContextBaseJavaModule implements Activity
         return walletAddFuture;
     }
 
-    private CompletableFuture<WritableArray> getTokenInfoList() {
-        CompletableFuture<WritableArray> future = new CompletableFuture<>();
-        tapAndPayClient.listTokens().addOnCompleteListener(task -> {
-
-            if (task.isSuccessful()) {
-                List<TokenInfo> tokenInfoList = task.getResult();
-                WritableArray tokenArray = Arguments.createArray();
-
-                for (TokenInfo tokenInfo : tokenInfoList) {
-                    WritableMap tokenMap = Arguments.createMap();
-
-                    tokenMap.putString("issuerTokenId", tokenInfo.getIssuerTokenId());
-                    tokenMap.putString("dpanLastFour", tokenInfo.getDpanLastFour());
-                    tokenMap.putString("fpanLastFour", tokenInfo.getFpanLastFour());
-                    tokenMap.putInt("tokenState", tokenInfo.getTokenState());
-                    tokenMap.putString("issuerName", tokenInfo.getIssuerName());
-                    tokenMap.putString("portfolioName", tokenInfo.getPortfolioName());
-                    tokenMap.putBoolean("isDefaultToken", tokenInfo.getIsDefaultToken());
+    /**
+     * Fails the pending create wallet and forgets it, so the next provisioning asks again instead
+     * of waiting for a CREATE_WALLET result that may never come
+     */
+    private void dropWalletAddFuture(CompletableFuture<Boolean> future, Throwable e) {
+        synchronized (this) {
+            if (walletAddFuture != future) {
+                return;
+            }
+            walletAddFuture = null;
+        }
+        future.completeExceptionally(e);
+    }
 
-                    tokenArray.pushMap(tokenMap);
-                }
+    private CompletableFuture<List<TokenInfo>> listTokenInfos() {
+        return tokenCache.get();
+    }
 
-                future.complete(tokenArray);
+    private CompletableFuture<List<TokenInfo>> loadTokenInfos() {
+        CompletableFuture<List<TokenInfo>> future = new CompletableFuture<>();
+        tapAndPayClient.listTokens().addOnCompleteListener(task -> {
+            if (task.isSuccessful()) {
+                future.complete(task.getResult());
             } else {
                 ApiException apiException = (ApiException) task.getException();
                 future.completeExceptionally(apiException);
@@ -135,29 +164,34 @@ public class WalletModule extends ReactContextBaseJavaModule implements Activity
         return future;
     }
 
-    private CompletableFuture<TokenStatus> getTokenStatusByFpanLastFour(String fpanLastFour) {
-        CompletableFuture<TokenStatus> future = new CompletableFuture<>();
+    private CompletableFuture<WritableArray> getTokenInfoList() {
+        return listTokenInfos().thenApply(tokenInfoList -> {
+            WritableArray tokenArray = Arguments.createArray();
 
-        getTokenInfoList().thenAccept((res) -> {
-            for (int i = 0; i < res.size(); i++) {
-                ReadableMap token = res.getMap(i);
-                String fpanLastFourToken = token.getString("fpanLastFour");
-                if (fpanLastFourToken != null && fpanLastFourToken.equals(fpanLastFour)) {
-                    int tokenState = token.getInt("tokenState");
-                    String issuerTokenId = token.getString("issuerTokenId");
+            for (TokenInfo tokenInfo : tokenInfoList) {
+                WritableMap tokenMap = Arguments.createMap();
 
-                    future.complete(new TokenStatus(tokenState, issuerTokenId));
-                    return;
-                }
+                tokenMap.putString("issuerTokenId", tokenInfo.getIssuerTokenId());
+                tokenMap.putString("dpanLastFour", tokenInfo.getDpanLastFour());
+                tokenMap.putString("fpanLastFour", tokenInfo.getFpanLastFour());
+                tokenMap.putInt("tokenState", tokenInfo.getTokenState());
+                tokenMap.putString("issuerName", tokenInfo.getIssuerName());
+                tokenMap.putString("portfolioName", tokenInfo.getPortfolioName());
+                tokenMap.putBoolean("isDefaultToken", tokenInfo.getIsDefaultToken());
+
+                tokenArray.pushMap(tokenMap);
             }
 
-            future.complete(new TokenStatus(-1, null));
-        }).exceptionally(e -> {
-            future.completeExceptionally(e);
-            return null;
+            return tokenArray;
         });
+    }
 
-        return future;
+    private CompletableFuture<TokenIndex> getTokenIndex() {
+        return listTokenInfos().thenApply(TokenIndex::new);
+    }
+
+    private CompletableFuture<TokenStatus> getTokenStatusByFpanLastFour(String fpanLastFour) {
+        return getTokenIndex().thenApply(index -> index.getStatus(fpanLastFour));
     }
 
     @ReactMethod
@@ -169,39 +203,26 @@ public class WalletModule extends ReactContextBaseJavaModule implements Activity
         });
     }
 
-    private CompletableFuture<Boolean> isCardAddedFuture(String primaryAccountNumberSuffix) {
-        WalletModule module = this;
-
-        IsTokenizedRequest request = new IsTokenizedRequest.Builder().setNetwork(TapAndPay.CARD_NETWORK_VISA)
-                .setTokenServiceProvider(TapAndPay.TOKEN_PROVIDER_VISA).setIssuerName("Holders")
-                .setIdentifier(primaryAccountNumberSuffix).build();
-
-        CompletableFuture<Boolean> future = new CompletableFuture<>();
+    /**
+     * Cached token lists are reused for ttlSeconds, 0 disables the cache
+     */
+    @ReactMethod
+    @SuppressWarnings("unused")
+    private void setTokenCacheTtl(double ttlSeconds) {
+        tokenCache.setTtl((long) (ttlSeconds * 1000));
+    }
 
-        tapAndPayClient.isTokenized(request).addOnCompleteListener(task -> {
-            if (task.isSuccessful()) {
-                module.getTokenStatusByFpanLastFour(primaryAccountNumberSuffix).thenAccept((res) -> {
-                    if (res.status == -1) {
-                        future.complete(false);
-                        return;
-                    }
-                    if (res.status != TapAndPay.TOKEN_STATE_NEEDS_IDENTITY_VERIFICATION
-                            && res.status != TapAndPay.TOKEN_STATE_FELICA_PENDING_PROVISIONING) {
-                        future.complete(true);
-                    } else {
-                        future.complete(false);
-                    }
-                }).exceptionally(e -> {
-                    future.completeExceptionally(e);
-                    return null;
-                });
-            } else {
-                ApiException apiException = (ApiException) task.getException();
-                future.completeExceptionally(apiException);
-            }
-        });
+    @ReactMethod
+    @SuppressWarnings("unused")
+    private void getTokenCacheStats(Promise promise) {
+        WritableMap stats = Arguments.createMap();
+        stats.putDouble("hits", tokenCache.hits.get());
+        stats.putDouble("misses", tokenCache.misses.get());
+        promise.resolve(stats);
+    }
 
-        return future;
+    private CompletableFuture<Boolean> isCardAddedFuture(String primaryAccountNumberSuffix) {
+        return getTokenIndex().thenApply(index -> index.isAdded(primaryAccountNumberSuffix));
     }
 
     @ReactMethod
@@ -213,102 +234,59 @@ public class WalletModule extends ReactContextBaseJavaModule implements Activity
         });
     }
 
+    /**
+     * Resolves with {cardId: isAdded} for every card, all answered from a single listTokens call
+     */
     @ReactMethod
     @SuppressWarnings("unused")
     private void checkIfCardsAreAdded(ReadableArray cardIds, Promise promise) {
         if (cardIds.size() == 0) {
-            promise.resolve(new Object());
+            promise.resolve(Arguments.createMap());
             return;
         }
 
-        int batchSize = 10; // Process 10 cards at a time
-        int totalCards = cardIds.size();
-        List<CompletableFuture<Void>> batchFutures = new ArrayList<>();
-
-        for (int batchStart = 0; batchStart < totalCards; batchStart += batchSize) {
-            int batchEnd = Math.min(batchStart + batchSize, totalCards);
-
-            int finalBatchStart = batchStart;
-            CompletableFuture<Void> batchFuture = CompletableFuture.supplyAsync(() -> {
-                List<CompletableFuture<Boolean>> cardFutures = new ArrayList<>();
-
-                for (int i = finalBatchStart; i < batchEnd; i++) {
-                    String cardId = cardIds.getString(i);
-                    cardFutures.add(isCardAddedFuture(cardId));
+        getTokenIndex().thenAccept(index -> {
+            WritableMap result = Arguments.createMap();
+            for (int i = 0; i < cardIds.size(); i++) {
+                String cardId = cardIds.getString(i);
+                if (cardId != null) {
+                    result.putBoolean(cardId, index.isAdded(cardId));
                 }
-
-                // Wait for all cards in this batch to complete
-                CompletableFuture<Void> batchCompletion = null;
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
-                    batchCompletion = CompletableFuture.allOf(
-                            cardFutures.toArray(new CompletableFuture[0])).orTimeout(30, TimeUnit.SECONDS);
-                } else {
-                    batchCompletion = CompletableFuture.allOf(cardFutures.toArray(new CompletableFuture[0]));
-                }
-
-                try {
-                    batchCompletion.join();
-                } catch (Exception e) {
-                    throw new RuntimeException("Batch processing failed", e);
-                }
-
-                return null;
-            });
-
-            batchFutures.add(batchFuture);
-        }
-
-        // Process batches sequentially
-        CompletableFuture<Void> sequentialProcessing = null;
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
-            sequentialProcessing = batchFutures.stream()
-                    .reduce(CompletableFuture.completedFuture(null),
-                            (previousBatch, currentBatch) -> previousBatch.thenCompose(v -> currentBatch))
-                    .orTimeout(120, TimeUnit.SECONDS);
-        } else {
-            sequentialProcessing = CompletableFuture.allOf(batchFutures.toArray(new CompletableFuture[0]));
-        }
-
-        sequentialProcessing.thenAccept((res) -> {
-            promise.resolve(cardIds);
+            }
+            promise.resolve(result);
         }).exceptionally(e -> {
             promise.reject(e);
             return null;
         });
     }
 
-    private Boolean isDefaultWallet() {
-        NfcManager nfcManager = (NfcManager) getReactApplicationContext().getSystemService(Context.NFC_SERVICE);
-        NfcAdapter adapter = nfcManager.getDefaultAdapter();
-
-        if (adapter == null) {
-            return false;
-        }
-
-        CardEmulation emulation = CardEmulation.getInstance(adapter);
-
-        return emulation.isDefaultServiceForCategory(
-                new ComponentName(GoogleApiAvailability.GOOGLE_PLAY_SERVICES_PACKAGE, GOOGLE_PAY_TP_HCE_SERVICE),
-                CardEmulation.CATEGORY_PAYMENT);
+    /**
+     * Waits for a capabilities refresh that is still pending, e.g. right after returning from the
+     * settings or from the default wallet prompt
+     */
+    private CompletableFuture<Boolean> isDefaultWallet() {
+        return capabilities.getFreshSnapshot().thenApply(snapshot -> snapshot.isDefaultWallet);
     }
 
     @ReactMethod
     @SuppressWarnings("unused")
     private void getIsDefaultWallet(Promise promise) {
-        Boolean isDefault = isDefaultWallet();
-        promise.resolve(isDefault);
+        isDefaultWallet().thenAccept(promise::resolve);
     }
 
     @ReactMethod
     @SuppressWarnings("unused")
     private void setDefaultWallet(Promise promise) {
-        Boolean isDefault = isDefaultWallet();
-
-        if (isDefault) {
-            promise.resolve(true);
-            return;
-        }
+        isDefaultWallet().thenAccept(isDefault -> {
+            if (isDefault) {
+                promise.resolve(true);
+            } else {
+                requestDefaultWallet(promise);
+            }
+        });
+    }
 
+    private synchronized void requestDefaultWallet(Promise promise) {
         if (isDefaultWalletFuture != null) {
             promise.reject(new Exception("Another set default wallet is in progress"));
             return;
@@ -328,7 +306,44 @@ public class WalletModule extends ReactContextBaseJavaModule implements Activity
         });
     }
 
-    private CompletableFuture<String> getActiveWalletId() {
+    /**
+     * The active wallet id, fetched once and shared until the wallet identity is invalidated. A
+     * failed fetch (e.g. no wallet yet) is retried by the next caller.
+     */
+    private synchronized CompletableFuture<String> getActiveWalletId() {
+        if (activeWalletIdFuture == null || activeWalletIdFuture.isCompletedExceptionally()) {
+            activeWalletIdFuture = loadActiveWalletId();
+        }
+        return activeWalletIdFuture;
+    }
+
+    private synchronized CompletableFuture<String> getStableHardwareId() {
+        if (stableHardwareIdFuture == null || stableHardwareIdFuture.isCompletedExceptionally()) {
+            stableHardwareIdFuture = loadStableHardwareId();
+        }
+        return stableHardwareIdFuture;
+    }
+
+    private synchronized boolean isWalletIdentityReady() {
+        return activeWalletIdFuture != null && activeWalletIdFuture.isDone()
+                && !activeWalletIdFuture.isCompletedExceptionally()
+                && stableHardwareIdFuture != null && stableHardwareIdFuture.isDone()
+                && !stableHardwareIdFuture.isCompletedExceptionally();
+    }
+
+    /**
+     * Drops the memoized wallet identity and fetches it again, e.g. after a wallet was created
+     */
+    @ReactMethod
+    @SuppressWarnings("unused")
+    public synchronized void invalidateWalletIdentity() {
+        activeWalletIdFuture = null;
+        stableHardwareIdFuture = null;
+        getActiveWalletId();
+        getStableHardwareId();
+    }
+
+    private CompletableFuture<String> loadActiveWalletId() {
         CompletableFuture<String> future = new CompletableFuture<>();
         tapAndPayClient.getActiveWalletId().addOnCompleteListener(task -> {
             if (task.isSuccessful()) {
@@ -341,7 +356,7 @@ public class WalletModule extends ReactContextBaseJavaModule implements Activity
         return future;
     }
 
-    private CompletableFuture<String> getStableHardwareId() {
+    private CompletableFuture<String> loadStableHardwareId() {
         CompletableFuture<String> future = new CompletableFuture<>();
         tapAndPayClient.getStableHardwareId().addOnCompleteListener(task -> {
             if (task.isSuccessful()) {
@@ -353,17 +368,29 @@ public class WalletModule extends ReactContextBaseJavaModule implements Activity
         return future;
     }
 
+    private void recordIdentityWait(long start, boolean prefetched) {
+        lastIdentityWaitMs = SystemClock.elapsedRealtime() - start;
+        lastIdentityPrefetched = prefetched;
+    }
+
+    /**
+     * Resolves with how long the last provisioning waited for the wallet identity, and whether
+     * it was already prefetched at that point
+     */
     @ReactMethod
     @SuppressWarnings("unused")
-    private void isEnabled(Promise promise) {
-        CompletableFuture<String> stableHardwareIdFuture = this.getStableHardwareId();
+    private void getProvisioningTimings(Promise promise) {
+        WritableMap timings = Arguments.createMap();
+        timings.putDouble("identityWaitMs", lastIdentityWaitMs);
+        timings.putBoolean("identityPrefetched", lastIdentityPrefetched);
+        promise.resolve(timings);
+    }
 
-        stableHardwareIdFuture.thenAccept(s -> {
-            promise.resolve(true);
-        }).exceptionally(e -> {
-            promise.resolve(false);
-            return null;
-        });
+    @ReactMethod
+    @SuppressWarnings("unused")
+    private void isEnabled(Promise promise) {
+        // Checked once per process by DeviceCapabilities instead of a Play Services call each time
+        capabilities.isTapAndPayAvailable().thenAccept(promise::resolve);
     }
 
     @ReactMethod
@@ -382,9 +409,9 @@ public class WalletModule extends ReactContextBaseJavaModule implements Activity
     }
 
     private void fetchOPC(OPCRequest req) {
-        String url = req.isTestnet ? "https://card-staging.whales-api.com" : "https://card-prod.whales-api.com";
+        String url = CardApiClient.getBaseUrl(req.isTestnet);
 
-        OkHttpClient client = new OkHttpClient();
+        OkHttpClient client = CardApiClient.get();
 
         JSONObject body = new JSONObject();
         JSONObject params = new JSONObject();
@@ -398,6 +425,7 @@ public class WalletModule extends ReactContextBaseJavaModule implements Activity
             body.put("id", req.cardId);
         } catch (JSONException e) {
             req.future.completeExceptionally(e);
+            return;
         }
 
         RequestBody requestBody = RequestBody.create(body.toString(), MediaType.parse("application/json"));
@@ -413,47 +441,77 @@ public class WalletModule extends ReactContextBaseJavaModule implements Activity
             }
 
             @Override
-            public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
-                if (response.isSuccessful()) {
-                    ResponseBody responseBody = response.body();
-
-                    if (responseBody != null) {
-                        String body = responseBody.string();
-
-                        JSONObject json = null;
-                        try {
-                            json = new JSONObject(body);
-                        } catch (JSONException e) {
-                            req.future.completeExceptionally(e);
-                        }
-                        try {
-                            if (json.has("error")) {
-                                req.future.completeExceptionally(new Exception(json.getString("error")));
-                            } else if (json.has("data")) {
-                                JSONObject data = json.getJSONObject("data");
-
-                                if (data.has("encryptedData")) {
-                                    req.future.complete(data.getString("encryptedData"));
-                                } else {
-                                    req.future.completeExceptionally(new Exception("Missing encryptedData"));
-                                }
-                            } else {
-                                req.future.completeExceptionally(new Exception("Missing data"));
-                            }
-                        } catch (JSONException e) {
-                            req.future.completeExceptionally(e);
-                        }
-                    } else {
+            public void onResponse(@NonNull Call call, @NonNull Response response) {
+                try (ResponseBody responseBody = response.body()) {
+                    if (!response.isSuccessful()) {
+                        req.future.completeExceptionally(new Exception("Failed to fetch OPC"));
+                    } else if (responseBody == null) {
                         req.future.completeExceptionally(new Exception("Empty body"));
+                    } else {
+                        // Streamed from the connection, the rest of the body is never read
+                        OPCResponse opc = OPCResponse.decode(responseBody.charStream());
+                        if (opc.encryptedData != null) {
+                            req.future.complete(opc.encryptedData);
+                        } else {
+                            req.future.completeExceptionally(new Exception(opc.error));
+                        }
                     }
-
-                } else {
-                    req.future.completeExceptionally(new Exception("Failed to fetch OPC"));
                 }
             }
         });
     }
 
+    /**
+     * Completes the request with the OPC prefetched for the card if there is one, otherwise
+     * fetches it now
+     */
+    private void resolveOPC(OPCRequest req) {
+        CompletableFuture<String> prefetched = opcCache.take(OPCCache.getKey(req.cardId, req.token, req.walletId, req.isTestnet));
+        if (prefetched == null) {
+            fetchOPC(req);
+            return;
+        }
+
+        prefetched.whenComplete((opc, e) -> {
+            if (e == null) {
+                req.future.complete(opc);
+            } else {
+                fetchOPC(req);
+            }
+        });
+    }
+
+    /**
+     * Starts fetching the OPC as soon as a card is opened, so addCardToWallet can go straight to
+     * pushTokenize. Failures are ignored, addCardToWallet then fetches the OPC itself.
+     */
+    @ReactMethod
+    @SuppressWarnings("unused")
+    private void prefetchProvisioningData(String cardId, String token, boolean isTestnet) {
+        getActiveWalletId().thenCombine(getStableHardwareId(), (walletId, stableHardwareId) -> {
+            String key = OPCCache.getKey(cardId, token, walletId, isTestnet);
+            CompletableFuture<String> future = new CompletableFuture<>();
+            if (opcCache.putIfAbsent(key, future)) {
+                fetchOPC(new OPCRequest(cardId, token, walletId, stableHardwareId, isTestnet, future));
+            }
+            return null;
+        }).exceptionally(e -> {
+            // Provisioning fetches the OPC itself when there is nothing prefetched
+            Log.w(TAG, "Could not prefetch provisioning data", e);
+            return null;
+        });
+    }
+
+    /**
+     * Warms up the connection to the card API, so a following addCardToWallet doesn't pay for
+     * the TLS handshake
+     */
+    @ReactMethod
+    @SuppressWarnings("unused")
+    private void prewarmConnection(boolean isTestnet) {
+        CardApiClient.prewarm(isTestnet);
+    }
+
     private CompletableFuture<TokenStatus> shouldOpenInWallet(String fpanLastFour) {
         CompletableFuture<TokenStatus> future = new CompletableFuture<>();
 
@@ -476,13 +534,67 @@ public class WalletModule extends ReactContextBaseJavaModule implements Activity
         return future;
     }
 
-    private void pushProvisionWithTokeStatusCheck(ProvisionRequest req) {
-        if (currentProvisioning != null) {
-            req.completableFuture.completeExceptionally(new Exception("Another provisioning is in progress"));
-            return;
+    /**
+     * Resolves the OPC request for the card once the wallet identity is known. Without an active
+     * wallet (15002) one is created first, and the returned future only settles after that.
+     */
+    private CompletableFuture<OPCRequest> getOPCRequest(ProvisionRequest req, CompletableFuture<String> futureOpc) {
+        long identityStart = SystemClock.elapsedRealtime();
+        boolean identityPrefetched = isWalletIdentityReady();
+
+        // await for both walletId and stableHardwareId
+        return getActiveWalletId().thenCombine(getStableHardwareId(), (walletId, stableHardwareId) -> {
+            recordIdentityWait(identityStart, identityPrefetched);
+            return new OPCRequest(req.cardId, req.token, walletId, stableHardwareId, req.isTestnet, futureOpc);
+        }).<CompletableFuture<OPCRequest>>handle((opcRequest, e) -> {
+            if (e == null) {
+                return CompletableFuture.completedFuture(opcRequest);
+            }
+            if (!isNoActiveWallet(e)) {
+                return failedFuture(e);
+            }
+
+            CompletableFuture<Boolean> walletCreated = createWallet();
+            if (walletCreated == null) {
+                return failedFuture(new Exception("No current activity"));
+            }
+            // The request timed out or was cancelled while the wallet UI was showing
+            req.completableFuture.whenComplete((res, error) -> {
+                if (error != null) {
+                    dropWalletAddFuture(walletCreated, error);
+                }
+            });
+            return walletCreated.thenCompose(created -> {
+                if (!created) {
+                    return failedFuture(new Exception("Failed to create wallet"));
+                }
+                return getActiveWalletId().thenCombine(getStableHardwareId(), (walletId, stableHardwareId) ->
+                        new OPCRequest(req.cardId, req.token, walletId, stableHardwareId, req.isTestnet, futureOpc));
+            });
+        }).thenCompose(opcRequest -> opcRequest);
+    }
+
+    /**
+     * Whether the error is TAP_AND_PAY_NO_ACTIVE_WALLET
+     */
+    private static boolean isNoActiveWallet(Throwable e) {
+        Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+        if (cause instanceof ApiException) {
+            return ((ApiException) cause).getStatusCode() == 15002;
         }
+        String causeMessage = cause != null ? cause.getMessage() : null;
+        return causeMessage != null && causeMessage.contains("15002");
+    }
+
+    private static <T> CompletableFuture<T> failedFuture(Throwable e) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
 
-        this.currentProvisioning = req;
+    private void pushProvisionWithTokeStatusCheck(ProvisionRequest req) {
+        // A late pushTokenize result of a timed out or cancelled request must not complete another one
+        req.completableFuture.whenComplete((res, e) -> tokenizingRequest.compareAndSet(req, null));
 
         this.shouldOpenInWallet(req.lastDigits).thenAccept((tokenStatus) -> {
             if (tokenStatus != null && tokenStatus.issuerToken != null) {
@@ -503,60 +615,13 @@ public class WalletModule extends ReactContextBaseJavaModule implements Activity
                         }
                     }
                 });
-                this.currentProvisioning.completableFuture.complete(false);
-                this.currentProvisioning = null;
+                req.completableFuture.complete(false);
             } else {
                 CompletableFuture<String> futureOpc = new CompletableFuture<>();
-                CompletableFuture<String> walletIdFuture = this.getActiveWalletId();
-                CompletableFuture<String> stableHardwareIdFuture = this.getStableHardwareId();
-
-                // await for both walletId and stableHardwareId
-                walletIdFuture
-                        .thenCombine(stableHardwareIdFuture, (walletId, stableHardwareId) -> new OPCRequest(req.cardId,
-                                req.token, walletId, stableHardwareId, req.isTestnet, futureOpc))
-                        .exceptionally(e -> {
-                            // if exception is TAP_AND_PAY_NO_ACTIVE_WALLET There is no active wallet ->
-                            // create wallet
-                            Throwable cause = e instanceof CompletionException ? e.getCause() : e;
-                            String causeMessage = cause != null ? cause.getMessage() : null;
-
-                            if (cause instanceof ApiException
-                                    || (causeMessage != null && causeMessage.contains("15002"))) {
-                                ApiException apiException = (ApiException) cause;
-                                if (apiException.getStatusCode() == 15002) {
-                                    createWallet().thenAccept(res -> {
-                                        if (res) {
-                                            CompletableFuture<String> walletIdFuture2 = this.getActiveWalletId();
-                                            CompletableFuture<String> stableHardwareIdFuture2 = this
-                                                    .getStableHardwareId();
-
-                                            walletIdFuture2.thenCombine(stableHardwareIdFuture2,
-                                                    (walletId, stableHardwareId) -> {
-                                                        return new OPCRequest(req.cardId, req.token, walletId,
-                                                                stableHardwareId, req.isTestnet, futureOpc);
-                                                    }).exceptionally(e2 -> {
-                                                        req.completableFuture.completeExceptionally(e2);
-                                                        return null;
-                                                    }).thenAccept(this::fetchOPC).exceptionally(e2 -> {
-                                                        req.completableFuture.completeExceptionally(e2);
-                                                        return null;
-                                                    });
-                                        } else {
-                                            req.completableFuture
-                                                    .completeExceptionally(new Exception("Failed to create wallet"));
-                                        }
-                                    });
-                                } else {
-                                    req.completableFuture.completeExceptionally(e);
-                                }
-                            } else {
-                                req.completableFuture.completeExceptionally(e);
-                            }
-                            return null;
-                        }).thenAccept(this::fetchOPC).exceptionally(e -> {
-                            req.completableFuture.completeExceptionally(e);
-                            return null;
-                        });
+                getOPCRequest(req, futureOpc).thenAccept(this::resolveOPC).exceptionally(e -> {
+                    req.completableFuture.completeExceptionally(e);
+                    return null;
+                });
 
                 futureOpc.thenAccept(opc -> {
                     // UserAddress userAddress = UserAddress.newBuilder()
@@ -578,87 +643,33 @@ public class WalletModule extends ReactContextBaseJavaModule implements Activity
 
                     Activity currentActivity = getReactApplicationContext().getCurrentActivity();
 
+                    if (req.completableFuture.isDone()) {
+                        // Timed out or cancelled while fetching the OPC
+                        return;
+                    }
                     if (currentActivity != null) {
+                        tokenizingRequest.set(req);
                         tapAndPayClient.pushTokenize(currentActivity, pushTokenizeRequest, REQUEST_CODE_PUSH_TOKENIZE);
                     } else {
-                        if (this.currentProvisioning != null) {
-                            this.currentProvisioning.completableFuture
-                                    .completeExceptionally(new Exception("No current activity"));
-                            this.currentProvisioning = null;
-                        }
+                        req.completableFuture.completeExceptionally(new Exception("No current activity"));
                     }
                 }).exceptionally(e -> {
-                    if (this.currentProvisioning != null) {
-                        this.currentProvisioning.completableFuture.completeExceptionally(e);
-                        this.currentProvisioning = null;
-                    }
+                    req.completableFuture.completeExceptionally(e);
                     return null;
                 });
             }
         }).exceptionally(e -> {
-            if (this.currentProvisioning != null) {
-                this.currentProvisioning.completableFuture.completeExceptionally(e);
-                this.currentProvisioning = null;
-            }
+            req.completableFuture.completeExceptionally(e);
             return null;
         });
     }
 
     private void pushProvision(ProvisionRequest req) {
-        if (currentProvisioning != null) {
-            req.completableFuture.completeExceptionally(new Exception("Another provisioning is in progress"));
-            return;
-        }
-
-        this.currentProvisioning = req;
-
         CompletableFuture<String> futureOpc = new CompletableFuture<>();
-        CompletableFuture<String> walletIdFuture = this.getActiveWalletId();
-        CompletableFuture<String> stableHardwareIdFuture = this.getStableHardwareId();
-
-        // await for both walletId and stableHardwareId
-        walletIdFuture.thenCombine(stableHardwareIdFuture, (walletId, stableHardwareId) -> new OPCRequest(req.cardId,
-                req.token, walletId, stableHardwareId, req.isTestnet, futureOpc)).exceptionally(e -> {
-                    // if exception is TAP_AND_PAY_NO_ACTIVE_WALLET There is no active wallet ->
-                    // create wallet
-                    Throwable cause = e instanceof CompletionException ? e.getCause() : e;
-                    String causeMessage = cause != null ? cause.getMessage() : null;
-
-                    if (cause instanceof ApiException || (causeMessage != null && causeMessage.contains("15002"))) {
-                        ApiException apiException = (ApiException) cause;
-                        if (apiException.getStatusCode() == 15002) {
-                            createWallet().thenAccept(res -> {
-                                if (res) {
-                                    CompletableFuture<String> walletIdFuture2 = this.getActiveWalletId();
-                                    CompletableFuture<String> stableHardwareIdFuture2 = this.getStableHardwareId();
-
-                                    walletIdFuture2
-                                            .thenCombine(stableHardwareIdFuture2, (walletId, stableHardwareId) -> {
-                                                return new OPCRequest(req.cardId, req.token, walletId, stableHardwareId,
-                                                        req.isTestnet, futureOpc);
-                                            }).exceptionally(e2 -> {
-                                                req.completableFuture.completeExceptionally(e2);
-                                                return null;
-                                            }).thenAccept(this::fetchOPC).exceptionally(e2 -> {
-                                                req.completableFuture.completeExceptionally(e2);
-                                                return null;
-                                            });
-                                } else {
-                                    req.completableFuture
-                                            .completeExceptionally(new Exception("Failed to create wallet"));
-                                }
-                            });
-                        } else {
-                            req.completableFuture.completeExceptionally(e);
-                        }
-                    } else {
-                        req.completableFuture.completeExceptionally(e);
-                    }
-                    return null;
-                }).thenAccept(this::fetchOPC).exceptionally(e -> {
-                    req.completableFuture.completeExceptionally(e);
-                    return null;
-                });
+        getOPCRequest(req, futureOpc).thenAccept(this::resolveOPC).exceptionally(e -> {
+            req.completableFuture.completeExceptionally(e);
+            return null;
+        });
 
         futureOpc.thenAccept(opc -> {
             // UserAddress userAddress = UserAddress.newBuilder()
@@ -681,19 +692,13 @@ public class WalletModule extends ReactContextBaseJavaModule implements Activity
             Activity currentActivity = getReactApplicationContext().getCurrentActivity();
 
             if (currentActivity != null) {
+                tokenizingRequest.set(req);
                 tapAndPayClient.pushTokenize(currentActivity, pushTokenizeRequest, REQUEST_CODE_PUSH_TOKENIZE);
             } else {
-                if (this.currentProvisioning != null) {
-                    this.currentProvisioning.completableFuture
-                            .completeExceptionally(new Exception("No current activity"));
-                    this.currentProvisioning = null;
-                }
+                req.completableFuture.completeExceptionally(new Exception("No current activity"));
             }
         }).exceptionally(e -> {
-            if (this.currentProvisioning != null) {
-                this.currentProvisioning.completableFuture.completeExceptionally(e);
-                this.currentProvisioning = null;
-            }
+            req.completableFuture.completeExceptionally(e);
             return null;
         });
     }
@@ -708,50 +713,76 @@ public class WalletModule extends ReactContextBaseJavaModule implements Activity
         // completes in handleTokenizationResult with final result
 
         CompletableFuture<Boolean> future = new CompletableFuture<>();
-        future.thenAccept(res -> {
+        ProvisionRequest req = new ProvisionRequest(isTestnet, token, cardId, displayName, lastDigits, future);
+
+        // Requests run one after another, each adding the card only if it's not already added,
+        // otherwise opening it in the wallet (see pushProvisionWithTokeStatusCheck). A request for
+        // a card that is already queued resolves with that request's result.
+        provisioningScheduler.enqueue(req).thenAccept(res -> {
             promise.resolve(res);
         }).exceptionally(e -> {
             promise.reject(e);
             return null;
-        }).thenRun(() -> {
-            this.currentProvisioning = null;
         });
+    }
 
-        ProvisionRequest req = new ProvisionRequest(isTestnet, token, cardId, displayName, lastDigits, future);
-        // Adding card regardless of the token status
-        // pushProvision(req);
-        // Adding card only if it's not already added, otherwise open in wallet
-        pushProvisionWithTokeStatusCheck(req);
+    /**
+     * Cancels the queued or running addCardToWallet for the card, which then rejects, resolves
+     * with whether there was one
+     */
+    @ReactMethod
+    @SuppressWarnings("unused")
+    private void cancelAddCardToWallet(String cardId, Promise promise) {
+        promise.resolve(provisioningScheduler.cancel(cardId));
+    }
+
+    @ReactMethod
+    @SuppressWarnings("unused")
+    private void getProvisioningQueueStats(Promise promise) {
+        ProvisioningScheduler.Stats stats = provisioningScheduler.getStats();
+        WritableMap result = Arguments.createMap();
+        result.putInt("queueDepth", stats.queueDepth);
+        result.putBoolean("running", stats.running);
+        result.putInt("maxQueueDepth", stats.maxQueueDepth);
+        result.putDouble("enqueued", stats.enqueued);
+        result.putDouble("deduplicated", stats.deduplicated);
+        result.putDouble("rejected", stats.rejected);
+        result.putDouble("cancelled", stats.cancelled);
+        result.putDouble("timedOut", stats.timedOut);
+        promise.resolve(result);
     }
 
     public void handleTokenizationResult(int resultCode, Intent data) {
-        if (this.currentProvisioning == null) {
+        ProvisionRequest current = tokenizingRequest.getAndSet(null);
+        if (current == null) {
             return;
         }
 
+        // Completing the request lets the scheduler start the next one
         switch (resultCode) {
             case TAP_AND_PAY_ATTESTATION_ERROR:
                 // Tokenization failed due to device attestation error, so you should choose how
                 // to handle
                 // this and alert your users.
 
-                this.currentProvisioning.completableFuture
-                        .completeExceptionally(new Exception("Device attestation error"));
+                current.completableFuture.completeExceptionally(new Exception("Device attestation error"));
 
                 break;
             case Activity.RESULT_OK:
                 // Tokenization was successful, so choose how to handle this and alert your
                 // users.
-                this.currentProvisioning.completableFuture.complete(true);
+                current.completableFuture.complete(true);
                 break;
             case Activity.RESULT_CANCELED:
                 // Tokenization was cancelled, so choose how to handle this and alert your
                 // users.
-                this.currentProvisioning.completableFuture.complete(false);
+                current.completableFuture.complete(false);
+                break;
+            default:
+                // Otherwise the request would hold up the queue forever
+                current.completableFuture.completeExceptionally(new Exception("Tokenization failed: " + resultCode));
                 break;
         }
-
-        this.currentProvisioning = null;
     }
 
     @ReactMethod
@@ -767,20 +798,22 @@ public class WalletModule extends ReactContextBaseJavaModule implements Activity
         });
     }
 
-    private void handleSetDefaultWalletResult(int resultCode, Intent data) {
-        if (isDefaultWalletFuture != null) {
-            if (resultCode == Activity.RESULT_OK) {
-                isDefaultWalletFuture.complete(true);
-            } else {
-                isDefaultWalletFuture.complete(false);
+    private synchronized void handleSetDefaultWalletResult(int resultCode, Intent data) {
+        CompletableFuture<Boolean> future = isDefaultWalletFuture;
+        isDefaultWalletFuture = null;
+        // Resolve once the snapshot has the new default, so a following getIsDefaultWallet agrees
+        capabilities.refresh().thenRun(() -> {
+            if (future != null) {
+                future.complete(resultCode == Activity.RESULT_OK);
             }
-
-            isDefaultWalletFuture = null;
-        }
+        });
     }
 
     @Override
     public void onActivityResult(Activity activity, int i, int i1, @Nullable Intent intent) {
+        if (i == REQUEST_CODE_PUSH_TOKENIZE || i == REQUEST_CREATE_WALLET) {
+            tokenCache.invalidate();
+        }
         if (i == REQUEST_CODE_PUSH_TOKENIZE) {
             handleTokenizationResult(i1, intent);
         }
@@ -788,15 +821,17 @@ public class WalletModule extends ReactContextBaseJavaModule implements Activity
             handleSetDefaultWalletResult(i1, intent);
         }
         if (i == REQUEST_CREATE_WALLET) {
-            if (walletAddFuture != null) {
-                if (i1 == Activity.RESULT_OK) {
-                    walletAddFuture.complete(true);
-                } else {
-                    walletAddFuture.complete(false);
-                }
-
+            capabilities.refreshTapAndPay();
+            // Fetched again before walletAddFuture lets the provisioning continue
+            invalidateWalletIdentity();
+            CompletableFuture<Boolean> future;
+            synchronized (this) {
+                future = walletAddFuture;
                 walletAddFuture = null;
             }
+            if (future != null) {
+                future.complete(i1 == Activity.RESULT_OK);
+            }
         }
     }
 
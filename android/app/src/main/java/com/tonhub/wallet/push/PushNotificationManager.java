@@ -2,20 +2,17 @@ package com.tonhub.wallet.push;
 
 import android.content.Intent;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Looper;
 import android.util.Log;
 
-import com.facebook.react.ReactApplication;
-import com.facebook.react.ReactInstanceManager;
-import com.facebook.react.ReactNativeHost;
+import androidx.annotation.NonNull;
+
 import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.ReactContext;
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.modules.core.DeviceEventManagerModule;
+import com.tonhub.wallet.ProcessLifecycleTracker;
 
-import org.json.JSONException;
-import org.json.JSONObject;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Manager for handling push notifications
@@ -23,20 +20,31 @@ import org.json.JSONObject;
 public class PushNotificationManager {
 
     private static final String TAG = "PushNotificationMgr";
-    private static Bundle lastPushData = null;
-    private static boolean waitingToEmitEvent = false;
-    private static boolean isFirstLaunch = true;
     private static PushNotificationManager instance;
 
-    private final ReactApplication mReactApplication;
+    // Data of the last opened notification, until it has been sent to JS
+    private final AtomicReference<Bundle> mPendingPushData = new AtomicReference<>();
+
+    private PushNotificationManager() {
+        // Deliver once the app is back in the foreground, or once JS is ready
+        ProcessLifecycleTracker.getInstance().addListener(new ProcessLifecycleTracker.Listener() {
+            @Override
+            public void onForegroundChanged(boolean foreground) {
+                if (foreground) {
+                    emitNotificationDataIfNeeded();
+                }
+            }
 
-    private PushNotificationManager(ReactApplication reactApplication) {
-        mReactApplication = reactApplication;
+            @Override
+            public void onReactContextReady(@NonNull ReactContext context) {
+                emitNotificationDataIfNeeded();
+            }
+        });
     }
 
-    public static synchronized PushNotificationManager getInstance(ReactApplication reactApplication) {
+    public static synchronized PushNotificationManager getInstance() {
         if (instance == null) {
-            instance = new PushNotificationManager(reactApplication);
+            instance = new PushNotificationManager();
         }
         return instance;
     }
@@ -50,26 +58,7 @@ public class PushNotificationManager {
 
         Bundle extras = intent.getExtras();
         if (extras != null) {
-            lastPushData = (Bundle) extras.clone();
-        }
-    }
-
-    /**
-     * Called on activity onStart, tracks the first launch of the app
-     */
-    public void onStart() {
-        if (!isFirstLaunch) {
-            emitNotificationDataIfNeeded();
-        }
-        isFirstLaunch = false;
-    }
-
-    /**
-     * Called on activity onResume
-     */
-    public void onResume() {
-        if (!isFirstLaunch) {
-            emitNotificationDataIfNeeded();
+            mPendingPushData.set((Bundle) extras.clone());
         }
     }
 
@@ -82,60 +71,35 @@ public class PushNotificationManager {
     }
 
     /**
-     * Sends data to JavaScript if needed
+     * Sends data to JavaScript if there is any and JS is ready, otherwise it stays pending until
+     * the React context is ready
      */
     private void emitNotificationDataIfNeeded() {
-        if (lastPushData == null) {
+        ReactContext reactContext = ProcessLifecycleTracker.getInstance().getReactContext();
+        if (reactContext == null || !reactContext.hasActiveReactInstance()) {
             return;
         }
 
-        try {
-            final ReactInstanceManager reactInstanceManager = mReactApplication.getReactNativeHost()
-                    .getReactInstanceManager();
-            ReactContext reactContext = reactInstanceManager.getCurrentReactContext();
-
-            if (reactContext != null) {
-                sendDataToJS(reactContext, lastPushData);
-                lastPushData = null;
-                waitingToEmitEvent = false;
-            } else {
-                waitingToEmitEvent = true;
-                reactInstanceManager
-                        .addReactInstanceEventListener(new ReactInstanceManager.ReactInstanceEventListener() {
-                            @Override
-                            public void onReactContextInitialized(ReactContext context) {
-                                sendDataToJS(context, lastPushData);
-                                lastPushData = null;
-                                waitingToEmitEvent = false;
-                                reactInstanceManager.removeReactInstanceEventListener(this);
-                            }
-                        });
-            }
-        } catch (Exception e) {
-            if (!waitingToEmitEvent) {
-                waitingToEmitEvent = true;
-                new Handler(Looper.getMainLooper()).postDelayed(new Runnable() {
-                    @Override
-                    public void run() {
-                        waitingToEmitEvent = false;
-                        emitNotificationDataIfNeeded();
-                    }
-                }, 1000);
-            }
+        Bundle data = mPendingPushData.getAndSet(null);
+        if (data != null && !sendDataToJS(reactContext, data)) {
+            // Retried with the next React context, unless a newer notification was opened meanwhile
+            mPendingPushData.compareAndSet(null, data);
         }
     }
 
     /**
-     * Sends data to JavaScript
+     * Sends data to JavaScript, returns false if it couldn't
      */
-    private void sendDataToJS(ReactContext reactContext, Bundle data) {
+    private boolean sendDataToJS(ReactContext reactContext, Bundle data) {
         try {
             WritableMap params = Arguments.createMap();
             bundleToWritableMap(data, params);
             reactContext.getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
                     .emit("pushNotificationOpened", params);
+            return true;
         } catch (Exception e) {
             Log.e(TAG, "Error sending  notification data to JS: ", e);
+            return false;
         }
     }
 
@@ -0,0 +1,36 @@
+package com.tonhub.wallet.modules.store;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+/**
+ * Runs the JMH benchmarks of the store package on the JVM, with software keys instead of the
+ * AndroidKeyStore. Skipped unless the build is given -Pbenchmarks, whose value selects the
+ * benchmarks by regexp ("true" runs all of them):
+ * <pre>
+ * ./gradlew :app:testNetmainDebugUnitTest --tests '*BenchmarksTest' -Pbenchmarks=SecureItemCodecBenchmark
+ * </pre>
+ */
+public class BenchmarksTest {
+    @Test
+    public void runBenchmarks() throws RunnerException {
+        String include = System.getProperty("benchmarks", "");
+        Assume.assumeTrue(!include.isEmpty() && !include.equals("false"));
+
+        Options options = new OptionsBuilder()
+                .include(include.equals("true") ? BenchmarksTest.class.getPackage().getName() : include)
+                // The Gradle test worker's classpath can't be handed to a forked JVM
+                .forks(0)
+                .warmupIterations(3)
+                .warmupTime(TimeValue.seconds(1))
+                .measurementIterations(5)
+                .measurementTime(TimeValue.seconds(1))
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,44 @@
+package com.tonhub.wallet.modules.store;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link RecordStorage} backed by a map, recording every batch it is given
+ */
+class InMemoryRecordStorage implements RecordStorage {
+    private final HashMap<String, EncryptedRecord> mRecords = new HashMap<>();
+    private final List<Map<String, EncryptedRecord>> mBatches = new ArrayList<>();
+
+    @Override
+    public synchronized EncryptedRecord get(String key) {
+        return mRecords.get(key);
+    }
+
+    @Override
+    public synchronized List<String> keys() {
+        return new ArrayList<>(mRecords.keySet());
+    }
+
+    @Override
+    public void apply(Map<String, EncryptedRecord> changes) throws IOException {
+        synchronized (this) {
+            mBatches.add(new LinkedHashMap<>(changes));
+            for (Map.Entry<String, EncryptedRecord> change : changes.entrySet()) {
+                if (change.getValue() == null) {
+                    mRecords.remove(change.getKey());
+                } else {
+                    mRecords.put(change.getKey(), change.getValue());
+                }
+            }
+        }
+    }
+
+    synchronized List<Map<String, EncryptedRecord>> getBatches() {
+        return new ArrayList<>(mBatches);
+    }
+}
@@ -0,0 +1,229 @@
+package com.tonhub.wallet.modules.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class KeySequencerTest {
+    private static final int THREADS = 16;
+    private static final int OPERATIONS_PER_THREAD = 500;
+    private static final String[] KEYS = {"a", "b", "c", "d"};
+
+    private KeySequencer mSequencer;
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mSequencer = new KeySequencer();
+        mDirectory = Files.createTempDirectory("sequenced").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        mSequencer.shutdown();
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void concurrentReadModifyWritesOfAKeyAreNotLost() throws Exception {
+        KeySequencer sequencer = mSequencer;
+        ExecutorService callers = Executors.newFixedThreadPool(THREADS);
+        // Operations finish on another thread, like the store writer calling done after its fsync
+        ExecutorService completions = Executors.newFixedThreadPool(4);
+
+        // Deliberately unsynchronized beyond the map itself: only the sequencer keeps these safe
+        Map<String, int[]> values = new HashMap<>();
+        Map<String, AtomicInteger> running = new HashMap<>();
+        for (String key : KEYS) {
+            values.put(key, new int[1]);
+            running.put(key, new AtomicInteger());
+        }
+        AtomicInteger overlaps = new AtomicInteger();
+        CountDownLatch finished = new CountDownLatch(THREADS * OPERATIONS_PER_THREAD);
+
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            callers.execute(() -> {
+                for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                    String key = KEYS[(thread + i) % KEYS.length];
+                    sequencer.enqueue(key, done -> {
+                        if (running.get(key).incrementAndGet() != 1) {
+                            overlaps.incrementAndGet();
+                        }
+                        int read = values.get(key)[0];
+                        completions.execute(() -> {
+                            values.get(key)[0] = read + 1;
+                            running.get(key).decrementAndGet();
+                            done.run();
+                            finished.countDown();
+                        });
+                    });
+                }
+            });
+        }
+
+        assertTrue(finished.await(30, TimeUnit.SECONDS));
+        callers.shutdown();
+        completions.shutdown();
+
+        int total = 0;
+        for (String key : KEYS) {
+            total += values.get(key)[0];
+        }
+        assertEquals(0, overlaps.get());
+        assertEquals(THREADS * OPERATIONS_PER_THREAD, total);
+        assertEquals(THREADS * OPERATIONS_PER_THREAD / KEYS.length, values.get("a")[0]);
+        assertTrue(sequencer.getActiveKeys().isEmpty());
+    }
+
+    @Test
+    public void operationsOfAKeyRunInEnqueueOrder() throws Exception {
+        KeySequencer sequencer = mSequencer;
+        ExecutorService completions = Executors.newSingleThreadExecutor();
+        StringBuilder order = new StringBuilder();
+        CountDownLatch finished = new CountDownLatch(3);
+
+        for (String name : new String[]{"1", "2", "3"}) {
+            sequencer.enqueue("key", done -> {
+                synchronized (order) {
+                    order.append(name);
+                }
+                completions.execute(() -> {
+                    done.run();
+                    finished.countDown();
+                });
+            });
+        }
+
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        completions.shutdown();
+        assertEquals("123", order.toString());
+    }
+
+    @Test
+    public void queuedOperationsDontStartOnTheThreadThatSignalledDone() throws Exception {
+        CompletableFuture<Runnable> firstDone = new CompletableFuture<>();
+        CompletableFuture<String> secondThread = new CompletableFuture<>();
+        mSequencer.enqueue("key", firstDone::complete);
+        mSequencer.enqueue("key", done -> {
+            secondThread.complete(Thread.currentThread().getName());
+            done.run();
+        });
+
+        // Like a BiometricPrompt callback settling the first operation on the main thread
+        Thread callback = new Thread(() -> firstDone.join().run(), "main");
+        callback.start();
+        callback.join();
+
+        assertEquals("KeyStoreSequencer", secondThread.get(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Read-modify-write and delete through the record store the way KeyStoreModule does it: a
+     * synchronous read, a write or delete through the coalescing writer, done once it is durable
+     */
+    @Test
+    public void sequencedStoreOperationsOfAKeyAreNotLost() throws Exception {
+        File file = new File(mDirectory, "items.bin");
+        SecureRecordStore store = new SecureRecordStore(file);
+        RecordStoreWriter writer = new RecordStoreWriter(store);
+        ExecutorService callers = Executors.newFixedThreadPool(THREADS);
+        int operationsPerThread = 100;
+
+        // Per key: how many increments were enqueued, and the values deletes took away
+        Map<String, AtomicInteger> increments = new HashMap<>();
+        Map<String, int[]> deleted = new HashMap<>();
+        for (String key : KEYS) {
+            increments.put(key, new AtomicInteger());
+            deleted.put(key, new int[1]);
+        }
+        CopyOnWriteArrayList<Throwable> errors = new CopyOnWriteArrayList<>();
+        CopyOnWriteArrayList<String> startThreads = new CopyOnWriteArrayList<>();
+        CountDownLatch finished = new CountDownLatch(THREADS * operationsPerThread);
+
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            callers.execute(() -> {
+                for (int i = 0; i < operationsPerThread; i++) {
+                    String key = KEYS[(thread + i) % KEYS.length];
+                    boolean delete = i % 10 == 9;
+                    if (!delete) {
+                        increments.get(key).incrementAndGet();
+                    }
+                    mSequencer.enqueue(key, done -> {
+                        startThreads.add(Thread.currentThread().getName());
+                        CompletableFuture<Void> write;
+                        try {
+                            int value = decode(store.get(key));
+                            if (delete) {
+                                deleted.get(key)[0] += value;
+                                write = writer.remove(key);
+                            } else {
+                                write = writer.put(key, encode(value + 1));
+                            }
+                        } catch (IOException e) {
+                            write = new CompletableFuture<>();
+                            write.completeExceptionally(e);
+                        }
+                        write.whenComplete((res, e) -> {
+                            if (e != null) {
+                                errors.add(e);
+                            }
+                            done.run();
+                            finished.countDown();
+                        });
+                    });
+                }
+            });
+        }
+
+        assertTrue(finished.await(60, TimeUnit.SECONDS));
+        callers.shutdown();
+        writer.flush().get(5, TimeUnit.SECONDS);
+        writer.shutdown();
+        store.close();
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertTrue(mSequencer.getActiveKeys().isEmpty());
+        // Queued operations were started by the sequencer, never on the writer thread that settled them
+        assertFalse(startThreads.contains("KeyStoreWriter"));
+
+        SecureRecordStore reopened = new SecureRecordStore(file);
+        reopened.load();
+        for (String key : KEYS) {
+            assertEquals(key, increments.get(key).get(), deleted.get(key)[0] + decode(reopened.get(key)));
+        }
+        reopened.close();
+    }
+
+    private static EncryptedRecord encode(int value) {
+        return new EncryptedRecord("aes", new byte[12], 128, ByteBuffer.allocate(4).putInt(value).array());
+    }
+
+    private static int decode(EncryptedRecord record) {
+        return record == null ? 0 : ByteBuffer.wrap(record.ciphertext).getInt();
+    }
+}
@@ -0,0 +1,79 @@
+package com.tonhub.wallet.modules.store;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Pbkdf2 against the platform's PBKDF2WithHmacSHA512, which it replaces because that one takes
+ * a char[] password, at the passcode KDF's 100,000 iterations, plus SecretBox seal and open. The JS
+ * implementation these replace can't run on the JVM, its cost has to be measured on device.
+ */
+@BenchmarkMode(Mode.AverageTime)
+public class PasscodeCryptoBenchmark {
+    private static final int ITERATIONS = 100_000;
+    private static final int KEY_LENGTH = 32;
+    private static final byte[] PASSWORD = "123456".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SALT = "TON default seed".getBytes(StandardCharsets.UTF_8);
+
+    @State(Scope.Thread)
+    public static class Box {
+        @Param({"64", "4096"})
+        public int size;
+
+        byte[] key;
+        byte[] nonce;
+        byte[] message;
+        byte[] box;
+
+        @Setup
+        public void setUp() {
+            Random random = new Random(size);
+            key = new byte[SecretBox.KEY_SIZE_BYTES];
+            nonce = new byte[SecretBox.NONCE_SIZE_BYTES];
+            message = new byte[size];
+            random.nextBytes(key);
+            random.nextBytes(nonce);
+            random.nextBytes(message);
+            box = SecretBox.seal(message, nonce, key);
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public byte[] pbkdf2() throws GeneralSecurityException {
+        return Pbkdf2.deriveSha512(PASSWORD, SALT, ITERATIONS, KEY_LENGTH);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public byte[] platformPbkdf2() throws GeneralSecurityException {
+        PBEKeySpec spec = new PBEKeySpec("123456".toCharArray(), SALT, ITERATIONS, KEY_LENGTH * 8);
+        return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA512").generateSecret(spec).getEncoded();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public byte[] secretBoxSeal(Box box) {
+        return SecretBox.seal(box.message, box.nonce, box.key);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public byte[] secretBoxOpen(Box box) {
+        return SecretBox.open(box.box, box.nonce, box.key);
+    }
+}
@@ -0,0 +1,126 @@
+package com.tonhub.wallet.modules.store;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Known-answer tests for the primitives behind PasscodeCryptoModule, which must stay byte for
+ * byte compatible with the JS implementation
+ */
+public class PasscodeCryptoVectorsTest {
+    // NaCl tests/secretbox.c
+    private static final String NACL_KEY = "1b27556473e985d462cd51197a9a46c76009549eac6474f206c4ee0844f68389";
+    private static final String NACL_NONCE = "69696ee955b62b73cd62bda875fc73d68219e0036b7a0b37";
+    private static final String NACL_MESSAGE = "be075fc53c81f2d5cf141316ebeb0c7b5228c52a4c62cbd44b66849b64244ffc"
+            + "e5ecbaaf33bd751a1ac728d45e6c61296cdc3c01233561f41db66cce314adb310e3be8250c46f06d"
+            + "ceea3a7fa1348057e2f6556ad6b1318a024a838f21af1fde048977eb48f59ffd4924ca1c60902e52"
+            + "f0a089bc76897040e082f937763848645e0705";
+    private static final String NACL_BOX = "f3ffc7703f9400e52a7dfb4b3d3305d98e993b9f48681273c29650ba32fc76ce"
+            + "48332ea7164d96a4476fb8c531a1186ac0dfc17c98dce87b4da7f011ec48c97271d2c20f9b928fe2"
+            + "270d6fb863d51738b48eeee314a7cc8ab932164548e526ae90224368517acfeabd6bb3732bc0e9da"
+            + "99832b61ca01b6de56244a9e88d5f9b37973f622a43d14a6599b1f654cb45a74e355a5";
+
+    @Test
+    public void pbkdf2Sha512MatchesKnownAnswers() throws Exception {
+        assertArrayEquals(
+                hex("867f70cf1ade02cff3752599a3a53dc4af34c7a669815ae5d513554e1c8cf252"
+                        + "c02d470a285a0501bad999bfe943c08f050235d7d68b1da55e63f73b60a57fce"),
+                Pbkdf2.deriveSha512(utf8("password"), utf8("salt"), 1, 64)
+        );
+        assertArrayEquals(
+                hex("e1d9c16aa681708a45f5c7c4e215ceb66e011a2e9f0040713f18aefdb866d53c"
+                        + "f76cab2868a39b9f7840edce4fef5a82be67335c77a6068e04112754f27ccf4e"),
+                Pbkdf2.deriveSha512(utf8("password"), utf8("salt"), 2, 64)
+        );
+        assertArrayEquals(
+                hex("d197b1b33db0143e018b12f3d1d1479e6cdebdcc97c5c0f87f6902e072f457b5"
+                        + "143f30602641b3d55cd335988cb36b84376060ecd532e039b742a239434af2d5"),
+                Pbkdf2.deriveSha512(utf8("password"), utf8("salt"), 4096, 64)
+        );
+        assertArrayEquals(
+                hex("8c0511f4c6e597c6ac6315d8f0362e225f3c501495ba23b868c005174dc4ee71"
+                        + "115b59f9e60cd9532fa33e0f75aefe30225c583a186cd82bd4daea9724a3d3b8"),
+                Pbkdf2.deriveSha512(
+                        utf8("passwordPASSWORDpassword"),
+                        utf8("saltSALTsaltSALTsaltSALTsaltSALTsalt"),
+                        4096,
+                        64
+                )
+        );
+    }
+
+    @Test
+    public void pbkdf2Sha512HandlesEmptyPasswordAndPartialBlocks() throws Exception {
+        assertArrayEquals(
+                hex("00ef42cdbfc98d29db20976608e455567fdddf141f6eb03b5a85addd25974f5d"
+                        + "2375bd5082b803e8f4cfa88ae1bd25256fcbddd2318676566ff2797792302aee"
+                        + "6ca733014ec4a8969e9b4d25a196e71b"),
+                Pbkdf2.deriveSha512(new byte[0], utf8("salt"), 1, 80)
+        );
+    }
+
+    @Test
+    public void poly1305MatchesRfc8439() {
+        byte[] key = hex("85d6be7857556d337f4452fe42d506a80103808afb0db2fd4abff6af4149f51b");
+        byte[] message = utf8("Cryptographic Forum Research Group");
+        assertArrayEquals(
+                hex("a8061dc1305136c6c22b8baf0c0127a9"),
+                SecretBox.poly1305(message, 0, message.length, key)
+        );
+    }
+
+    @Test
+    public void secretBoxMatchesNaCl() {
+        byte[] key = hex(NACL_KEY);
+        byte[] nonce = hex(NACL_NONCE);
+
+        assertArrayEquals(hex(NACL_BOX), SecretBox.seal(hex(NACL_MESSAGE), nonce, key));
+        assertArrayEquals(hex(NACL_MESSAGE), SecretBox.open(hex(NACL_BOX), nonce, key));
+    }
+
+    @Test
+    public void secretBoxRejectsTamperedOrShortBoxes() {
+        byte[] key = hex(NACL_KEY);
+        byte[] nonce = hex(NACL_NONCE);
+
+        byte[] tamperedTag = hex(NACL_BOX);
+        tamperedTag[0] ^= 1;
+        assertNull(SecretBox.open(tamperedTag, nonce, key));
+
+        byte[] tamperedData = hex(NACL_BOX);
+        tamperedData[tamperedData.length - 1] ^= 1;
+        assertNull(SecretBox.open(tamperedData, nonce, key));
+
+        assertNull(SecretBox.open(new byte[SecretBox.TAG_SIZE_BYTES - 1], nonce, key));
+    }
+
+    @Test
+    public void secretBoxRoundTripsEmptyAndBlockSizedMessages() {
+        byte[] key = hex(NACL_KEY);
+        byte[] nonce = hex(NACL_NONCE);
+
+        for (int length : new int[]{0, 1, 15, 16, 17, 63, 64, 65}) {
+            byte[] message = new byte[length];
+            for (int i = 0; i < length; i++) {
+                message[i] = (byte) i;
+            }
+            assertArrayEquals(message, SecretBox.open(SecretBox.seal(message, nonce, key), nonce, key));
+        }
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] hex(String value) {
+        byte[] bytes = new byte[value.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(value.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,116 @@
+package com.tonhub.wallet.modules.store;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+/**
+ * Time the prompt's success callback keeps the main thread busy per unlock. Before, it ran the
+ * authenticated cipher's doFinal and the durable write itself. Now AuthenticationHelper only hands
+ * them to its crypto thread. A software AES key stands in for the keystore key, whose doFinal is
+ * slower on devices, so the inline numbers are a lower bound.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PostAuthenticationBenchmark {
+    private static final String KEY = "wallet_state";
+
+    @Param({"64", "2048"})
+    public int valueSize;
+
+    private final SecureItemCodec mCodec = new SecureItemCodec(new SecureItemCodec.PhaseListener() {
+        @Override
+        public void onCipherInit(long durationNanos) {
+        }
+
+        @Override
+        public void onDoFinal(long durationNanos) {
+        }
+    });
+    private final ExecutorService mCryptoExecutor = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "KeyStoreCrypto")
+    );
+
+    private SecretKey mKey;
+    private byte[] mValue;
+    private File mDirectory;
+    private SecureRecordStore mStore;
+    private Cipher mCipher;
+    private Future<?> mPending;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        mKey = SecureItemCodecTest.generateKey();
+        mValue = new byte[valueSize];
+        new Random(valueSize).nextBytes(mValue);
+        mDirectory = Files.createTempDirectory("post-auth-benchmark").toFile();
+        mStore = new SecureRecordStore(new File(mDirectory, "items.bin"));
+    }
+
+    /**
+     * The cipher the prompt authorized, and no crypto work left over from the previous unlock. JMH
+     * advises against per-invocation setup for very short benchmarks, its own overhead is far
+     * below the inline work compared here.
+     */
+    @Setup(Level.Invocation)
+    public void prepareUnlock() throws Exception {
+        if (mPending != null) {
+            mPending.get();
+            mPending = null;
+        }
+        mCipher = mCodec.createEncryptionCipher(mKey);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (mPending != null) {
+            mPending.get();
+        }
+        mCryptoExecutor.shutdown();
+        mStore.close();
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Benchmark
+    public void inlineOnMainThread() throws Exception {
+        sealAndPersist(mCipher);
+    }
+
+    @Benchmark
+    public void handOffToCryptoThread() {
+        Cipher cipher = mCipher;
+        mPending = mCryptoExecutor.submit(() -> {
+            sealAndPersist(cipher);
+            return null;
+        });
+    }
+
+    private void sealAndPersist(Cipher cipher) throws Exception {
+        mStore.put(KEY, mCodec.seal("aes", mValue, cipher));
+    }
+}
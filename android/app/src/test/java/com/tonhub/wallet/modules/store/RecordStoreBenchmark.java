@@ -0,0 +1,165 @@
+package com.tonhub.wallet.modules.store;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading and writing one item with {@link SecureRecordStore} against the KeychainStore path it
+ * replaced: a JSON object with Base64 ct and iv per item in a SharedPreferences map, which is held
+ * in memory but rewritten as a whole XML file, and fsynced, on every commit(). The ciphertexts are
+ * random bytes, the cipher work is the same on both paths and measured by SecureItemCodecBenchmark.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RecordStoreBenchmark {
+    @Param({"10", "100"})
+    public int itemCount;
+
+    @Param({"64", "2048"})
+    public int ciphertextSize;
+
+    private File mDirectory;
+    private SecureRecordStore mStore;
+    private File mPrefsFile;
+    private final TreeMap<String, String> mPrefs = new TreeMap<>();
+    private EncryptedRecord[] mRecords;
+    private int mNext = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, JSONException {
+        mDirectory = Files.createTempDirectory("record-benchmark").toFile();
+        mStore = new SecureRecordStore(new File(mDirectory, "items.bin"));
+        mPrefsFile = new File(mDirectory, "KeychainStore.xml");
+
+        Random random = new Random(itemCount);
+        mRecords = new EncryptedRecord[itemCount];
+        for (int i = 0; i < itemCount; i++) {
+            byte[] iv = new byte[12];
+            byte[] ciphertext = new byte[ciphertextSize];
+            random.nextBytes(iv);
+            random.nextBytes(ciphertext);
+            mRecords[i] = new EncryptedRecord("aes", iv, 128, ciphertext);
+            mStore.put(key(i), mRecords[i]);
+            mPrefs.put(key(i), encodeLegacy(mRecords[i]));
+        }
+        writePrefsFile();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        mStore.close();
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Benchmark
+    public EncryptedRecord readRecordStore() throws IOException {
+        return mStore.get(key(nextIndex()));
+    }
+
+    @Benchmark
+    public EncryptedRecord readLegacyPrefs() throws JSONException {
+        return decodeLegacy(mPrefs.get(key(nextIndex())));
+    }
+
+    @Benchmark
+    public void writeRecordStore() throws IOException {
+        int index = nextIndex();
+        mStore.put(key(index), mRecords[index]);
+    }
+
+    @Benchmark
+    public void writeLegacyPrefs() throws IOException, JSONException {
+        int index = nextIndex();
+        mPrefs.put(key(index), encodeLegacy(mRecords[index]));
+        writePrefsFile();
+    }
+
+    /**
+     * Opening the store on a cold start: reading the file and building the index
+     */
+    @Benchmark
+    public SecureRecordStore loadRecordStore() throws IOException {
+        SecureRecordStore store = new SecureRecordStore(new File(mDirectory, "items.bin"));
+        store.load();
+        store.close();
+        return store;
+    }
+
+    private int nextIndex() {
+        mNext = (mNext + 1) % itemCount;
+        return mNext;
+    }
+
+    private static String key(int index) {
+        return "item_" + index;
+    }
+
+    private static String encodeLegacy(EncryptedRecord record) throws JSONException {
+        return new JSONObject()
+                .put("ct", Base64.getEncoder().encodeToString(record.ciphertext))
+                .put("iv", Base64.getEncoder().encodeToString(record.iv))
+                .put("tlen", record.tagLength)
+                .put("scheme", record.scheme)
+                .toString();
+    }
+
+    private static EncryptedRecord decodeLegacy(String value) throws JSONException {
+        JSONObject json = new JSONObject(value);
+        return new EncryptedRecord(
+                json.optString("scheme"),
+                Base64.getDecoder().decode(json.getString("iv")),
+                json.getInt("tlen"),
+                Base64.getDecoder().decode(json.getString("ct"))
+        );
+    }
+
+    /**
+     * What SharedPreferencesImpl does on commit(): the whole map as XML, then an fsync
+     */
+    private void writePrefsFile() throws IOException {
+        try (FileOutputStream output = new FileOutputStream(mPrefsFile);
+             Writer writer = new OutputStreamWriter(output, StandardCharsets.UTF_8)) {
+            writer.write("<?xml version='1.0' encoding='utf-8' standalone='yes' ?>\n<map>\n");
+            for (Map.Entry<String, String> entry : mPrefs.entrySet()) {
+                writer.write("    <string name=\"");
+                writer.write(entry.getKey());
+                writer.write("\">");
+                writer.write(entry.getValue().replace("&", "&amp;").replace("\"", "&quot;"));
+                writer.write("</string>\n");
+            }
+            writer.write("</map>\n");
+            writer.flush();
+            output.getFD().sync();
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.tonhub.wallet.modules.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class RecordStoreWriterTest {
+    private RecordStoreWriter mWriter;
+
+    @After
+    public void tearDown() {
+        if (mWriter != null) {
+            mWriter.shutdown();
+        }
+    }
+
+    @Test
+    public void changesArrivingDuringAFlushAreCoalescedIntoOneBatch() throws Exception {
+        BlockingStorage storage = new BlockingStorage();
+        mWriter = new RecordStoreWriter(storage);
+
+        CompletableFuture<Void> first = mWriter.put("a", record("a1"));
+        assertTrue(storage.entered.await(5, TimeUnit.SECONDS));
+
+        // The writer thread is stuck in the first apply, everything below waits for the next batch
+        List<CompletableFuture<Void>> queued = new ArrayList<>();
+        queued.add(mWriter.put("b", record("b1")));
+        queued.add(mWriter.put("a", record("a2")));
+        queued.add(mWriter.put("b", record("b2")));
+        queued.add(mWriter.remove("c"));
+        queued.add(mWriter.put("c", record("c1")));
+        for (CompletableFuture<Void> future : queued) {
+            assertFalse(future.isDone());
+        }
+
+        storage.release.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        for (CompletableFuture<Void> future : queued) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+
+        List<Map<String, EncryptedRecord>> batches = storage.getBatches();
+        assertEquals(2, batches.size());
+        assertEquals(Arrays.asList("a"), new ArrayList<>(batches.get(0).keySet()));
+        // Only the latest change per key is written
+        Map<String, EncryptedRecord> second = batches.get(1);
+        assertEquals(3, second.size());
+        assertEquals("a2", value(second.get("a")));
+        assertEquals("b2", value(second.get("b")));
+        assertEquals("c1", value(second.get("c")));
+    }
+
+    @Test
+    public void flushCompletesAfterEarlierChangesAreApplied() throws Exception {
+        BlockingStorage storage = new BlockingStorage();
+        mWriter = new RecordStoreWriter(storage);
+
+        CompletableFuture<Void> write = mWriter.put("a", record("a1"));
+        assertTrue(storage.entered.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Void> barrier = mWriter.flush();
+        assertFalse(barrier.isDone());
+
+        storage.release.countDown();
+        barrier.get(5, TimeUnit.SECONDS);
+        assertTrue(write.isDone());
+        assertEquals("a1", value(storage.get("a")));
+    }
+
+    @Test
+    public void flushWithNothingPendingWritesNothing() throws Exception {
+        InMemoryRecordStorage storage = new InMemoryRecordStorage();
+        mWriter = new RecordStoreWriter(storage);
+
+        mWriter.flush().get(5, TimeUnit.SECONDS);
+        assertTrue(storage.getBatches().isEmpty());
+    }
+
+    @Test
+    public void aFailedBatchFailsOnlyItsOwnWaiters() throws Exception {
+        FailingOnceStorage storage = new FailingOnceStorage();
+        mWriter = new RecordStoreWriter(storage);
+
+        CompletableFuture<Void> failed = mWriter.put("a", record("a1"));
+        try {
+            failed.get(5, TimeUnit.SECONDS);
+            fail("The first batch should have failed");
+        } catch (ExecutionException e) {
+            assertSame(FailingOnceStorage.FAILURE, e.getCause());
+        }
+        assertNull(storage.get("a"));
+
+        mWriter.put("a", record("a2")).get(5, TimeUnit.SECONDS);
+        assertEquals("a2", value(storage.get("a")));
+    }
+
+    private static EncryptedRecord record(String value) {
+        return new EncryptedRecord("aes", new byte[12], 128, value.getBytes());
+    }
+
+    private static String value(EncryptedRecord record) {
+        return new String(record.ciphertext);
+    }
+
+    /**
+     * Blocks inside the first apply until released, like a slow fsync
+     */
+    private static class BlockingStorage extends InMemoryRecordStorage {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void apply(Map<String, EncryptedRecord> changes) throws IOException {
+            entered.countDown();
+            try {
+                if (!release.await(5, TimeUnit.SECONDS)) {
+                    throw new IOException("Not released");
+                }
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            super.apply(changes);
+        }
+    }
+
+    private static class FailingOnceStorage extends InMemoryRecordStorage {
+        static final IOException FAILURE = new IOException("Disk full");
+        private boolean mFailed = false;
+
+        @Override
+        public void apply(Map<String, EncryptedRecord> changes) throws IOException {
+            if (!mFailed) {
+                mFailed = true;
+                throw FAILURE;
+            }
+            super.apply(changes);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.tonhub.wallet.modules.store;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKey;
+
+/**
+ * The KeyStoreModule hot path on a plain JVM: sealing and opening an item with a software AES key
+ * (the keystore flow, one cipher per item, and the envelope flow, bound to the item key), on its
+ * own and against the in-memory and the file record storage
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SecureItemCodecBenchmark {
+    private static final String KEY = "wallet_state";
+
+    @Param({"32", "2048"})
+    public int valueSize;
+
+    private final SecureItemCodec mCodec = new SecureItemCodec(new SecureItemCodec.PhaseListener() {
+        @Override
+        public void onCipherInit(long durationNanos) {
+        }
+
+        @Override
+        public void onDoFinal(long durationNanos) {
+        }
+    });
+
+    private SecretKey mKey;
+    private byte[] mValue;
+    private EncryptedRecord mKeystoreRecord;
+    private EncryptedRecord mBoundRecord;
+    private InMemoryRecordStorage mMemoryStorage;
+    private File mDirectory;
+    private SecureRecordStore mFileStore;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        mKey = SecureItemCodecTest.generateKey();
+        mValue = new byte[valueSize];
+        new Random(valueSize).nextBytes(mValue);
+        mKeystoreRecord = mCodec.seal("aes", mValue, mCodec.createEncryptionCipher(mKey));
+        mBoundRecord = mCodec.sealBound("aes-envelope", KEY, mValue, mKey);
+
+        mMemoryStorage = new InMemoryRecordStorage();
+        mMemoryStorage.apply(Collections.singletonMap(KEY, mBoundRecord));
+
+        mDirectory = Files.createTempDirectory("codec-benchmark").toFile();
+        mFileStore = new SecureRecordStore(new File(mDirectory, "items.bin"));
+        mFileStore.put(KEY, mBoundRecord);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        mFileStore.close();
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Benchmark
+    public EncryptedRecord sealWithKeystoreFlow() throws Exception {
+        return mCodec.seal("aes", mValue, mCodec.createEncryptionCipher(mKey));
+    }
+
+    @Benchmark
+    public byte[] openWithKeystoreFlow() throws Exception {
+        return mCodec.open(mKeystoreRecord, mCodec.createDecryptionCipher(mKey, mKeystoreRecord));
+    }
+
+    @Benchmark
+    public EncryptedRecord sealBound() throws Exception {
+        return mCodec.sealBound("aes-envelope", KEY, mValue, mKey);
+    }
+
+    @Benchmark
+    public byte[] openBound() throws Exception {
+        return mCodec.openBound(KEY, mBoundRecord, mKey);
+    }
+
+    @Benchmark
+    public byte[] readFromMemoryStorage() throws Exception {
+        return mCodec.openBound(KEY, mMemoryStorage.get(KEY), mKey);
+    }
+
+    @Benchmark
+    public byte[] readFromFileStore() throws Exception {
+        return mCodec.openBound(KEY, mFileStore.get(KEY), mKey);
+    }
+
+    /**
+     * Includes the fsync, so it mostly measures the disk
+     */
+    @Benchmark
+    public void writeToFileStore() throws Exception {
+        mFileStore.put(KEY, mCodec.sealBound("aes-envelope", KEY, mValue, mKey));
+    }
+}
@@ -0,0 +1,116 @@
+package com.tonhub.wallet.modules.store;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+public class SecureItemCodecTest {
+    private final AtomicInteger mCipherInits = new AtomicInteger();
+    private final AtomicInteger mDoFinals = new AtomicInteger();
+    private final SecureItemCodec mCodec = new SecureItemCodec(new SecureItemCodec.PhaseListener() {
+        @Override
+        public void onCipherInit(long durationNanos) {
+            mCipherInits.incrementAndGet();
+        }
+
+        @Override
+        public void onDoFinal(long durationNanos) {
+            mDoFinals.incrementAndGet();
+        }
+    });
+
+    @Test
+    public void sealedItemsOpenWithTheSameKey() throws Exception {
+        SecretKey key = generateKey();
+        byte[] plaintext = "a value".getBytes(StandardCharsets.UTF_8);
+
+        EncryptedRecord record = mCodec.seal("aes", plaintext, mCodec.createEncryptionCipher(key));
+        assertEquals("aes", record.scheme);
+        assertEquals(128, record.tagLength);
+        assertFalse(Arrays.equals(plaintext, Arrays.copyOf(record.ciphertext, plaintext.length)));
+
+        Cipher cipher = mCodec.createDecryptionCipher(key, record);
+        assertArrayEquals(plaintext, mCodec.open(record, cipher));
+        assertEquals(2, mCipherInits.get());
+        assertEquals(2, mDoFinals.get());
+    }
+
+    @Test
+    public void boundItemsOpenOnlyUnderTheirOwnKey() throws Exception {
+        SecretKey key = generateKey();
+        byte[] plaintext = "bound value".getBytes(StandardCharsets.UTF_8);
+
+        EncryptedRecord record = mCodec.sealBound("aes-envelope", "item", plaintext, key);
+        assertArrayEquals(plaintext, mCodec.openBound("item", record, key));
+
+        try {
+            mCodec.openBound("another-item", record, key);
+            fail("A record moved to another key must not open");
+        } catch (AEADBadTagException expected) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void tamperedOrWronglyKeyedRecordsFailAuthentication() throws Exception {
+        SecretKey key = generateKey();
+        EncryptedRecord record = mCodec.sealBound("aes-envelope", "item", new byte[64], key);
+
+        byte[] tampered = record.ciphertext.clone();
+        tampered[0] ^= 1;
+        assertOpenFails(new EncryptedRecord(record.scheme, record.iv, record.tagLength, tampered), key);
+        assertOpenFails(record, generateKey());
+    }
+
+    @Test
+    public void everySealUsesAFreshIv() throws Exception {
+        SecretKey key = generateKey();
+        EncryptedRecord first = mCodec.sealBound("aes-envelope", "item", new byte[16], key);
+        EncryptedRecord second = mCodec.sealBound("aes-envelope", "item", new byte[16], key);
+        assertEquals(12, first.iv.length);
+        assertFalse(Arrays.equals(first.iv, second.iv));
+        assertFalse(Arrays.equals(first.ciphertext, second.ciphertext));
+    }
+
+    @Test
+    public void recordsSurviveTheRecordStorage() throws Exception {
+        SecretKey key = generateKey();
+        InMemoryRecordStorage storage = new InMemoryRecordStorage();
+        RecordStoreWriter writer = new RecordStoreWriter(storage);
+        try {
+            byte[] plaintext = new byte[4096];
+            Arrays.fill(plaintext, (byte) 7);
+            writer.put("item", mCodec.sealBound("aes-envelope", "item", plaintext, key)).get();
+            assertArrayEquals(plaintext, mCodec.openBound("item", storage.get("item"), key));
+        } finally {
+            writer.shutdown();
+        }
+    }
+
+    private void assertOpenFails(EncryptedRecord record, SecretKey key) throws Exception {
+        try {
+            mCodec.openBound("item", record, key);
+            fail("Opening should have failed");
+        } catch (AEADBadTagException expected) {
+            // Expected
+        }
+    }
+
+    static SecretKey generateKey() throws Exception {
+        KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(256);
+        return generator.generateKey();
+    }
+}
@@ -0,0 +1,269 @@
+package com.tonhub.wallet.modules.store;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class SecureRecordStoreTest {
+    private File mDirectory;
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = Files.createTempDirectory("records").toFile();
+        mFile = new File(mDirectory, "items.bin");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void recordsRoundTripAcrossReloads() throws IOException {
+        SecureRecordStore store = new SecureRecordStore(mFile);
+        store.put("a", record("first"));
+        store.put("b", record("second"));
+        store.put("a", record("third"));
+        store.remove("b");
+        assertValue(store, "a", "third");
+        assertNull(store.get("b"));
+        store.close();
+
+        SecureRecordStore reloaded = new SecureRecordStore(mFile);
+        assertValue(reloaded, "a", "third");
+        assertNull(reloaded.get("b"));
+        assertEquals(new HashSet<>(Arrays.asList("a")), new HashSet<>(reloaded.keys()));
+
+        EncryptedRecord original = record("third");
+        EncryptedRecord read = reloaded.get("a");
+        assertEquals(original.scheme, read.scheme);
+        assertArrayEquals(original.iv, read.iv);
+        assertEquals(original.tagLength, read.tagLength);
+        reloaded.close();
+    }
+
+    @Test
+    public void removingAMissingKeyWritesNothing() throws IOException {
+        SecureRecordStore store = new SecureRecordStore(mFile);
+        store.put("a", record("value"));
+        long length = mFile.length();
+        store.remove("missing");
+        assertEquals(length, mFile.length());
+        store.close();
+    }
+
+    @Test
+    public void tornTailRecordIsDropped() throws IOException {
+        SecureRecordStore store = new SecureRecordStore(mFile);
+        store.put("a", record("kept"));
+        long intact = mFile.length();
+        store.put("b", record("torn"));
+        long full = mFile.length();
+        store.close();
+
+        for (long length = full - 1; length > intact; length--) {
+            copyTruncated(full, length);
+            SecureRecordStore reloaded = new SecureRecordStore(mFile);
+            assertValue(reloaded, "a", "kept");
+            assertNull(reloaded.get("b"));
+            // The torn bytes are cut off, so the next append lands right after the intact record
+            assertEquals(intact, mFile.length());
+            reloaded.put("c", record("after"));
+            reloaded.close();
+
+            SecureRecordStore again = new SecureRecordStore(mFile);
+            assertValue(again, "c", "after");
+            again.close();
+            restore(full);
+        }
+    }
+
+    @Test
+    public void crashInTheMiddleOfABatchDropsTheWholeBatch() throws IOException {
+        SecureRecordStore store = new SecureRecordStore(mFile);
+        store.put("item", record("old"));
+        store.put("@fingerprint:item", record("old fingerprint"));
+        long beforeBatch = mFile.length();
+
+        Map<String, EncryptedRecord> batch = new LinkedHashMap<>();
+        batch.put("item", record("new"));
+        batch.put("@fingerprint:item", record("new fingerprint"));
+        batch.put("other", record("other"));
+        store.apply(batch);
+        long full = mFile.length();
+        store.close();
+
+        // Every possible crash point, including right after a complete record inside the batch
+        for (long length = full - 1; length >= beforeBatch; length--) {
+            copyTruncated(full, length);
+            SecureRecordStore reloaded = new SecureRecordStore(mFile);
+            assertValue(reloaded, "item", "old");
+            assertValue(reloaded, "@fingerprint:item", "old fingerprint");
+            assertNull(reloaded.get("other"));
+            assertEquals(beforeBatch, mFile.length());
+            reloaded.close();
+            restore(full);
+        }
+
+        SecureRecordStore complete = new SecureRecordStore(mFile);
+        assertValue(complete, "item", "new");
+        assertValue(complete, "@fingerprint:item", "new fingerprint");
+        assertValue(complete, "other", "other");
+        complete.close();
+    }
+
+    @Test
+    public void corruptedRecordInsideABatchDropsTheBatch() throws IOException {
+        SecureRecordStore store = new SecureRecordStore(mFile);
+        store.put("a", record("kept"));
+        long beforeBatch = mFile.length();
+        Map<String, EncryptedRecord> batch = new LinkedHashMap<>();
+        batch.put("a", record("lost"));
+        batch.put("b", record("lost"));
+        store.apply(batch);
+        long full = mFile.length();
+        store.close();
+
+        try (RandomAccessFile file = new RandomAccessFile(mFile, "rw")) {
+            file.seek(full - 6);
+            int value = file.read();
+            file.seek(full - 6);
+            file.write(value ^ 0xFF);
+        }
+
+        SecureRecordStore reloaded = new SecureRecordStore(mFile);
+        assertValue(reloaded, "a", "kept");
+        assertNull(reloaded.get("b"));
+        assertEquals(beforeBatch, mFile.length());
+        reloaded.close();
+    }
+
+    @Test
+    public void overwritesAppendWithoutCompacting() throws IOException {
+        SecureRecordStore store = new SecureRecordStore(mFile);
+        store.put("a", record("first"));
+        long length = mFile.length();
+        store.put("a", record("second"));
+        assertTrue(mFile.length() > length);
+        store.close();
+    }
+
+    @Test
+    public void deletesCompactTheFile() throws IOException {
+        SecureRecordStore store = new SecureRecordStore(mFile);
+        store.put("a", record("secret-to-delete"));
+        store.put("b", record("kept"));
+        store.put("a", record("secret-overwritten"));
+        store.remove("a");
+        store.close();
+
+        byte[] contents = Files.readAllBytes(mFile.toPath());
+        String text = new String(contents, StandardCharsets.ISO_8859_1);
+        assertFalse(text.contains("secret-to-delete"));
+        assertFalse(text.contains("secret-overwritten"));
+        assertTrue(text.contains("kept"));
+        assertFalse(new File(mFile.getPath() + ".tmp").exists());
+
+        SecureRecordStore reloaded = new SecureRecordStore(mFile);
+        assertValue(reloaded, "b", "kept");
+        assertNull(reloaded.get("a"));
+        reloaded.close();
+    }
+
+    @Test
+    public void garbageBeyondTheThresholdIsCompacted() throws IOException {
+        SecureRecordStore store = new SecureRecordStore(mFile);
+        byte[] large = new byte[4096];
+        for (int i = 0; i < 64; i++) {
+            Arrays.fill(large, (byte) i);
+            store.put("a", new EncryptedRecord("aes", new byte[12], 128, large.clone()));
+        }
+        store.put("b", record("small"));
+        // One live 4 KB record plus at most the threshold worth of garbage
+        assertTrue(mFile.length() < 4 * large.length + 16 * 1024);
+        store.close();
+
+        SecureRecordStore reloaded = new SecureRecordStore(mFile);
+        Arrays.fill(large, (byte) 63);
+        assertArrayEquals(large, reloaded.get("a").ciphertext);
+        assertValue(reloaded, "b", "small");
+        reloaded.close();
+    }
+
+    @Test
+    public void legacyFilesLoadAndAreUpgraded() throws IOException {
+        SecureRecordStore store = new SecureRecordStore(mFile);
+        store.put("a", record("legacy"));
+        store.close();
+        // Version 1 files differ only in the version byte, they never contain batches
+        try (RandomAccessFile file = new RandomAccessFile(mFile, "rw")) {
+            file.seek(4);
+            file.write(1);
+        }
+
+        SecureRecordStore reloaded = new SecureRecordStore(mFile);
+        assertValue(reloaded, "a", "legacy");
+        reloaded.close();
+        try (RandomAccessFile file = new RandomAccessFile(mFile, "r")) {
+            file.seek(4);
+            assertEquals(2, file.read());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void unknownFormatsAreRejected() throws IOException {
+        Files.write(mFile.toPath(), new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        new SecureRecordStore(mFile).load();
+    }
+
+    private void copyTruncated(long full, long length) throws IOException {
+        File backup = new File(mDirectory, "full.bin");
+        if (!backup.exists()) {
+            Files.copy(mFile.toPath(), backup.toPath());
+        }
+        assertEquals(full, backup.length());
+        Files.write(mFile.toPath(), Arrays.copyOf(Files.readAllBytes(backup.toPath()), (int) length));
+    }
+
+    private void restore(long full) throws IOException {
+        File backup = new File(mDirectory, "full.bin");
+        Files.write(mFile.toPath(), Files.readAllBytes(backup.toPath()));
+        assertEquals(full, mFile.length());
+    }
+
+    private static EncryptedRecord record(String value) {
+        byte[] iv = new byte[12];
+        Arrays.fill(iv, (byte) value.length());
+        return new EncryptedRecord("aes", iv, 128, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void assertValue(SecureRecordStore store, String key, String value) throws IOException {
+        EncryptedRecord record = store.get(key);
+        assertNotNull(key, record);
+        assertEquals(key, value, new String(record.ciphertext, StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,147 @@
+package com.tonhub.wallet.modules.store;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import javax.crypto.AEADBadTagException;
+
+public class SegmentedBlobStoreTest {
+    private static final int SEGMENT = SegmentedBlobStore.SEGMENT_SIZE_BYTES;
+    // Every segment carries a 16-byte GCM tag
+    private static final int SEALED_SEGMENT = SEGMENT + 16;
+
+    private File mDirectory;
+    private SegmentedBlobStore mStore;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = Files.createTempDirectory("blobs").toFile();
+        mStore = new SegmentedBlobStore(mDirectory);
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void valuesRoundTripAroundSegmentBoundaries() throws Exception {
+        for (int length : new int[]{0, 1, SEGMENT - 1, SEGMENT, SEGMENT + 1, 3 * SEGMENT + 17}) {
+            byte[] plaintext = randomBytes(length);
+            SegmentedBlobStore.Manifest manifest = mStore.write("item", plaintext);
+            assertArrayEquals("length " + length, plaintext, mStore.read("item", manifest));
+        }
+    }
+
+    @Test
+    public void manifestSecretsRoundTrip() throws Exception {
+        SegmentedBlobStore.Manifest manifest = mStore.write("item", randomBytes(100));
+        SegmentedBlobStore.Manifest decoded = SegmentedBlobStore.Manifest.decodeSecret(
+                manifest.fileId, manifest.encodeSecret()
+        );
+        assertArrayEquals(manifest.contentKey, decoded.contentKey);
+        assertArrayEquals(manifest.noncePrefix, decoded.noncePrefix);
+        assertEquals(manifest.plaintextLength, decoded.plaintextLength);
+    }
+
+    @Test
+    public void reorderedSegmentsAreRejected() throws Exception {
+        SegmentedBlobStore.Manifest manifest = mStore.write("item", randomBytes(3 * SEGMENT));
+        File file = blobFile(manifest);
+
+        byte[] sealed = Files.readAllBytes(file.toPath());
+        byte[] swapped = sealed.clone();
+        System.arraycopy(sealed, 0, swapped, SEALED_SEGMENT, SEALED_SEGMENT);
+        System.arraycopy(sealed, SEALED_SEGMENT, swapped, 0, SEALED_SEGMENT);
+        Files.write(file.toPath(), swapped);
+
+        assertReadFails("item", manifest);
+    }
+
+    @Test
+    public void truncatedBlobsAreRejected() throws Exception {
+        SegmentedBlobStore.Manifest manifest = mStore.write("item", randomBytes(3 * SEGMENT));
+        File file = blobFile(manifest);
+        byte[] sealed = Files.readAllBytes(file.toPath());
+
+        // Dropping the final segment, against the original manifest
+        Files.write(file.toPath(), Arrays.copyOf(sealed, 2 * SEALED_SEGMENT));
+        assertReadFails("item", manifest);
+
+        // ... and against a manifest shortened to match: the new last segment wasn't sealed as last
+        SegmentedBlobStore.Manifest shortened = new SegmentedBlobStore.Manifest(
+                manifest.fileId, manifest.contentKey, manifest.noncePrefix, 2L * SEGMENT
+        );
+        assertReadFails("item", shortened);
+    }
+
+    @Test
+    public void tamperedSegmentsAreRejected() throws Exception {
+        SegmentedBlobStore.Manifest manifest = mStore.write("item", randomBytes(SEGMENT + 10));
+        File file = blobFile(manifest);
+        byte[] sealed = Files.readAllBytes(file.toPath());
+        sealed[SEALED_SEGMENT + 3] ^= 1;
+        Files.write(file.toPath(), sealed);
+
+        assertReadFails("item", manifest);
+    }
+
+    @Test
+    public void blobsAreBoundToTheirItemKey() throws Exception {
+        SegmentedBlobStore.Manifest manifest = mStore.write("item", randomBytes(100));
+        assertReadFails("another-item", manifest);
+    }
+
+    @Test
+    public void retainOnlyDeletesUnreferencedFiles() throws Exception {
+        SegmentedBlobStore.Manifest kept = mStore.write("kept", randomBytes(10));
+        SegmentedBlobStore.Manifest dropped = mStore.write("dropped", randomBytes(10));
+        File leftover = new File(mDirectory, "leftover.blob.tmp");
+        assertTrue(leftover.createNewFile());
+
+        mStore.retainOnly(Collections.singleton(SegmentedBlobStore.toHex(kept.fileId)));
+
+        assertTrue(blobFile(kept).exists());
+        assertFalse(blobFile(dropped).exists());
+        assertFalse(leftover.exists());
+    }
+
+    private void assertReadFails(String key, SegmentedBlobStore.Manifest manifest) throws Exception {
+        try {
+            mStore.read(key, manifest);
+            fail("Reading should have failed authentication");
+        } catch (AEADBadTagException expected) {
+            // Expected
+        }
+    }
+
+    private File blobFile(SegmentedBlobStore.Manifest manifest) {
+        return new File(mDirectory, SegmentedBlobStore.toHex(manifest.fileId) + ".blob");
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,183 @@
+package com.tonhub.wallet.modules.wallet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.tls.HandshakeCertificates;
+import okhttp3.tls.HeldCertificate;
+
+public class CardApiClientTest {
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+
+    private MockWebServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        // The client is shared, start every test without pooled connections from the previous one
+        CardApiClient.get().connectionPool().evictAll();
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void clientIsShared() {
+        assertSame(CardApiClient.get(), CardApiClient.get());
+    }
+
+    @Test
+    public void sequentialRequestsReuseOneConnection() throws Exception {
+        OkHttpClient client = CardApiClient.get();
+        for (int i = 0; i < 5; i++) {
+            server.enqueue(new MockResponse().setBody("{\"data\":{\"encryptedData\":\"opc\"}}"));
+        }
+
+        for (int i = 0; i < 5; i++) {
+            try (Response response = client.newCall(post("/v1/card/provisioning-data")).execute()) {
+                assertEquals(200, response.code());
+                response.body().string();
+            }
+        }
+
+        // Sequence numbers count requests per connection, so 0..4 means nothing was reconnected
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, server.takeRequest().getSequenceNumber());
+        }
+        assertEquals(1, client.connectionPool().connectionCount());
+    }
+
+    @Test
+    public void prewarmedConnectionIsReusedByTheNextRequest() throws Exception {
+        OkHttpClient client = CardApiClient.get();
+        server.enqueue(new MockResponse());
+        server.enqueue(new MockResponse().setBody("{}"));
+
+        // What prewarm does, against the mock server: a HEAD whose response is only closed
+        client.newCall(new Request.Builder().url(server.url("/")).head().build()).execute().close();
+        try (Response response = client.newCall(post("/v1/card/provisioning-data")).execute()) {
+            assertEquals(200, response.code());
+        }
+
+        assertEquals(0, server.takeRequest().getSequenceNumber());
+        assertEquals(1, server.takeRequest().getSequenceNumber());
+    }
+
+    @Test
+    public void slowResponsesWithinTheReadTimeoutSucceed() throws Exception {
+        OkHttpClient client = CardApiClient.get();
+        server.enqueue(new MockResponse()
+                .setHeadersDelay(500, TimeUnit.MILLISECONDS)
+                .setBody("{\"data\":{\"encryptedData\":\"opc\"}}")
+                .throttleBody(8, 50, TimeUnit.MILLISECONDS));
+
+        long start = System.nanoTime();
+        try (Response response = client.newCall(post("/v1/card/provisioning-data")).execute()) {
+            assertEquals("{\"data\":{\"encryptedData\":\"opc\"}}", response.body().string());
+        }
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue("elapsed " + elapsedMs, elapsedMs >= 500);
+        assertTrue(elapsedMs < client.readTimeoutMillis());
+    }
+
+    @Test
+    public void httpsRequestsShareOneHttp2Connection() throws Exception {
+        OkHttpClient client = useHttps(new ArrayList<>());
+        for (int i = 0; i < 3; i++) {
+            server.enqueue(new MockResponse().setBody("{\"data\":{\"encryptedData\":\"opc\"}}"));
+        }
+
+        for (int i = 0; i < 3; i++) {
+            try (Response response = client.newCall(post("/v1/card/provisioning-data")).execute()) {
+                assertEquals(Protocol.HTTP_2, response.protocol());
+                response.body().string();
+            }
+        }
+
+        // One TLS handshake, every request is a stream on the same connection
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i, server.takeRequest().getSequenceNumber());
+        }
+        assertEquals(1, client.connectionPool().connectionCount());
+    }
+
+    @Test
+    public void reconnectingResumesTheTlsSession() throws Exception {
+        List<SSLSession> sessions = new ArrayList<>();
+        OkHttpClient client = useHttps(sessions);
+        server.enqueue(new MockResponse());
+        server.enqueue(new MockResponse());
+
+        client.newCall(new Request.Builder().url(server.url("/")).head().build()).execute().close();
+        // E.g. the pooled connection went idle for too long
+        client.connectionPool().evictAll();
+        Thread.sleep(10);
+        try (Response response = client.newCall(post("/v1/card/provisioning-data")).execute()) {
+            assertEquals(200, response.code());
+        }
+
+        assertEquals(0, server.takeRequest().getSequenceNumber());
+        assertEquals(0, server.takeRequest().getSequenceNumber());
+        // A resumed session keeps the creation time of the one it resumes, a full handshake wouldn't
+        assertEquals(2, sessions.size());
+        assertEquals(sessions.get(0).getCreationTime(), sessions.get(1).getCreationTime());
+    }
+
+    /**
+     * Serves TLS with HTTP/2 from the mock server and returns the shared client trusting it, which
+     * adds the TLS session of every request's connection to sessions
+     */
+    private OkHttpClient useHttps(List<SSLSession> sessions) {
+        HeldCertificate certificate = new HeldCertificate.Builder()
+                .addSubjectAlternativeName(server.getHostName())
+                .build();
+        HandshakeCertificates serverCertificates = new HandshakeCertificates.Builder()
+                .heldCertificate(certificate)
+                .build();
+        HandshakeCertificates clientCertificates = new HandshakeCertificates.Builder()
+                .addTrustedCertificate(certificate.certificate())
+                .build();
+        server.useHttps(serverCertificates.sslSocketFactory(), false);
+        server.setProtocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1));
+
+        return CardApiClient.get().newBuilder()
+                .sslSocketFactory(clientCertificates.sslSocketFactory(), clientCertificates.trustManager())
+                .addNetworkInterceptor(chain -> {
+                    sessions.add(((SSLSocket) chain.connection().socket()).getSession());
+                    return chain.proceed(chain.request());
+                })
+                .build();
+    }
+
+    private Request post(String path) {
+        return new Request.Builder()
+                .url(server.url(path))
+                .post(RequestBody.create("{}", JSON))
+                .build();
+    }
+}
@@ -0,0 +1,123 @@
+package com.tonhub.wallet.modules.wallet;
+
+import static org.junit.Assert.assertEquals;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * OPCResponse.decode against the JSONObject tree it replaced, over canned responses. JMH can't
+ * host Robolectric's sandboxed android.util.JsonReader, so this is a plain timed loop with a
+ * warmup, run like the store benchmarks with -Pbenchmarks (true, or a regexp matching
+ * OPCResponseBenchmark) and skipped otherwise.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class OPCResponseBenchmarkTest {
+    private static final int WARMUP_ROUNDS = 20_000;
+    private static final int MEASURED_ROUNDS = 50_000;
+
+    // Keeps the JIT from dropping the decoding
+    private static volatile int sSink;
+
+    @Test
+    public void compareDecoders() throws Exception {
+        String include = System.getProperty("benchmarks", "");
+        Assume.assumeTrue(include.equals("true") || !include.isEmpty() && !include.equals("false")
+                && Pattern.compile(include).matcher("OPCResponseBenchmark").find());
+
+        String opc = repeat("QUJDREVGR0hJSktMTU5PUFFSU1RVVldYWVo=", 40);
+        String success = "{\"ok\":true,\"data\":{\"encryptedData\":\"" + opc + "\"}}";
+        // Whatever else the server sends comes before encryptedData
+        String padded = "{\"ok\":true,\"data\":{\"tokenReferenceId\":\"abc\",\"cardDisplayName\":\"Visa\","
+                + "\"lastDigits\":\"4242\",\"meta\":" + metadata() + ",\"encryptedData\":\"" + opc + "\"}}";
+        String error = "{\"ok\":false,\"error\":\"Card not found\"}";
+
+        for (String[] body : new String[][]{{"success", success}, {"padded", padded}, {"error", error}}) {
+            assertEquals(decodeTree(new StringReader(body[1])), decodeStream(new StringReader(body[1])));
+
+            run(body[1], true);
+            run(body[1], false);
+            long stream = run(body[1], true);
+            long tree = run(body[1], false);
+            System.out.println(String.format(Locale.US, "OPCResponseBenchmark %-8s %5d bytes: stream %6.2f us/op, tree %6.2f us/op",
+                    body[0], body[1].length(), stream / 1000.0 / MEASURED_ROUNDS, tree / 1000.0 / MEASURED_ROUNDS));
+        }
+    }
+
+    /**
+     * Decodes the body repeatedly and returns the nanoseconds the measured rounds took
+     */
+    private static long run(String body, boolean stream) throws IOException, JSONException {
+        int checksum = 0;
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            checksum += decode(body, stream).length();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            checksum += decode(body, stream).length();
+        }
+        long elapsed = System.nanoTime() - start;
+        sSink = checksum;
+        return elapsed;
+    }
+
+    private static String decode(String body, boolean stream) throws IOException, JSONException {
+        return stream ? decodeStream(new StringReader(body)) : decodeTree(new StringReader(body));
+    }
+
+    private static String decodeStream(Reader body) {
+        OPCResponse response = OPCResponse.decode(body);
+        return response.encryptedData != null ? response.encryptedData : response.error;
+    }
+
+    /**
+     * What fetchOPC did before: the whole body as a string, parsed into a tree
+     */
+    private static String decodeTree(Reader body) throws IOException, JSONException {
+        StringBuilder text = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(body)) {
+            char[] buffer = new char[8192];
+            int read;
+            while ((read = reader.read(buffer)) >= 0) {
+                text.append(buffer, 0, read);
+            }
+        }
+        JSONObject json = new JSONObject(text.toString());
+        if (json.has("error")) {
+            return json.getString("error");
+        }
+        return json.getJSONObject("data").getString("encryptedData");
+    }
+
+    private static String metadata() {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 50; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"id\":").append(i).append(",\"name\":\"entry ").append(i).append("\",\"flags\":[true,false,null]}");
+        }
+        return json.append(']').toString();
+    }
+
+    private static String repeat(String value, int count) {
+        StringBuilder builder = new StringBuilder(value.length() * count);
+        for (int i = 0; i < count; i++) {
+            builder.append(value);
+        }
+        return builder.toString();
+    }
+}
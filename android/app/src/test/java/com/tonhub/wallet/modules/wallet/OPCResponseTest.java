@@ -0,0 +1,122 @@
+package com.tonhub.wallet.modules.wallet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.StringReader;
+import java.util.Random;
+
+/**
+ * OPCResponse is decoded with android.util.JsonReader, which only exists under Robolectric on the
+ * JVM
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class OPCResponseTest {
+    private static final String VALID = "{\"ok\":true,\"data\":{\"cardId\":\"1\",\"encryptedData\":\"b3BjLWRhdGE=\","
+            + "\"extra\":[1,2,{\"a\":null}]}}";
+
+    @Test
+    public void decodesEncryptedData() {
+        OPCResponse response = decode(VALID);
+        assertEquals("b3BjLWRhdGE=", response.encryptedData);
+        assertNull(response.error);
+    }
+
+    @Test
+    public void decodesErrors() {
+        assertEquals("Card not found", decode("{\"error\":\"Card not found\"}").error);
+        assertEquals("404", decode("{\"error\":404}").error);
+        assertEquals("Failed to fetch OPC", decode("{\"error\":{\"code\":1}}").error);
+        // A null error is ignored in favour of the data
+        assertEquals("x", decode("{\"error\":null,\"data\":{\"encryptedData\":\"x\"}}").encryptedData);
+    }
+
+    @Test
+    public void missingFieldsDecodeToErrors() {
+        assertFailure(decode("{}"), "Missing data");
+        assertFailure(decode("{\"data\":null}"), "Missing data");
+        assertFailure(decode("{\"data\":\"string\"}"), "Missing data");
+        assertFailure(decode("{\"data\":{}}"), "Missing encryptedData");
+        assertFailure(decode("{\"data\":{\"encryptedData\":null}}"), "Missing encryptedData");
+        assertFailure(decode("{\"data\":{\"encryptedData\":42}}"), "Missing encryptedData");
+        assertFailure(decode("{\"data\":{\"encryptedData\":[\"x\"]}}"), "Missing encryptedData");
+    }
+
+    @Test
+    public void malformedBodiesDecodeToErrors() {
+        String[] bodies = {
+                "",
+                " ",
+                "null",
+                "[]",
+                "\"data\"",
+                "42",
+                "{",
+                "}",
+                "{\"data\"",
+                "{\"data\":",
+                "{\"data\":{",
+                "{\"data\":{\"encryptedData\"",
+                "{\"data\":{\"encryptedData\":",
+                "{\"data\":{\"encryptedData\":\"unterminated",
+                "{\"error\":",
+                "{\"error\":\"unterminated",
+                "{data:{encryptedData:'x'}}",
+                "{\"data\":{\"other\":[1,2,",
+                "{\"a\":1,,\"data\":{}}",
+                "{\"data\":{}}}",
+                "<html><body>502 Bad Gateway</body></html>",
+                "\u0000\u0001\u0002",
+        };
+        for (String body : bodies) {
+            OPCResponse response = decode(body);
+            assertNull(body, response.encryptedData);
+            assertNotNull(body, response.error);
+        }
+    }
+
+    @Test
+    public void deeplyNestedBodiesDecodeToErrors() {
+        StringBuilder body = new StringBuilder("{\"data\":{\"other\":");
+        for (int i = 0; i < 10_000; i++) {
+            body.append('[');
+        }
+        OPCResponse response = decode(body.toString());
+        assertNull(response.encryptedData);
+        assertNotNull(response.error);
+    }
+
+    @Test
+    public void randomlyMutatedBodiesNeverThrow() {
+        Random random = new Random(24);
+        for (int i = 0; i < 5_000; i++) {
+            char[] body = VALID.toCharArray();
+            int mutations = 1 + random.nextInt(4);
+            for (int m = 0; m < mutations; m++) {
+                body[random.nextInt(body.length)] = (char) (random.nextInt(0x80));
+            }
+            int length = random.nextInt(4) == 0 ? random.nextInt(body.length + 1) : body.length;
+
+            OPCResponse response = decode(new String(body, 0, length));
+            // Exactly one of the two is set, whatever the input
+            assertTrue(response.encryptedData == null ^ response.error == null);
+        }
+    }
+
+    private static void assertFailure(OPCResponse response, String error) {
+        assertNull(response.encryptedData);
+        assertEquals(error, response.error);
+    }
+
+    private static OPCResponse decode(String body) {
+        return OPCResponse.decode(new StringReader(body));
+    }
+}
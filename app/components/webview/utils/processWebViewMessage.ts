@@ -7,7 +7,7 @@ import { LocalStorageStatus } from "../../../engine/state/webViewLocalStorage";
 import { dispatchAuthResponse, dispatchLastAuthTimeResponse, dispatchLockAppWithAuthResponse, dispatchMainButtonResponse, dispatchWalletResponse } from "../../../fragments/apps/components/inject/createInjectSource";
 import { AuthWalletKeysType, getLastAuthTimestamp } from "../../secure/AuthWalletKeys";
 import { warn } from "../../../utils/log";
-import { addCardRequestSchema, WalletService } from "../../../modules/WalletService";
+import { addCardRequestSchema, AndroidWalletService, WalletService } from "../../../modules/WalletService";
 import { getHoldersToken } from "../../../storage/holders";
 import { processStatusBarMessage } from "./processStatusBarMessage";
 import { setStatusBarBackgroundColor, setStatusBarStyle } from "expo-status-bar";
@@ -235,6 +235,19 @@ export function processWebViewMessage(
                             return true;
                         }
 
+                        // The card is showing its add to wallet button, have its provisioning data ready
+                        try {
+                            const _address = address
+                                ? address.toString({ testOnly: isTestnet })
+                                : getCurrentAddress().address.toString({ testOnly: isTestnet });
+                            const token = getHoldersToken(_address);
+                            if (token) {
+                                AndroidWalletService.prefetchProvisioningData({ cardId, token, isTestnet });
+                            }
+                        } catch {
+                            warn('Failed to prefetch provisioning data');
+                        }
+
                         (async () => {
                             try {
                                 const result = await WalletService.canAddCard(cardId);
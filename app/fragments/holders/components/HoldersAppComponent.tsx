@@ -29,6 +29,7 @@ import { Address } from '@ton/core';
 import { getSearchParams } from '../../../utils/holders/queryParamsStore';
 import { TransactionsPlaceholder } from './TransactionsPlaceholder';
 import { SettingsPlaceholder } from './SettingsPlaceholder';
+import { AndroidWalletService } from '../../../modules/WalletService';
 
 export const holdersSupportUrl = 'https://t.me/Welcome_holders';
 export const supportFormUrl = 'https://airtable.com/appWErwfR8x0o7vmz/shr81d2H644BNUtPN';
@@ -342,6 +343,23 @@ export const HoldersAppComponent = memo((
     //
     const { ref: webViewRef, isConnected, disconnect, ...tonConnectWebViewProps } = useDAppBridge(url, navigation, address?.toString({ testOnly: isTestnet }), isLedger);
 
+    //
+    // Add to Google Wallet: connect to the card API and fetch the card's provisioning data while the app loads
+    //
+    useEffect(() => {
+        AndroidWalletService.prewarmConnection(isTestnet);
+
+        if (variant.type !== HoldersAppParamsType.Card || !address) {
+            return;
+        }
+        const token = status?.state === HoldersUserState.Ok
+            ? status.token
+            : getHoldersToken(address.toString({ testOnly: isTestnet }));
+        if (token) {
+            AndroidWalletService.prefetchProvisioningData({ cardId: variant.id, token, isTestnet });
+        }
+    }, []);
+
     const injectSource = useMemo(() => {
         if (!address) {
             throw new Error('No account selected');
@@ -0,0 +1,44 @@
+import { useEffect, useState } from 'react';
+import { NativeEventEmitter, NativeModules, Platform } from 'react-native';
+
+export type DeviceCapabilitiesSnapshot = {
+    enrolledLevel: number;
+    hasNfc: boolean;
+    isNfcEnabled: boolean;
+    isDefaultWallet: boolean;
+    // null until the first TapAndPay check completes
+    isTapAndPayAvailable: boolean | null;
+};
+
+export namespace DeviceCapabilities {
+    /**
+     * Current snapshot, a synchronous read of values the native side keeps up to date.
+     * `null` off Android.
+     */
+    export function getSnapshot(): DeviceCapabilitiesSnapshot | null {
+        if (Platform.OS !== 'android' || !NativeModules.DeviceCapabilities) {
+            return null;
+        }
+        return NativeModules.DeviceCapabilities.getSnapshot();
+    }
+
+    export function useDeviceCapabilities(): DeviceCapabilitiesSnapshot | null {
+        const [snapshot, setSnapshot] = useState(getSnapshot());
+        useEffect(() => {
+            if (Platform.OS !== 'android' || !NativeModules.DeviceCapabilities) {
+                return;
+            }
+            const eventEmitter = new NativeEventEmitter(NativeModules.DeviceCapabilities);
+            let eventListener = eventEmitter.addListener('deviceCapabilitiesChanged', setSnapshot);
+
+            // Catch up with changes made before the listener was added
+            setSnapshot(getSnapshot());
+
+            return () => {
+                eventListener?.remove();
+            };
+        }, []);
+
+        return snapshot;
+    }
+}
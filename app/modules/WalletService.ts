@@ -44,6 +44,8 @@ interface AndroidWalletService {
 
     getIsDefaultWallet(): Promise<boolean>;
     setDefaultWallet(): Promise<void>;
+    prefetchProvisioningData(request: Pick<AddCardRequest, 'token' | 'cardId' | 'isTestnet'>): void;
+    prewarmConnection(isTestnet: boolean): void;
 }
 
 export const IosWalletService: IosWalletService = {
@@ -136,6 +138,22 @@ export const AndroidWalletService: AndroidWalletService = {
         return WalletModule.setDefaultWallet();
     },
 
+    prefetchProvisioningData(request: Pick<AddCardRequest, 'token' | 'cardId' | 'isTestnet'>): void {
+        if (Platform.OS === 'ios') {
+            return;
+        }
+
+        WalletModule.prefetchProvisioningData(request.cardId, request.token, !!request.isTestnet);
+    },
+
+    prewarmConnection(isTestnet: boolean): void {
+        if (Platform.OS === 'ios') {
+            return;
+        }
+
+        WalletModule.prewarmConnection(isTestnet);
+    },
+
     async addCardToWallet(request: AddCardRequest): Promise<boolean> {
         if (Platform.OS === 'ios') {
             return false;
@@ -171,12 +189,7 @@ export const AndroidWalletService: AndroidWalletService = {
             return {};
         }
 
-        const result = await WalletModule.checkIfCardsAreAdded(cardIds);
-
-        return result.reduce((acc: { [x: string]: any; }, cardId: any, index: number) => {
-            acc[cardIds[index]] = cardId;
-            return acc;
-        }, {});
+        return WalletModule.checkIfCardsAreAdded(cardIds);
     }
 }
 
@@ -1,3 +1,4 @@
+import { NativeEventEmitter } from 'react-native';
 import KeyStore from './KeyStoreModule';
 
 export enum SecurityLevel {
@@ -29,8 +30,6 @@ export async function getEnrolledLevelAsync(): Promise<SecurityLevel> {
   return await KeyStore.getEnrolledLevelAsync();
 }
 
-const VALUE_BYTES_LIMIT = 2048;
-
 // @needsAudit
 /**
  * Returns whether the DeviceCredentialsStore API is enabled on the current device. This does not check the app
@@ -78,13 +77,70 @@ export async function getItemAsync(
   return await KeyStore.getValueWithKeyAsync(key);
 }
 
+// @needsAudit
+/**
+ * Fetch the stored values associated with the provided keys within a single native call.
+ *
+ * @param keys The keys that were used to store the associated values.
+ *
+ * @return A promise that resolves to a map of key to the previously stored value, or `null` if
+ * there is no entry for that key. The promise will reject if any of the values couldn't be read.
+ */
+export async function getItemsAsync(
+  keys: string[]
+): Promise<{ [key: string]: string | null }> {
+  keys.forEach(_ensureValidKey);
+  if (!KeyStore.getValuesWithKeysAsync) {
+    throw new Error('KeyStore getItemsAsync unavalible');
+  }
+  return await KeyStore.getValuesWithKeysAsync(keys);
+}
+
+// @needsAudit
+/**
+ * Delete the values associated with the provided keys within a single native call and a single
+ * write to disk.
+ *
+ * @param keys The keys that were used to store the associated values.
+ *
+ * @return A promise that resolves to the number of keys that held a value.
+ */
+export async function deleteItemsAsync(
+  keys: string[]
+): Promise<number> {
+  keys.forEach(_ensureValidKey);
+  if (!KeyStore.deleteValuesWithKeysAsync) {
+    throw new Error('KeyStore deleteItemsAsync unavalible');
+  }
+  return await KeyStore.deleteValuesWithKeysAsync(keys);
+}
+
+// @needsAudit
+/**
+ * Delete every stored value, e.g. on logout.
+ *
+ * @param options.deleteKeys Also delete the keystore keys, so nothing written before can be
+ * decrypted even from a backup of the storage files.
+ *
+ * @return A promise that resolves to the number of values removed.
+ */
+export async function clearAllAsync(
+  options: { deleteKeys?: boolean } = {}
+): Promise<number> {
+  if (!KeyStore.clearAllAsync) {
+    throw new Error('KeyStore clearAllAsync unavalible');
+  }
+  return await KeyStore.clearAllAsync(!!options.deleteKeys);
+}
+
 // @needsAudit
 /**
  * Store a key–value pair.
  *
  * @param key The key to associate with the stored value. Keys may contain alphanumeric characters
  * `.`, `-`, and `_`.
- * @param value The value to store. Size limit is 2048 bytes.
+ * @param value The value to store. Values over 2048 bytes are stored in segments in their own
+ * encrypted file. Storing the value the key already holds resolves without authentication.
  *
  * @return A promise that will reject if value cannot be stored on the device.
  */
@@ -104,52 +160,114 @@ export async function setItemAsync(
   await KeyStore.setValueWithKeyAsync(value, key);
 }
 
-function _ensureValidKey(key: string) {
-  if (!_isValidKey(key)) {
-    throw new Error(
-      `Invalid key provided to DeviceCredentialsStore. Keys must not be empty and contain only alphanumeric characters, ".", "-", and "_".`
-    );
+// @needsAudit
+/**
+ * **(Android Only)**
+ * Enable or disable envelope mode for subsequent writes. In envelope mode values are sealed with a
+ * session data key that is unwrapped once per unlocked session, so only the first secure operation
+ * of a session shows an authentication prompt. Values written in either mode stay readable.
+ *
+ * @param enabled Whether new values should be written with the envelope scheme.
+ * @param sessionTimeoutSeconds How long an unlocked session is kept before the data key is wiped.
+ */
+export async function setEnvelopeModeAsync(
+  enabled: boolean,
+  sessionTimeoutSeconds: number = 300
+): Promise<void> {
+  if (!KeyStore.setEnvelopeModeAsync) {
+    throw new Error('KeyStore setEnvelopeModeAsync unavalible');
   }
+  await KeyStore.setEnvelopeModeAsync(enabled, sessionTimeoutSeconds);
 }
 
-function _isValidKey(key: string) {
-  return typeof key === 'string' && /^[\w.-]+$/.test(key);
+/**
+ * **(Android Only)**
+ * Wipe the envelope session data key, the next envelope read or write will ask for authentication.
+ */
+export async function lockEnvelopeSessionAsync(): Promise<void> {
+  if (!KeyStore.lockEnvelopeSessionAsync) {
+    throw new Error('KeyStore lockEnvelopeSessionAsync unavalible');
+  }
+  await KeyStore.lockEnvelopeSessionAsync();
 }
 
-function _isValidValue(value: string) {
-  if (typeof value !== 'string') {
-    return false;
+export type ReencryptScheme = 'aes' | 'aes-envelope';
+
+export type ReencryptProgress = {
+  completed: number;
+  total: number;
+};
+
+/**
+ * **(Android Only)**
+ * Re-encrypt every value stored with `fromScheme` with `toScheme` in one native job, for example to
+ * move existing values into envelope mode. Values are written together in a single transaction once
+ * all of them are re-encrypted, so an interrupted job changes nothing and can simply be run again.
+ * Re-encrypting from `aes` still asks for authentication once per value.
+ *
+ * @param onProgress Called after every value with the number of values processed so far.
+ *
+ * @return A promise that resolves to the number of values that were re-encrypted.
+ */
+export async function reencryptAllAsync(
+  fromScheme: ReencryptScheme,
+  toScheme: ReencryptScheme,
+  onProgress?: (progress: ReencryptProgress) => void
+): Promise<number> {
+  if (!KeyStore.reencryptAllAsync) {
+    throw new Error('KeyStore reencryptAllAsync unavalible');
   }
-  if (_byteCount(value) > VALUE_BYTES_LIMIT) {
-    console.warn(
-      'Provided value to DeviceCredentialsStore is larger than 2048 bytes. An attempt to store such a value will throw an error in SDK 35.'
-    );
+  const subscription = onProgress
+    ? new NativeEventEmitter(KeyStore).addListener('keyStoreReencryptProgress', onProgress)
+    : null;
+  try {
+    return await KeyStore.reencryptAllAsync(fromScheme, toScheme);
+  } finally {
+    subscription?.remove();
   }
-  return true;
 }
 
-// copy-pasted from https://stackoverflow.com/a/39488643
-function _byteCount(value: string) {
-  let bytes = 0;
+export type LatencyStats = {
+  count: number;
+  meanMs: number;
+  p50Ms: number;
+  p90Ms: number;
+  p99Ms: number;
+  maxMs: number;
+};
 
-  for (let i = 0; i < value.length; i++) {
-    const codePoint = value.charCodeAt(i);
-
-    // Lone surrogates cannot be passed to encodeURI
-    if (codePoint >= 0xd800 && codePoint < 0xe000) {
-      if (codePoint < 0xdc00 && i + 1 < value.length) {
-        const next = value.charCodeAt(i + 1);
+export type MetricsSnapshot = {
+  /**
+   * Writes of a value the key already held, which resolved without prompting or writing.
+   */
+  skippedWrites: number;
+  [name: string]: LatencyStats | number;
+};
 
-        if (next >= 0xdc00 && next < 0xe000) {
-          bytes += 4;
-          i++;
-          continue;
-        }
-      }
-    }
+/**
+ * **(Android Only)**
+ * Latency statistics of every KeyStore operation (`setItem`, `getItem`, `deleteItem`) and of their
+ * phases (`keyGeneration`, `cipherInit`, `prompt`, `doFinal`, `persist`) since app start.
+ */
+export async function getMetricsSnapshot(): Promise<MetricsSnapshot> {
+  if (!KeyStore.getMetricsSnapshot) {
+    throw new Error('KeyStore getMetricsSnapshot unavalible');
+  }
+  return await KeyStore.getMetricsSnapshot();
+}
 
-    bytes += codePoint < 0x80 ? 1 : codePoint < 0x800 ? 2 : 3;
+function _ensureValidKey(key: string) {
+  if (!_isValidKey(key)) {
+    throw new Error(
+      `Invalid key provided to DeviceCredentialsStore. Keys must not be empty and contain only alphanumeric characters, ".", "-", and "_".`
+    );
   }
+}
+
+function _isValidKey(key: string) {
+  return typeof key === 'string' && /^[\w.-]+$/.test(key);
+}
 
-  return bytes;
+function _isValidValue(value: string) {
+  return typeof value === 'string';
 }
@@ -0,0 +1,44 @@
+import { NativeModules, Platform } from 'react-native';
+import { openBox, pbkdf2_sha512, sealBox } from '@ton/crypto';
+
+const { PasscodeCrypto } = NativeModules;
+
+function isNativeAvailable() {
+    return Platform.OS === 'android' && !!PasscodeCrypto;
+}
+
+/**
+ * PBKDF2-SHA512 of the passcode, computed natively on Android so the JS thread stays responsive.
+ * Byte-identical to `pbkdf2_sha512` of @ton/crypto with string password and salt.
+ */
+export async function pbkdf2Sha512(pass: string, salt: string, iterations: number, keyLength: number): Promise<Buffer> {
+    if (!isNativeAvailable()) {
+        return await pbkdf2_sha512(pass, salt, iterations, keyLength);
+    }
+    const key: string = await PasscodeCrypto.deriveKeyAsync(pass, salt, iterations, keyLength);
+    return Buffer.from(key, 'base64');
+}
+
+export async function sealBoxAsync(data: Buffer, nonce: Buffer, key: Buffer): Promise<Buffer> {
+    if (!isNativeAvailable()) {
+        return sealBox(data, nonce, key);
+    }
+    const sealed: string = await PasscodeCrypto.sealBoxAsync(
+        data.toString('base64'),
+        nonce.toString('base64'),
+        key.toString('base64')
+    );
+    return Buffer.from(sealed, 'base64');
+}
+
+export async function openBoxAsync(box: Buffer, nonce: Buffer, key: Buffer): Promise<Buffer | null> {
+    if (!isNativeAvailable()) {
+        return openBox(box, nonce, key);
+    }
+    const opened: string | null = await PasscodeCrypto.openBoxAsync(
+        box.toString('base64'),
+        nonce.toString('base64'),
+        key.toString('base64')
+    );
+    return opened !== null ? Buffer.from(opened, 'base64') : null;
+}
@@ -1,9 +1,10 @@
 import * as SecureStore from 'expo-secure-store';
 import { Platform } from 'react-native';
-import { getSecureRandomBytes, openBox, pbkdf2_sha512, sealBox } from '@ton/crypto';
+import { getSecureRandomBytes } from '@ton/crypto';
 import { storage } from "./storage";
 import * as LocalAuthentication from 'expo-local-authentication';
 import * as KeyStore from './modules/KeyStore';
+import { openBoxAsync, pbkdf2Sha512, sealBoxAsync } from './modules/PasscodeCrypto';
 
 export const passcodeStateKey = 'passcode-state';
 export const passcodeSaltKey = 'ton-storage-passcode-nacl';
@@ -117,7 +118,7 @@ export async function getApplicationKey(passcode?: string) {
 
 async function doEncrypt(key: Buffer, data: Buffer) {
     const nonce = await getSecureRandomBytes(24);
-    const sealed = sealBox(data, nonce, key);
+    const sealed = await sealBoxAsync(data, nonce, key);
     return Buffer.concat([nonce, sealed]);
 }
 
@@ -225,7 +226,7 @@ export async function generateNewKeyAndEncryptWithPasscode(
 export async function encryptData(data: Buffer, passcode?: string) {
     const key = await getApplicationKey(passcode);
     const nonce = await getSecureRandomBytes(24);
-    const sealed = sealBox(data, nonce, key);
+    const sealed = await sealBoxAsync(data, nonce, key);
     return Buffer.concat([nonce, sealed]);
 }
 
@@ -233,7 +234,7 @@ export async function decryptData(data: Buffer, passcode?: string) {
     const key = await getApplicationKey(passcode);
     let nonce = data.slice(0, 24);
     let cypherData = data.slice(24);
-    let res = openBox(cypherData, nonce, key);
+    let res = await openBoxAsync(cypherData, nonce, key);
     if (!res) {
         throw Error('Unable to decrypt data');
     }
@@ -249,7 +250,7 @@ export async function generateKeyFromPasscode(pass: string, nacl?: string) {
     const iterations = 100000;
     const keyLength = 32; // 256 bits
 
-    const derivedKey = await pbkdf2_sha512(
+    const derivedKey = await pbkdf2Sha512(
         pass,
         salt,
         iterations,
@@ -263,7 +264,7 @@ export async function doDecryptWithPasscode(pass: string, salt: string, data: Bu
     const passKey = await generateKeyFromPasscode(pass, salt);
     let nonce = data.slice(0, 24);
     let cypherData = data.slice(24);
-    let res = openBox(cypherData, nonce, passKey.key);
+    let res = await openBoxAsync(cypherData, nonce, passKey.key);
     if (!res) {
         throw Error('Unable to decrypt data');
     }